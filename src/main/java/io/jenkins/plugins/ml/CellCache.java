@@ -0,0 +1,310 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Loghi Perinpanayagam.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.jenkins.plugins.ml;
+
+import hudson.FilePath;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.zeppelin.interpreter.InterpreterResult;
+import org.apache.zeppelin.interpreter.InterpreterResultMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Outputs of notebook cells cached on the agent, so a notebook run replays the cells that did not
+ * change since the last run instead of executing them again.
+ *
+ * A cell is keyed by its source and the key of the previous cell, the first cell by a seed that
+ * covers the job, the kernel and the declared input files, so a changed cell misses the cache
+ * together with every cell after it, and the cells of a job are never replayed by another job. An
+ * entry may also hold a snapshot of the kernel state after the cell, written by cell_state.py, which
+ * lets the run resume at the last snapshot before the first changed cell. A run writes a single
+ * snapshot, see {@link #snapshotCode(String)}. Entries are evicted least recently used first once the
+ * cache of the agent grows over {@link #MAX_SIZE_PROPERTY} bytes.
+ */
+public final class CellCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CellCache.class);
+    public static final String MAX_SIZE_PROPERTY = CellCache.class.getName() + ".maxSize";
+    private static final long DEFAULT_MAX_SIZE = 1024L * 1024 * 1024;
+    private static final String DIRECTORY_PREFIX = "jenkins_ml_cell_cache_";
+    private static final String OUTPUTS = "outputs";
+    private static final String STATE = "state.pickle";
+    private static final int FORMAT_VERSION = 1;
+    // printed by _jenkins_ml_restore once the kernel state is restored
+    static final String RESTORED_MARKER = "jenkins-ml-state-restored";
+    // entries of all the executors of the agent share the size limit
+    private static final Object LOCK = new Object();
+
+    private final File directory;
+    private final long maxSize;
+
+    CellCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Gets the cache of this agent.
+     *
+     * @return the cell cache
+     * @throws IOException when the cache directory is not private to the current user
+     */
+    static CellCache forAgent() throws IOException {
+        File directory = new File(System.getProperty("java.io.tmpdir"),
+                DIRECTORY_PREFIX + System.getProperty("user.name"));
+        CellCache cache = new CellCache(directory, Long.getLong(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE));
+        cache.createDirectory();
+        return cache;
+    }
+
+    /**
+     * The kernel loads pickled snapshots from the cache, so only use a directory nobody else can read
+     * or write, created with and reset to 0700.
+     */
+    private void createDirectory() throws IOException {
+        Path path = directory.toPath();
+        if (!Files.isDirectory(path)) {
+            try {
+                Files.createDirectories(path, PosixFilePermissions.asFileAttribute(
+                        PosixFilePermissions.fromString("rwx------")));
+            } catch (UnsupportedOperationException e) {
+                Files.createDirectories(path);
+            }
+        }
+        UserPrincipal user = path.getFileSystem().getUserPrincipalLookupService()
+                .lookupPrincipalByName(System.getProperty("user.name"));
+        if (!user.equals(Files.getOwner(path))) {
+            throw new IOException("Cell cache " + directory + " is not owned by " + user.getName());
+        }
+        try {
+            Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rwx------"));
+        } catch (UnsupportedOperationException e) {
+            // not a posix file system, the directory inherits the permissions of the user temp directory
+        }
+    }
+
+    /**
+     * Computes the seed of the cell keys of a notebook.
+     *
+     * @param job       the full name of the job running the notebook
+     * @param kernel    the kernel executing the notebook
+     * @param workspace the workspace
+     * @param inputs    the input files, relative to the workspace
+     * @return the seed
+     * @throws IOException          when an input file can not be read
+     * @throws InterruptedException when interrupted
+     */
+    static String seed(String job, String kernel, FilePath workspace, List<String> inputs)
+            throws IOException, InterruptedException {
+        StringBuilder seed = new StringBuilder(job).append('\n').append(kernel);
+        for (String input : inputs) {
+            FilePath file = workspace.child(input);
+            seed.append('\n').append(input).append('=').append(file.exists() ? file.digest() : "missing");
+        }
+        return digest(seed.toString());
+    }
+
+    /**
+     * Computes the key of each cell.
+     *
+     * @param seed  the seed, see {@link #seed(String, String, FilePath, List)}
+     * @param cells the source of each cell
+     * @return the key of each cell
+     */
+    static List<String> keys(String seed, List<String> cells) {
+        List<String> keys = new ArrayList<>(cells.size());
+        String previous = seed;
+        for (String cell : cells) {
+            previous = digest(previous + '\n' + cell);
+            keys.add(previous);
+        }
+        return keys;
+    }
+
+    private static String digest(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest(text.getBytes(StandardCharsets.UTF_8))) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Gets the cached outputs of a cell.
+     *
+     * @param key the cell key
+     * @return the outputs, or null when the cell is not cached
+     */
+    List<InterpreterResultMessage> get(String key) {
+        File outputs = new File(new File(directory, key), OUTPUTS);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(outputs.toPath())))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            List<InterpreterResultMessage> messages = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                InterpreterResult.Type type = InterpreterResult.Type.valueOf(in.readUTF());
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                messages.add(new InterpreterResultMessage(type, new String(data, StandardCharsets.UTF_8)));
+            }
+            // eviction drops the least recently used entries first
+            outputs.setLastModified(System.currentTimeMillis());
+            return messages;
+        } catch (IOException | IllegalArgumentException e) {
+            LOGGER.debug("Cell " + key + " is not cached", e);
+            return null;
+        }
+    }
+
+    /**
+     * Caches the outputs of a cell.
+     *
+     * @param key      the cell key
+     * @param messages the outputs of the cell
+     * @throws IOException when the outputs can not be written
+     */
+    void put(String key, List<InterpreterResultMessage> messages) throws IOException {
+        File entry = new File(directory, key);
+        Files.createDirectories(entry.toPath());
+        Path staging = Files.createTempFile(entry.toPath(), OUTPUTS, ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(staging)))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(messages.size());
+            for (InterpreterResultMessage message : messages) {
+                byte[] data = message.getData().getBytes(StandardCharsets.UTF_8);
+                out.writeUTF(message.getType().name());
+                out.writeInt(data.length);
+                out.write(data);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(staging);
+            throw e;
+        }
+        Files.move(staging, new File(entry, OUTPUTS).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param key the cell key
+     * @return the file holding the kernel state after the cell, it may not exist
+     */
+    File getStateFile(String key) {
+        return new File(new File(directory, key), STATE);
+    }
+
+    /**
+     * @return the python code defining the snapshot and restore functions of cell_state.py
+     * @throws IOException when the script is missing from the plugin
+     */
+    static String getStateHelpers() throws IOException {
+        try (InputStream in = CellCache.class.getResourceAsStream("cell_state.py")) {
+            if (in == null) {
+                throw new IOException("cell_state.py is missing from the plugin");
+            }
+            return IOUtils.toString(in, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Pickling the kernel state is as slow as the state is large, so a run only snapshots the state
+     * before its last cell, where the next run resumes when the end of the notebook is edited.
+     *
+     * @param key the cell key
+     * @return python code writing the kernel state after the cell, unless it is too large
+     */
+    String snapshotCode(String key) {
+        // a single snapshot may take a quarter of the cache
+        return "_jenkins_ml_snapshot(" + pythonString(getStateFile(key)) + ", " + maxSize / 4 + ")";
+    }
+
+    /**
+     * @param key the cell key
+     * @return python code restoring the kernel state after the cell, printing {@link #RESTORED_MARKER}
+     */
+    String restoreCode(String key) {
+        return "_jenkins_ml_restore(" + pythonString(getStateFile(key)) + ")";
+    }
+
+    private static String pythonString(File file) {
+        return "u\"" + file.getAbsolutePath().replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    /**
+     * Evicts the least recently used entries until the cache fits in its maximum size.
+     */
+    void trim() {
+        synchronized (LOCK) {
+            File[] entries = directory.listFiles(File::isDirectory);
+            if (entries == null) {
+                return;
+            }
+            long size = 0;
+            long[] sizes = new long[entries.length];
+            for (int i = 0; i < entries.length; i++) {
+                sizes[i] = FileUtils.sizeOfDirectory(entries[i]);
+                size += sizes[i];
+            }
+            Integer[] order = new Integer[entries.length];
+            Arrays.setAll(order, i -> i);
+            Arrays.sort(order, Comparator.comparingLong(i -> lastUsed(entries[i])));
+            for (int i = 0; i < order.length && size > maxSize; i++) {
+                LOGGER.debug("Evicting cached cell " + entries[order[i]].getName());
+                FileUtils.deleteQuietly(entries[order[i]]);
+                size -= sizes[order[i]];
+            }
+        }
+    }
+
+    private static long lastUsed(File entry) {
+        return Math.max(new File(entry, OUTPUTS).lastModified(), new File(entry, STATE).lastModified());
+    }
+}
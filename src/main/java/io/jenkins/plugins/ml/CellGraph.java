@@ -0,0 +1,245 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Loghi Perinpanayagam.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.jenkins.plugins.ml;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import org.apache.commons.io.IOUtils;
+import org.apache.zeppelin.interpreter.InterpreterResult;
+import org.apache.zeppelin.interpreter.InterpreterResultMessage;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Dependencies between the cells of a notebook, so independent cells can run at the same time in
+ * forked copies of the kernel.
+ *
+ * cell_graph.py reports the names each cell reads and writes, and a cell depends on an earlier cell
+ * when one of them writes a name the other one reads or writes. Cells the analysis is not sure
+ * about, cells defining functions or classes and cells using a function or class of the notebook,
+ * which may read or change any global, are barriers: they depend on every earlier cell and every
+ * later cell depends on them, so they run in notebook order. A forked cell is never executed again
+ * in the kernel: one found to change a name it only read fails, and one reading names that can not
+ * be compared becomes a barrier before it is forked.
+ */
+final class CellGraph {
+
+    // prefixes the JSON printed by the functions of cell_graph.py
+    static final String MARKER = "jenkins-ml-graph:";
+
+    private final List<Set<String>> reads;
+    private final List<Set<String>> writes;
+    private final boolean[] barriers;
+
+    CellGraph(List<Set<String>> reads, List<Set<String>> writes, boolean[] barriers) {
+        this.reads = reads;
+        this.writes = writes;
+        this.barriers = barriers.clone();
+    }
+
+    /**
+     * @return the python code defining the analysis and fork functions of cell_graph.py
+     * @throws IOException when the script is missing from the plugin
+     */
+    static String getHelpers() throws IOException {
+        try (InputStream in = CellGraph.class.getResourceAsStream("cell_graph.py")) {
+            if (in == null) {
+                throw new IOException("cell_graph.py is missing from the plugin");
+            }
+            return IOUtils.toString(in, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * @param cells the code of each cell
+     * @return python code printing the names read and written by each cell
+     */
+    static String analyzeCode(List<String> cells) {
+        Gson gson = new Gson();
+        // JSON string escapes are valid in a python unicode literal
+        return "_jenkins_ml_analyze(u" + gson.toJson(gson.toJson(cells)) + ")";
+    }
+
+    /**
+     * @param cells the indexes of independent cells
+     * @return python code executing the cells in forked copies of the kernel and printing their outputs
+     */
+    static String forkCode(List<Integer> cells) {
+        return "_jenkins_ml_fork(" + cells + ")";
+    }
+
+    /**
+     * Gets the JSON printed by a function of cell_graph.py.
+     *
+     * @param messages the outputs of the function
+     * @return the JSON, or null when the function did not print it
+     */
+    @CheckForNull
+    static JsonElement report(@CheckForNull List<InterpreterResultMessage> messages) {
+        if (messages == null) {
+            return null;
+        }
+        JsonElement report = null;
+        for (InterpreterResultMessage message : messages) {
+            if (message.getType() != InterpreterResult.Type.TEXT) {
+                continue;
+            }
+            for (String line : message.getData().split("\n")) {
+                if (line.startsWith(MARKER)) {
+                    try {
+                        report = new Gson().fromJson(line.substring(MARKER.length()), JsonElement.class);
+                    } catch (JsonParseException e) {
+                        return null;
+                    }
+                }
+            }
+        }
+        return report;
+    }
+
+    /**
+     * Builds the graph from the analysis of cell_graph.py.
+     *
+     * @param report the analysis, see {@link #report(List)}
+     * @param size   the number of cells
+     * @return the graph, or null when the kernel can not run cells in parallel
+     */
+    @CheckForNull
+    static CellGraph parse(@CheckForNull JsonElement report, int size) {
+        if (report == null || !report.isJsonArray() || report.getAsJsonArray().size() != size) {
+            return null;
+        }
+        List<Set<String>> reads = new ArrayList<>();
+        List<Set<String>> writes = new ArrayList<>();
+        boolean[] barriers = new boolean[size];
+        JsonArray cells = report.getAsJsonArray();
+        for (int i = 0; i < size; i++) {
+            JsonElement cell = cells.get(i);
+            if (cell.isJsonObject()) {
+                JsonObject names = cell.getAsJsonObject();
+                reads.add(names(names.getAsJsonArray("reads")));
+                writes.add(names(names.getAsJsonArray("writes")));
+                barriers[i] = !names.get("forkable").getAsBoolean();
+            } else {
+                reads.add(new HashSet<>());
+                writes.add(new HashSet<>());
+                barriers[i] = true;
+            }
+        }
+        return new CellGraph(reads, writes, barriers);
+    }
+
+    private static Set<String> names(JsonArray array) {
+        Set<String> names = new HashSet<>();
+        array.forEach(name -> names.add(name.getAsString()));
+        return names;
+    }
+
+    /**
+     * Gets the outputs of a forked cell.
+     *
+     * @param cell the report of the cell printed by the fork function
+     * @return the outputs, images are base64 encoded
+     */
+    static List<InterpreterResultMessage> outputs(JsonObject cell) {
+        List<InterpreterResultMessage> outputs = new ArrayList<>();
+        for (JsonElement element : cell.getAsJsonArray("outputs")) {
+            JsonObject output = element.getAsJsonObject();
+            outputs.add(new InterpreterResultMessage(InterpreterResult.Type.valueOf(output.get("type").getAsString()),
+                    output.get("data").getAsString()));
+        }
+        return outputs;
+    }
+
+    /**
+     * @return the number of cells
+     */
+    int size() {
+        return barriers.length;
+    }
+
+    /**
+     * @param cell    a cell
+     * @param earlier a cell before it
+     * @return true when the cell has to run after the earlier cell
+     */
+    boolean dependsOn(int cell, int earlier) {
+        return barriers[cell] || barriers[earlier]
+                || !Collections.disjoint(writes.get(earlier), reads.get(cell))
+                || !Collections.disjoint(writes.get(earlier), writes.get(cell))
+                || !Collections.disjoint(reads.get(earlier), writes.get(cell));
+    }
+
+    /**
+     * Gets the cells that can run once the given cells ran. The first cell not done is always ready.
+     *
+     * @param done the cells that ran
+     * @return the ready cells in notebook order
+     */
+    List<Integer> ready(Set<Integer> done) {
+        List<Integer> ready = new ArrayList<>();
+        for (int cell = 0; cell < size(); cell++) {
+            if (done.contains(cell)) {
+                continue;
+            }
+            boolean blocked = false;
+            for (int earlier = 0; earlier < cell && !blocked; earlier++) {
+                blocked = !done.contains(earlier) && dependsOn(cell, earlier);
+            }
+            if (!blocked) {
+                ready.add(cell);
+            }
+        }
+        return ready;
+    }
+
+    /**
+     * @param cell a cell
+     * @return true when the cell may run in a forked copy of the kernel
+     */
+    boolean isForkable(int cell) {
+        return !barriers[cell];
+    }
+
+    /**
+     * Makes a cell run in notebook order.
+     *
+     * @param cell the cell
+     */
+    void setBarrier(int cell) {
+        barriers[cell] = true;
+    }
+}
@@ -24,7 +24,9 @@
 
 package io.jenkins.plugins.ml;
 
-import com.google.gson.JsonObject;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.Launcher;
@@ -32,19 +34,40 @@ import hudson.Util;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.BuildListener;
+import hudson.remoting.VirtualChannel;
 import hudson.tasks.BuildWrapper;
 import hudson.tasks.BuildWrapperDescriptor;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
 import io.jenkins.plugins.ml.model.ParsableFile;
 import io.jenkins.plugins.ml.utils.ConvertHelper;
+import jenkins.MasterToSlaveFileCallable;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 
 import javax.annotation.Nonnull;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class FileParser extends BuildWrapper {
@@ -69,59 +92,14 @@ public class FileParser extends BuildWrapper {
         LOGGER.info("Recognize project workspace and folder");
         final Optional<FilePath> projectWorkspace = Optional.ofNullable(build.getWorkspace());
 
-        // Copy each file to the workspace
+        // Copy and convert the files on the agent, only the log comes back
         projectWorkspace.ifPresent((workspace) -> {
-            for (ParsableFile file : parsableFiles) {
-                FilePath copyFrom = workspace.child(file.getFileName());
-                FilePath copyTo;
-                LOGGER.info(String.format("Copying file from %s to %s", copyFrom.getName(), workspace.getName() + file.getSaveConverted()));
-                try {
-                    switch (file.getConvertType()) {
-                        case "NONE":
-                            // check the save to file path is given
-                            if (Util.fixEmptyAndTrim(file.getSaveConverted()) == null) {
-                                copyTo = new FilePath(workspace, copyFrom.getName());
-                            } else {
-                                copyTo = new FilePath(workspace, file.getSaveConverted());
-                            }
-
-                            copyFrom.copyTo(copyTo);
-                            listener.getLogger().println(String.format("%s copied to %s", copyFrom.getName(), workspace.getName()));
-                            break;
-                        case "JSON":
-                            // change the extension with same file name
-                            if (Util.fixEmptyAndTrim(file.getSaveConverted()) == null) {
-                                copyTo = new FilePath(workspace, copyFrom.getName().replace(".ipynb", ".json"));
-                            } else {
-                                copyTo = new FilePath(workspace, file.getSaveConverted());
-                            }
-                            // get the obj to write the JSON
-                            JsonObject obj = ConvertHelper.jupyterToJSON(copyFrom);
-                            // write to JSON
-                            copyTo.write(obj.toString(), "UTF-8");
-                            listener.getLogger().println(String.format("%s copied and converted to %s", copyFrom.getName(), copyTo.getName()));
-                            break;
-                        case "PY":
-                            // change the extension with same file name
-                            if (Util.fixEmptyAndTrim(file.getSaveConverted()) == null) {
-                                copyTo = new FilePath(workspace, copyFrom.getName().replace(".ipynb", ".py"));
-                            } else {
-                                copyTo = new FilePath(workspace, file.getSaveConverted());
-                            }
-                            // get the text to write the JSON
-                            String code = ConvertHelper.jupyterToText(copyFrom);
-                            // write to python file
-                            copyTo.write(code, "UTF-8");
-                            listener.getLogger().println(String.format("%s copied and converted to %s", copyFrom.getName(), copyTo.getName()));
-                            break;
-                        default:
-                            listener.getLogger().println("File conversion is not supported");
-                    }
-
-                    LOGGER.info("Saving file");
-                } catch (IOException | InterruptedException e) {
-                    e.printStackTrace(listener.getLogger());
+            try {
+                for (String line : workspace.act(new Stage(parsableFiles))) {
+                    listener.getLogger().println(line);
                 }
+            } catch (IOException | InterruptedException e) {
+                e.printStackTrace(listener.getLogger());
             }
         });
 
@@ -149,6 +127,260 @@ public class FileParser extends BuildWrapper {
         };
     }
 
+    /**
+     * Copies, links and converts all the files in the workspace on the agent, so the notebooks do not travel
+     * to the controller and back. The files are staged in parallel, each gives a line of the build log.
+     *
+     * Conversions are recorded in an index in the workspace. A conversion is skipped when its notebook,
+     * its settings and its output in the workspace are the same as when the index recorded it.
+     */
+    static final class Stage extends MasterToSlaveFileCallable<List<String>> {
+
+        private static final long serialVersionUID = 1L;
+        static final String INDEX = ".jenkins-ml-conversions";
+        // changes whenever a conversion gives a different output
+        private static final int FORMAT_VERSION = 1;
+
+        private final List<ParsableFile> parsableFiles;
+        private transient Map<String, String> previous;
+        private transient Map<String, String> converted;
+
+        Stage(List<ParsableFile> parsableFiles) {
+            this.parsableFiles = new ArrayList<>(parsableFiles);
+        }
+
+        @Override
+        public List<String> invoke(File ws, VirtualChannel channel) throws InterruptedException {
+            FilePath workspace = new FilePath(ws);
+            previous = readIndex(workspace.child(INDEX));
+            converted = new ConcurrentHashMap<>();
+            ExecutorService executor = Executors.newFixedThreadPool(
+                    Math.max(1, Math.min(parsableFiles.size(), Runtime.getRuntime().availableProcessors())),
+                    new NamingThreadFactory(new DaemonThreadFactory(), "FileParser"));
+            try {
+                List<Future<String>> staged = new ArrayList<>();
+                for (int i = 0; i < parsableFiles.size(); i++) {
+                    ParsableFile file = parsableFiles.get(i);
+                    List<Future<String>> before = dependencies(i, workspace, staged);
+                    // tasks only wait for tasks submitted earlier, which the pool already started
+                    staged.add(executor.submit(() -> {
+                        for (Future<String> dependency : before) {
+                            try {
+                                dependency.get();
+                            } catch (ExecutionException e) {
+                                // reported by the failed entry itself
+                            }
+                        }
+                        return stage(file, workspace);
+                    }));
+                }
+                List<String> log = new ArrayList<>();
+                for (Future<String> line : staged) {
+                    try {
+                        log.add(line.get());
+                    } catch (ExecutionException e) {
+                        StringWriter trace = new StringWriter();
+                        e.getCause().printStackTrace(new PrintWriter(trace));
+                        log.add(trace.toString());
+                    }
+                }
+                writeIndex(workspace.child(INDEX));
+                return log;
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        /**
+         * Entries run in parallel unless they share a file, then they run in the order they are listed:
+         * an entry reading the output of an earlier one, writing the same output, or overwriting its source.
+         */
+        private List<Future<String>> dependencies(int index, FilePath workspace, List<Future<String>> staged) {
+            Path source = path(workspace.child(parsableFiles.get(index).getFileName()));
+            Path target = path(target(parsableFiles.get(index), workspace));
+            List<Future<String>> before = new ArrayList<>();
+            for (int i = 0; i < index; i++) {
+                Path earlierSource = path(workspace.child(parsableFiles.get(i).getFileName()));
+                Path earlierTarget = path(target(parsableFiles.get(i), workspace));
+                if (earlierTarget != null && (earlierTarget.equals(source) || earlierTarget.equals(target))
+                        || earlierSource.equals(target)) {
+                    before.add(staged.get(i));
+                }
+            }
+            return before;
+        }
+
+        private static Path path(FilePath file) {
+            return file == null ? null : Paths.get(file.getRemote()).toAbsolutePath().normalize();
+        }
+
+        /**
+         * @return the file the entry is staged to, null when its conversion is not supported
+         */
+        private static FilePath target(ParsableFile file, FilePath workspace) {
+            String name = workspace.child(file.getFileName()).getName();
+            String saveConverted = Util.fixEmptyAndTrim(file.getSaveConverted());
+            switch (file.getConvertType()) {
+                case "NONE":
+                case "LINK":
+                    return new FilePath(workspace, saveConverted == null ? name : file.getSaveConverted());
+                case "JSON":
+                    // change the extension with same file name
+                    return new FilePath(workspace, saveConverted == null ? name.replace(".ipynb", ".json") : file.getSaveConverted());
+                case "PY":
+                    return new FilePath(workspace, saveConverted == null ? name.replace(".ipynb", ".py") : file.getSaveConverted());
+                case "STRIPPED":
+                    return new FilePath(workspace, saveConverted == null ? name.replace(".ipynb", ".stripped.ipynb") : file.getSaveConverted());
+                default:
+                    return null;
+            }
+        }
+
+        private String stage(ParsableFile file, FilePath workspace) throws IOException, InterruptedException {
+            FilePath copyFrom = workspace.child(file.getFileName());
+            FilePath copyTo = target(file, workspace);
+            LOGGER.info(String.format("Copying file from %s to %s", copyFrom.getName(), workspace.getName() + file.getSaveConverted()));
+            switch (file.getConvertType()) {
+                case "NONE":
+                    copyFrom.copyTo(copyTo);
+                    return String.format("%s copied to %s", copyFrom.getName(), workspace.getName());
+                case "LINK":
+                    return String.format("%s %s to %s", copyFrom.getName(), link(copyFrom, copyTo), workspace.getName());
+                case "JSON":
+                    if (isUnchanged(file, copyFrom, copyTo)) {
+                        return String.format("%s unchanged, keeping %s", copyFrom.getName(), copyTo.getName());
+                    }
+                    // write the JSON, converted once per notebook content
+                    copyTo.write(ConvertHelper.jupyterToJSONString(copyFrom), "UTF-8");
+                    record(file, copyFrom, copyTo);
+                    return String.format("%s copied and converted to %s", copyFrom.getName(), copyTo.getName());
+                case "PY":
+                    if (isUnchanged(file, copyFrom, copyTo)) {
+                        return String.format("%s unchanged, keeping %s", copyFrom.getName(), copyTo.getName());
+                    }
+                    // get the text to write the JSON
+                    String code = ConvertHelper.jupyterToText(copyFrom);
+                    // write to python file
+                    copyTo.write(code, "UTF-8");
+                    record(file, copyFrom, copyTo);
+                    return String.format("%s copied and converted to %s", copyFrom.getName(), copyTo.getName());
+                case "STRIPPED":
+                    if (isUnchanged(file, copyFrom, copyTo)) {
+                        return String.format("%s unchanged, keeping %s", copyFrom.getName(), copyTo.getName());
+                    }
+                    // outputs are skipped while the notebook is copied
+                    ConvertHelper.jupyterToStripped(copyFrom, copyTo, file.isStripMetadata());
+                    record(file, copyFrom, copyTo);
+                    return String.format("%s copied without outputs to %s", copyFrom.getName(), copyTo.getName());
+                default:
+                    return "File conversion is not supported";
+            }
+        }
+
+        private static String source(ParsableFile file, FilePath copyFrom, String digest) {
+            return FORMAT_VERSION + " " + file.getConvertType() + (file.isStripMetadata() ? " metadata " : " ")
+                    + copyFrom.getRemote() + " " + digest;
+        }
+
+        /**
+         * @return true when the output in the workspace was converted from the same notebook with the same settings
+         */
+        private boolean isUnchanged(ParsableFile file, FilePath copyFrom, FilePath copyTo)
+                throws IOException, InterruptedException {
+            String recorded = previous.get(copyTo.getRemote());
+            if (recorded == null || !copyTo.exists()
+                    || !recorded.equals(source(file, copyFrom, copyFrom.digest()) + " " + copyTo.digest())) {
+                return false;
+            }
+            converted.put(copyTo.getRemote(), recorded);
+            return true;
+        }
+
+        private void record(ParsableFile file, FilePath copyFrom, FilePath copyTo) throws IOException, InterruptedException {
+            String output = copyTo.digest();
+            // converted in place, the next build reads the output as its source
+            String input = path(copyFrom).equals(path(copyTo)) ? output : copyFrom.digest();
+            converted.put(copyTo.getRemote(), source(file, copyFrom, input) + " " + output);
+        }
+
+        private static Map<String, String> readIndex(FilePath index) {
+            try {
+                if (index.exists()) {
+                    Map<String, String> entries = new Gson().fromJson(index.readToString(),
+                            new TypeToken<Map<String, String>>() { }.getType());
+                    if (entries != null) {
+                        return entries;
+                    }
+                }
+            } catch (IOException | InterruptedException | JsonParseException e) {
+                LOGGER.log(Level.FINE, "Can not read the conversion index " + index, e);
+            }
+            return Collections.emptyMap();
+        }
+
+        private void writeIndex(FilePath index) {
+            try {
+                if (converted.isEmpty()) {
+                    index.delete();
+                } else {
+                    index.write(new Gson().toJson(new TreeMap<>(converted)), "UTF-8");
+                }
+            } catch (IOException | InterruptedException e) {
+                LOGGER.log(Level.WARNING, "Can not write the conversion index " + index, e);
+            }
+        }
+
+        /**
+         * Hard links the file when both paths are on the same file system, otherwise copies it. A missing
+         * source fails before the target is touched. A hard link shares its inode with the source, so the
+         * write permission of the inode is removed: the build can not change the source through the
+         * workspace, and the source is read-only too once it is linked.
+         *
+         * @return how the file was staged, for the build log
+         */
+        private static String link(FilePath copyFrom, FilePath copyTo) throws IOException {
+            Path source = Paths.get(copyFrom.getRemote());
+            Path target = Paths.get(copyTo.getRemote());
+            if (!Files.exists(source)) {
+                // keep the target of a previous build
+                throw new NoSuchFileException(source.toString());
+            }
+            if (Files.exists(target) && Files.isSameFile(source, target)) {
+                return "already linked";
+            }
+            if (target.getParent() != null) {
+                Files.createDirectories(target.getParent());
+            }
+            try {
+                Files.deleteIfExists(target);
+            } catch (AccessDeniedException e) {
+                // a read-only link of a previous build on windows
+                if (!target.toFile().setWritable(true)) {
+                    throw e;
+                }
+                Files.delete(target);
+            }
+            String reason;
+            try {
+                Files.createLink(target, source);
+                if (!target.toFile().setWritable(false, false)) {
+                    LOGGER.log(Level.WARNING, "Can not remove the write permission of " + target);
+                    return "hard linked";
+                }
+                return "hard linked read-only";
+            } catch (FileSystemException e) {
+                // "Invalid cross-device link" when not on the same file system
+                reason = e.getReason() != null ? e.getReason() : e.toString();
+                LOGGER.log(Level.FINE, "Can not link " + target + " to " + source + ", copying it", e);
+            } catch (IOException | UnsupportedOperationException e) {
+                reason = e.toString();
+                LOGGER.log(Level.FINE, "Can not link " + target + " to " + source + ", copying it", e);
+            }
+            Files.copy(source, target);
+            return "copied (" + reason + ")";
+        }
+    }
+
     @Extension
     public static class DescriptorImpl extends BuildWrapperDescriptor {
         public DescriptorImpl() {
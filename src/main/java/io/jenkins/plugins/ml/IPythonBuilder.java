@@ -25,8 +25,6 @@
 package io.jenkins.plugins.ml;
 
 import com.cloudbees.hudson.plugins.folder.AbstractFolder;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.*;
 import hudson.model.AbstractProject;
@@ -37,26 +35,31 @@ import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.Builder;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
+import io.jenkins.plugins.ml.model.SweepResult;
 import io.jenkins.plugins.ml.utils.ConvertHelper;
+import io.jenkins.plugins.ml.utils.NotebookReader;
+import io.jenkins.plugins.ml.utils.OutputWriter;
 import jenkins.security.MasterToSlaveCallable;
 import jenkins.tasks.SimpleBuildStep;
 import org.apache.zeppelin.interpreter.InterpreterException;
-import org.apache.zeppelin.jupyter.zformat.Note;
-import org.apache.zeppelin.jupyter.zformat.Paragraph;
 import org.jenkinsci.Symbol;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Serializable;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -72,12 +75,32 @@ public class IPythonBuilder extends Builder implements SimpleBuildStep, Serializ
     private static final Logger LOGGER = Logger.getLogger(IPythonBuilder.class.getName());
     private static final java.util.logging.Logger GRPC_IO_LOGGER = java.util.logging.Logger.getLogger("io.grpc.internal");
     private static final Level GRPC_IO_LOGGER_ORIGINAL_LEVEL = GRPC_IO_LOGGER.getLevel();
+    /**
+     * Number of parameter combinations running at a time when not configured.
+     */
+    public static final int DEFAULT_SWEEP_CONCURRENCY = 2;
+    /**
+     * Kilobytes of the text output of a cell written to the build log when not configured.
+     */
+    public static final int DEFAULT_OUTPUT_LIMIT = 1024;
+    // workspace directory of the cell outputs over the limit, until they are moved to the build directory
+    private static final String OUTPUTS_DIRECTORY = ".jenkins-ml-outputs";
 
     private final String code;
     private final String filePath;
     private final String parserType;
     private final String task;
     private final String kernelName;
+    private boolean pipelined;
+    private boolean cacheCells;
+    private boolean parallelCells;
+    private String cacheInputs;
+    private String sweepParameters;
+    private String sweepLabel;
+    private int sweepConcurrency;
+    private int cellTimeout;
+    private int notebookTimeout;
+    private int outputLimit;
 
     /**
      * Instantiates a new Python builder.
@@ -120,16 +143,47 @@ public class IPythonBuilder extends Builder implements SimpleBuildStep, Serializ
             }
             String serverName = server.getServerName();
             String kernel = server.getKernel();
-            long launchTimeout = server.getLaunchTimeoutInMilliSeconds();
-            long maxResults = server.getMaxResults();
             listener.getLogger().println("Executed kernel : " + kernel.toUpperCase());
             listener.getLogger().println("Language : " + serverName.toUpperCase());
             // create configuration
-            IPythonUserConfig jobUserConfig = new IPythonUserConfig(kernel, launchTimeout, maxResults, ws.getRemote());
-            // Get the right channel to execute the code
-            run.setResult(launcher.getChannel().call(new ExecutorImpl(ws, listener, jobUserConfig)));
-            // search and update for action after the build
-            run.addOrReplaceAction(new ResultAction(run, ws));
+            IPythonUserConfig jobUserConfig = new IPythonUserConfig(server, ws.getRemote());
+            if (sweepParameters != null) {
+                if (cacheCells) {
+                    // each combination changes the cell of the parameters, the cells after it can not be reused
+                    listener.getLogger().println("Cell cache is not used by parameter sweeps");
+                }
+                ParameterSweep sweep = newSweep(server, ws);
+                sweep.setTimeouts(cellTimeout, notebookTimeout);
+                sweep.setOutputLimit(getOutputLimit() * 1024L, OUTPUTS_DIRECTORY,
+                        "/" + run.getUrl() + new ResultAction(run, ws).getUrlName() + "/output/");
+                List<SweepResult> results;
+                try {
+                    results = sweep.run(run, ws, sweepParameters, sweepLabel, getSweepConcurrency(), listener);
+                } finally {
+                    archiveOutputs(run, ws);
+                }
+                long failed = results.stream().filter(r -> !Result.SUCCESS.toString().equals(r.getResult())).count();
+                run.setResult(failed == 0 ? Result.SUCCESS : failed < results.size() ? Result.UNSTABLE : Result.FAILURE);
+                ResultAction action = new ResultAction(run, ws);
+                action.setSweepResults(results);
+                run.addOrReplaceAction(action);
+                return;
+            }
+            OutputWriter.Metrics outputMetrics = null;
+            try {
+                // Get the right channel to execute the code
+                Outcome outcome = launcher.getChannel().call(new ExecutorImpl(ws, listener, jobUserConfig,
+                        "/" + run.getUrl() + new ResultAction(run, ws).getUrlName() + "/output/",
+                        run.getParent().getFullName()));
+                run.setResult(outcome.result);
+                outputMetrics = outcome.outputMetrics;
+            } finally {
+                archiveOutputs(run, ws);
+                // search and update for action after the build, also keeps the outputs of an aborted build
+                ResultAction action = new ResultAction(run, ws);
+                action.setOutputMetrics(outputMetrics);
+                run.addOrReplaceAction(action);
+            }
 
         } catch (Throwable e) {
             e.printStackTrace(listener.getLogger());
@@ -139,8 +193,49 @@ public class IPythonBuilder extends Builder implements SimpleBuildStep, Serializ
         }
     }
 
+    /**
+     * Moves the cell outputs over the limit from the workspace to the build directory, where the
+     * result action serves them.
+     */
+    private static void archiveOutputs(Run<?, ?> run, FilePath ws) throws IOException, InterruptedException {
+        FilePath outputs = ws.child(OUTPUTS_DIRECTORY);
+        if (outputs.exists()) {
+            outputs.copyRecursiveTo(new FilePath(new File(run.getRootDir(), ResultAction.OUTPUTS_DIRECTORY)));
+            outputs.deleteRecursive();
+        }
+    }
+
+    private ParameterSweep newSweep(Server server, FilePath ws) throws IOException, InterruptedException {
+        if (parserType.equals("text")) {
+            return new ParameterSweep(server, Collections.singletonList(code), -1, task, pipelined);
+        }
+        if (filePath == null) {
+            throw new AbortException("The file path is empty");
+        }
+        // the notebook is read once for all the combinations
+        FilePath file = ws.child(filePath);
+        if (filePath.endsWith("." + FileExtension.ipynb)) {
+            return ParameterSweep.ofNotebook(server, file, task, pipelined);
+        }
+        if (filePath.endsWith("." + FileExtension.json)) {
+            throw new AbortException("Parameter sweeps do not support Zeppelin notes");
+        }
+        return new ParameterSweep(server, Collections.singletonList(file.readToString()), -1, task, pipelined);
+    }
+
     @Nullable
     private Server getServer() {
+        return findServer(kernelName);
+    }
+
+    /**
+     * Finds the configured server of a kernel.
+     *
+     * @param kernelName the kernel name, null for the first server
+     * @return the server, or null when no server runs the kernel
+     */
+    @Nullable
+    static Server findServer(@Nullable String kernelName) {
         List<Server> sites = IPythonGlobalConfiguration.get().getServers();
 
         if (kernelName == null && sites.size() > 0) {
@@ -200,6 +295,201 @@ public class IPythonBuilder extends Builder implements SimpleBuildStep, Serializ
         return kernelName;
     }
 
+    /**
+     * Is pipelined boolean.
+     *
+     * @return true when the next notebook cells are queued to the kernel while a cell runs
+     */
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    /**
+     * Sets whether the next notebook cells are queued to the kernel while a cell runs.
+     *
+     * @param pipelined the pipelined
+     */
+    @DataBoundSetter
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    /**
+     * Is cache cells boolean.
+     *
+     * @return true when the outputs of unchanged notebook cells are replayed from the cell cache
+     */
+    public boolean isCacheCells() {
+        return cacheCells;
+    }
+
+    /**
+     * Sets whether the outputs of unchanged notebook cells are replayed from the cell cache.
+     *
+     * @param cacheCells the cache cells
+     */
+    @DataBoundSetter
+    public void setCacheCells(boolean cacheCells) {
+        this.cacheCells = cacheCells;
+    }
+
+    /**
+     * Is parallel cells boolean.
+     *
+     * @return true when independent notebook cells run at the same time in forked copies of the kernel
+     */
+    public boolean isParallelCells() {
+        return parallelCells;
+    }
+
+    /**
+     * Sets whether independent notebook cells run at the same time in forked copies of the kernel.
+     *
+     * @param parallelCells the parallel cells
+     */
+    @DataBoundSetter
+    public void setParallelCells(boolean parallelCells) {
+        this.parallelCells = parallelCells;
+    }
+
+    /**
+     * Gets cache inputs.
+     *
+     * @return the input files of the notebook, separated by commas or new lines
+     */
+    @CheckForNull
+    public String getCacheInputs() {
+        return cacheInputs;
+    }
+
+    /**
+     * Sets the input files of the notebook, a changed input file invalidates its cached cells.
+     *
+     * @param cacheInputs the input files, relative to the workspace
+     */
+    @DataBoundSetter
+    public void setCacheInputs(String cacheInputs) {
+        this.cacheInputs = Util.fixEmptyAndTrim(cacheInputs);
+    }
+
+    /**
+     * Gets sweep parameters.
+     *
+     * @return the parameter grid as a JSON object, or null when the build is not a sweep
+     */
+    @CheckForNull
+    public String getSweepParameters() {
+        return sweepParameters;
+    }
+
+    /**
+     * Sets the parameter grid, the code runs once for every combination of the parameter values.
+     *
+     * @param sweepParameters JSON object mapping each parameter to the list of its values
+     */
+    @DataBoundSetter
+    public void setSweepParameters(String sweepParameters) {
+        this.sweepParameters = Util.fixEmptyAndTrim(sweepParameters);
+    }
+
+    /**
+     * Gets sweep label.
+     *
+     * @return the label of the nodes running the combinations, or null for the node of the build
+     */
+    @CheckForNull
+    public String getSweepLabel() {
+        return sweepLabel;
+    }
+
+    /**
+     * Sets the label of the nodes running the combinations.
+     *
+     * @param sweepLabel the label expression
+     */
+    @DataBoundSetter
+    public void setSweepLabel(String sweepLabel) {
+        this.sweepLabel = Util.fixEmptyAndTrim(sweepLabel);
+    }
+
+    /**
+     * Gets sweep concurrency.
+     *
+     * @return the maximum number of combinations running at a time
+     */
+    public int getSweepConcurrency() {
+        return sweepConcurrency > 0 ? sweepConcurrency : DEFAULT_SWEEP_CONCURRENCY;
+    }
+
+    /**
+     * Sets the maximum number of combinations running at a time, across all nodes.
+     *
+     * @param sweepConcurrency the sweep concurrency
+     */
+    @DataBoundSetter
+    public void setSweepConcurrency(int sweepConcurrency) {
+        this.sweepConcurrency = sweepConcurrency;
+    }
+
+    /**
+     * Gets cell timeout.
+     *
+     * @return the time limit of a cell in seconds, 0 for none
+     */
+    public int getCellTimeout() {
+        return cellTimeout;
+    }
+
+    /**
+     * Sets the time limit of a notebook cell, or of the whole code for the text parser. The kernel is
+     * interrupted when a cell runs longer, and killed when it does not stop.
+     *
+     * @param cellTimeout the cell timeout in seconds, 0 for none
+     */
+    @DataBoundSetter
+    public void setCellTimeout(int cellTimeout) {
+        this.cellTimeout = Math.max(cellTimeout, 0);
+    }
+
+    /**
+     * Gets notebook timeout.
+     *
+     * @return the time limit of all the code in minutes, 0 for none
+     */
+    public int getNotebookTimeout() {
+        return notebookTimeout;
+    }
+
+    /**
+     * Sets the time limit of all the code of the build, the kernel start excluded.
+     *
+     * @param notebookTimeout the notebook timeout in minutes, 0 for none
+     */
+    @DataBoundSetter
+    public void setNotebookTimeout(int notebookTimeout) {
+        this.notebookTimeout = Math.max(notebookTimeout, 0);
+    }
+
+    /**
+     * Gets output limit.
+     *
+     * @return the kilobytes of the text output of a cell written to the build log
+     */
+    public int getOutputLimit() {
+        return outputLimit > 0 ? outputLimit : DEFAULT_OUTPUT_LIMIT;
+    }
+
+    /**
+     * Sets the size limit of the text output of a cell in the build log. The build log gets the start
+     * and the end of a larger output, the whole output is kept compressed with the build.
+     *
+     * @param outputLimit the output limit in kilobytes
+     */
+    @DataBoundSetter
+    public void setOutputLimit(int outputLimit) {
+        this.outputLimit = outputLimit;
+    }
+
     /**
      * Is text boolean.
      *
@@ -209,6 +499,18 @@ public class IPythonBuilder extends Builder implements SimpleBuildStep, Serializ
         return parserType.equals("text");
     }
 
+    private List<String> getCacheInputFiles() {
+        List<String> inputs = new ArrayList<>();
+        if (cacheInputs != null) {
+            for (String input : cacheInputs.split("[,\\n]")) {
+                if (!input.trim().isEmpty()) {
+                    inputs.add(input.trim());
+                }
+            }
+        }
+        return inputs;
+    }
+
     /**
      * The enum File extension.
      */
@@ -221,6 +523,10 @@ public class IPythonBuilder extends Builder implements SimpleBuildStep, Serializ
          * Json file extension.
          */
         json,
+        /**
+         * Py file extension.
+         */
+        py,
         /**
          * Txt file extension.
          */
@@ -302,29 +608,48 @@ public class IPythonBuilder extends Builder implements SimpleBuildStep, Serializ
     }
 
     @Restricted(NoExternalUse.class)
-    private final class ExecutorImpl extends MasterToSlaveCallable<Result, Exception> {
+    private final class ExecutorImpl extends MasterToSlaveCallable<Outcome, Exception> {
 
         private FilePath ws;
         private TaskListener listener;
         private IPythonUserConfig jobUserConfig;
+        private String outputUrl;
+        private String job;
 
-        private ExecutorImpl(FilePath ws, TaskListener ls, IPythonUserConfig cf) {
+        private ExecutorImpl(FilePath ws, TaskListener ls, IPythonUserConfig cf, String outputUrl, String job) {
             this.ws = ws;
             this.listener = ls;
             this.jobUserConfig = cf;
+            this.outputUrl = outputUrl;
+            this.job = job;
         }
 
         @Override
-        public Result call() {
+        public Outcome call() {
+            IPythonInterpreterManager interpreterManager = new IPythonInterpreterManager(jobUserConfig);
+            Result result;
+            try {
+                result = execute(interpreterManager);
+            } finally {
+                interpreterManager.close();
+            }
+            // the outputs are written by the time the manager is closed
+            return new Outcome(result, interpreterManager.getOutputMetrics());
+        }
+
+        private Result execute(IPythonInterpreterManager interpreterManager) {
 
-            try (IPythonInterpreterManager interpreterManager = new IPythonInterpreterManager(jobUserConfig)) {
+            try {
                 interpreterManager.initiateInterpreter();
+                interpreterManager.setTimeouts(cellTimeout, notebookTimeout);
+                interpreterManager.setOutputLimit(getOutputLimit() * 1024L,
+                        new File(ws.child(OUTPUTS_DIRECTORY).getRemote()), outputUrl);
                 LOGGER.info("Connection initiated successfully");
                 listener.getLogger().println("Platform : " + System.getProperty("os.name").toUpperCase());
                 listener.getLogger().println("Type : " + parserType.toUpperCase());
                 listener.getLogger().println("Working directory : " + ws.getRemote());
                 if (parserType.equals("text")) {
-                    listener.getLogger().println(interpreterManager.invokeInterpreter(code, task, ws));
+                    interpreterManager.invokeInterpreter(code, task, ws, listener.getLogger());
                 } else {
                     if (Util.fixEmptyAndTrim(filePath) != null) {
                         // Run builder on selected notebook
@@ -345,28 +670,56 @@ public class IPythonBuilder extends Builder implements SimpleBuildStep, Serializ
                                   JENKINS-63213
                                   interpret and save each images and html
                                  */
+                                if (cacheCells) {
+                                    if (!interpreterManager.invokeInterpreterCached(job,
+                                            ConvertHelper.jupyterToTextArray(tempFilePath), getCacheInputFiles(),
+                                            pipelined, task, ws, listener.getLogger())) {
+                                        return Result.FAILURE;
+                                    }
+                                    break;
+                                }
+                                if (parallelCells) {
+                                    if (!interpreterManager.invokeInterpreterParallel(
+                                            ConvertHelper.jupyterToTextArray(tempFilePath), pipelined, task, ws, listener.getLogger())) {
+                                        return Result.FAILURE;
+                                    }
+                                    break;
+                                }
+                                if (pipelined) {
+                                    if (!interpreterManager.invokeInterpreterCells(
+                                            ConvertHelper.jupyterToTextArray(tempFilePath), true, task, ws, listener.getLogger())) {
+                                        return Result.FAILURE;
+                                    }
+                                    break;
+                                }
                                 for (String line : ConvertHelper.jupyterToTextArray(tempFilePath)) {
-                                    listener.getLogger().println((interpreterManager.invokeInterpreter(line, task, ws)));
+                                    interpreterManager.invokeInterpreter(line, task, ws, listener.getLogger());
                                 }
                                 break;
                             case json:
                                 // Zeppelin note book or JSON file will be interpreted line by line
-                                try (final InputStreamReader inputStreamReader = new InputStreamReader(tempFilePath.read(), Charset.forName("UTF-8"))) {
-                                    Gson gson = new GsonBuilder().create();
-                                    Note n = gson.fromJson(inputStreamReader, Note.class);
-                                    for (Paragraph para : n.getParagraphs()) {
+                                try (NotebookReader note = NotebookReader.zeppelin(new InputStreamReader(tempFilePath.read(), Charset.forName("UTF-8")))) {
+                                    for (NotebookReader.Cell para = note.next(); para != null; para = note.next()) {
                                         // skipping markdowns
-                                        if (para.getConfig().get("editorMode").equals(ConvertHelper.MARKDOWN_ANNOTATION)) {
+                                        if (para.isMarkdown()) {
                                             continue;
                                         }
                                         String code = para.getText();
                                         listener.getLogger().println(code);
-                                        listener.getLogger().println(interpreterManager.invokeInterpreter(code, task, ws));
+                                        interpreterManager.invokeInterpreter(code, task, ws, listener.getLogger());
                                     }
                                 }
                                 break;
+                            case py:
+                                if (IPythonInterpreterManager.canExecuteFile(jobUserConfig.getkernel(), filePath)) {
+                                    // the kernel reads the script from the workspace
+                                    return interpreterManager.invokeInterpreterFile(tempFilePath, task, ws,
+                                            listener.getLogger()) ? Result.SUCCESS : Result.FAILURE;
+                                }
+                                interpreterManager.invokeInterpreter(tempFilePath.readToString(), task, ws, listener.getLogger());
+                                return Result.SUCCESS;
                             default:
-                                listener.getLogger().println(interpreterManager.invokeInterpreter(tempFilePath.readToString(), task, ws));
+                                interpreterManager.invokeInterpreter(tempFilePath.readToString(), task, ws, listener.getLogger());
                                 return Result.SUCCESS;
                         }
                     } else {
@@ -375,6 +728,10 @@ public class IPythonBuilder extends Builder implements SimpleBuildStep, Serializ
                     }
                 }
 
+            } catch (AbortException e) {
+                // a time limit was exceeded
+                listener.error(e.getMessage());
+                return Result.FAILURE;
             } catch (InterruptedException | InterpreterException | IOException e) {
                 e.printStackTrace(listener.getLogger());
                 return Result.FAILURE;
@@ -382,4 +739,20 @@ public class IPythonBuilder extends Builder implements SimpleBuildStep, Serializ
             return Result.SUCCESS;
         }
     }
+
+    /**
+     * Result of the code run on the node, with the metrics of the outputs written.
+     */
+    private static final class Outcome implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Result result;
+        private final OutputWriter.Metrics outputMetrics;
+
+        private Outcome(Result result, OutputWriter.Metrics outputMetrics) {
+            this.result = result;
+            this.outputMetrics = outputMetrics;
+        }
+    }
 }
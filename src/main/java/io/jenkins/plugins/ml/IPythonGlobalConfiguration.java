@@ -57,5 +57,7 @@ public class IPythonGlobalConfiguration extends GlobalConfiguration {
     public void setServers(List<Server> servers) {
         this.servers = servers;
         save();
+        // pooled kernels of changed or removed servers must not serve new builds
+        IPythonKernelPool.drainStale(servers);
     }
 }
@@ -24,18 +24,44 @@
 
 package io.jenkins.plugins.ml;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import hudson.AbortException;
 import hudson.FilePath;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import io.jenkins.plugins.ml.jupyter.KernelPipeline;
 import io.jenkins.plugins.ml.utils.Dumper;
+import io.jenkins.plugins.ml.utils.LogStreamer;
+import io.jenkins.plugins.ml.utils.OutputWriter;
 import org.apache.zeppelin.interpreter.Interpreter;
 import org.apache.zeppelin.interpreter.InterpreterException;
 import org.apache.zeppelin.interpreter.InterpreterGroup;
+import org.apache.zeppelin.interpreter.InterpreterResult;
 import org.apache.zeppelin.interpreter.InterpreterResultMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
 
 /**
  * Concrete Factory for IPython interpreter
@@ -45,9 +71,35 @@ public class IPythonInterpreterManager extends InterpreterManager {
     private static final Logger LOGGER = LoggerFactory.getLogger(IPythonInterpreterManager.class);
     private static final InterpreterGroup mockInterpreterGroup = new InterpreterGroup();
     private static int sessionId = 0;
+    // cells queued to the kernel ahead of the running one, kernel_server.py serves 10 calls at once
+    private static final int PIPELINE_DEPTH = 4;
+    // forked copies of the kernel running cells at a time
+    private static final int PARALLEL_CELLS = 4;
+    // how long an interrupted kernel gets to stop the running cell before it is killed
+    private static final long CANCEL_GRACE = TimeUnit.SECONDS.toMillis(10);
+    private static final long WATCH_INTERVAL = 500;
+    // image and html outputs being written at a time, and waiting to be written
+    private static final int WRITER_THREADS = 2;
+    private static final int WRITER_QUEUE = 16;
 
     private KernelInterpreter kernelInterpreter;
     private IPythonUserConfig userConfig;
+    private boolean leased;
+    private long cellTimeout;
+    private long notebookTimeout;
+    private long deadline;
+    private volatile long cellStarted;
+    private volatile boolean killed;
+    private ExecutorService worker;
+    private OutputWriter outputWriter;
+    // the writes of the closed output writer, kept with the build
+    private OutputWriter.Metrics outputMetrics;
+    private long outputLimit;
+    private File outputDirectory;
+    private String outputUrl;
+    private String logPrefix;
+    // the build log of the last code, gets the summary of the outputs written
+    private PrintStream buildLog;
 
     /**
      * Instantiates a new Python interpreter manager.
@@ -65,22 +117,88 @@ public class IPythonInterpreterManager extends InterpreterManager {
      */
     @Override
     synchronized KernelInterpreter createInterpreter() {
-        kernelInterpreter = new IPythonKernelInterpreter(this.userConfig);
+        kernelInterpreter = newKernelInterpreter(this.userConfig);
+        return kernelInterpreter;
+    }
+
+    /**
+     * Creates an IPythonKernelInterpreter registered in the interpreter group.
+     *
+     * @param userConfig the user configuration
+     * @return interpreter instance
+     */
+    static synchronized IPythonKernelInterpreter newKernelInterpreter(IPythonUserConfig userConfig) {
+        IPythonKernelInterpreter kernelInterpreter = new IPythonKernelInterpreter(userConfig);
 
         // zeppelin api for interpreter
-        Interpreter interpreter = ((IPythonKernelInterpreter) kernelInterpreter).getInterpreter();
-        mockInterpreterGroup.get("session_"+sessionId).add(interpreter);
+        Interpreter interpreter = kernelInterpreter.getInterpreter();
+        String session = "session_" + sessionId;
+        if (mockInterpreterGroup.get(session) == null) {
+            // kernels launched by the pool have no manager of their own
+            mockInterpreterGroup.put(session, new ArrayList<Interpreter>());
+        }
+        mockInterpreterGroup.get(session).add(interpreter);
         interpreter.setInterpreterGroup(mockInterpreterGroup);
         sessionId +=1 ;
         return kernelInterpreter;
     }
 
+    /**
+     * Starts a new interpreter, or leases a warm one when the server has a kernel pool.
+     */
     @Override
     void initiateInterpreter() throws InterpreterException {
+        if (userConfig.getPoolSize() > 0) {
+            kernelInterpreter = IPythonKernelPool.get().lease(userConfig);
+            leased = true;
+            return;
+        }
         kernelInterpreter = createInterpreter();
         kernelInterpreter.start();
     }
 
+    /**
+     * Sets the time limits of the code executed from now on. The notebook time limit starts
+     * with this call.
+     *
+     * @param cellTimeoutSeconds     the time limit of a cell in seconds, 0 for none
+     * @param notebookTimeoutMinutes the time limit of all the code in minutes, 0 for none
+     */
+    void setTimeouts(int cellTimeoutSeconds, int notebookTimeoutMinutes) {
+        this.cellTimeout = TimeUnit.SECONDS.toMillis(Math.max(cellTimeoutSeconds, 0));
+        this.notebookTimeout = TimeUnit.MINUTES.toMillis(Math.max(notebookTimeoutMinutes, 0));
+        this.deadline = notebookTimeout > 0 ? System.currentTimeMillis() + notebookTimeout : 0;
+    }
+
+    /**
+     * Sets the size limit of the text and HTML outputs of a cell. The output of a cell over the limit
+     * is written to a compressed file of the output directory, see {@link LogStreamer}.
+     *
+     * @param limit     the bytes of the output of a cell written to the log, 0 for no limit
+     * @param directory receives the outputs over the limit
+     * @param url       the url of the directory relative to the Jenkins root, null when it is not served
+     */
+    void setOutputLimit(long limit, File directory, String url) {
+        this.outputLimit = limit;
+        this.outputDirectory = directory;
+        this.outputUrl = url;
+    }
+
+    /**
+     * Sets the start of every line the code writes to the build log, for code sharing the log with
+     * code running at the same time.
+     *
+     * @param prefix the start of each line, null for none
+     */
+    void setLogPrefix(String prefix) {
+        this.logPrefix = prefix;
+    }
+
+    private LogStreamer newStreamer(PrintStream logger) {
+        buildLog = logger;
+        return new LogStreamer(logger, outputLimit, outputDirectory, outputUrl, logPrefix);
+    }
+
     @Override
     void closeInterpreter() {
         this.close();
@@ -107,25 +225,539 @@ public class IPythonInterpreterManager extends InterpreterManager {
      */
     protected String invokeInterpreter(String code, String task, FilePath workspace)
             throws InterpreterException, IOException, InterruptedException {
-        List<InterpreterResultMessage> interpreterResultMessages = kernelInterpreter.interpretCode(code);
-        if (interpreterResultMessages == null) {
+        return formatResult(kernelInterpreter.interpretCode(code), task, workspace);
+    }
+
+    /**
+     * Invoke interpreter to execute code like {@link #invokeInterpreter(String, String, FilePath)}, the
+     * text outputs are streamed to the logger while the code runs.
+     *
+     * @param code      the code
+     * @param task      the task
+     * @param workspace the workspace
+     * @param logger    receives the text outputs
+     * @throws InterpreterException the interpreter exception
+     * @throws IOException          the io exception
+     * @throws InterruptedException the interrupted exception
+     */
+    protected void invokeInterpreter(String code, String task, FilePath workspace, PrintStream logger)
+            throws InterpreterException, IOException, InterruptedException {
+        try (LogStreamer streamer = newStreamer(logger)) {
+            guard(() -> {
+                if (kernelInterpreter instanceof IPythonKernelInterpreter) {
+                    // executed as a single cell, so the images are received as raw bytes
+                    runCells(Collections.singletonList(code), 1, (index, text) -> streamer.write(text),
+                            images(task, workspace, streamer),
+                            (index, status, messages) -> println(streamer, formatResult(messages, task, workspace)));
+                    return null;
+                }
+                println(streamer, formatResult(kernelInterpreter.interpretCode(code), task, workspace));
+                return null;
+            }, streamer);
+        }
+    }
+
+    /**
+     * Invoke interpreter on a script of the workspace. The kernel reads the script itself, so its
+     * code does not go through the JVM and tracebacks point at the lines of the file. Text outputs
+     * are streamed to the logger while the script runs.
+     *
+     * @param script    the script, on the node of the kernel
+     * @param task      the task
+     * @param workspace the workspace
+     * @param logger    receives the text outputs
+     * @return true when the script succeeded
+     * @throws InterpreterException the interpreter exception
+     * @throws IOException          the io exception
+     * @throws InterruptedException the interrupted exception
+     */
+    protected boolean invokeInterpreterFile(FilePath script, String task, FilePath workspace, PrintStream logger)
+            throws InterpreterException, IOException, InterruptedException {
+        return invokeInterpreterCells(Collections.singletonList(executeFileCode(script.getRemote())), false, task,
+                workspace, logger);
+    }
+
+    /**
+     * @param kernel   the kernel name
+     * @param filePath the path of the script
+     * @return true when the kernel can execute the script from its path, see {@link #executeFileCode(String)}
+     */
+    static boolean canExecuteFile(String kernel, String filePath) {
+        return kernel.startsWith("python") && filePath.endsWith(".py");
+    }
+
+    /**
+     * @param path the absolute path of a python script
+     * @return python code executing the script in the namespace of the kernel, like {@code %run -i}
+     */
+    static String executeFileCode(String path) {
+        // JSON string escapes are valid in a python unicode literal
+        return "get_ipython().safe_execfile(u" + new Gson().toJson(path)
+                + ", get_ipython().user_ns, raise_exceptions=True)";
+    }
+
+    /**
+     * Invoke interpreter on the cells of a notebook. Text outputs are streamed to the logger while the
+     * cells run, the other outputs are handled per cell like {@link #invokeInterpreter}. Execution
+     * stops at the first failed cell.
+     *
+     * @param cells     the code of each cell
+     * @param pipelined whether the next cells are queued to the kernel while a cell runs
+     * @param task      the task
+     * @param workspace the workspace
+     * @param logger    receives the text outputs of each cell
+     * @return true when every cell succeeded
+     * @throws InterpreterException the interpreter exception
+     * @throws IOException          the io exception
+     * @throws InterruptedException the interrupted exception
+     */
+    protected boolean invokeInterpreterCells(List<String> cells, boolean pipelined, String task, FilePath workspace,
+                                             PrintStream logger)
+            throws InterpreterException, IOException, InterruptedException {
+        try (LogStreamer streamer = newStreamer(logger)) {
+            return guard(() -> runCells(cells, pipelined ? PIPELINE_DEPTH : 1, (index, text) -> streamer.write(text),
+                    images(task, workspace, streamer), reporter(0, task, workspace, streamer)), streamer);
+        }
+    }
+
+    /**
+     * Invoke interpreter on the cells of a notebook, running independent cells at the same time in
+     * forked copies of the kernel, see {@link CellGraph}. The other cells run in the kernel like
+     * {@link #invokeInterpreterCells}, and all of them run in notebook order when the dependencies
+     * of the cells are not known. Outputs of forked cells are printed once they are done.
+     * Execution stops at the first failed cell.
+     *
+     * @param cells     the code of each cell
+     * @param pipelined whether the next cells are queued to the kernel when the cells run in order
+     * @param task      the task
+     * @param workspace the workspace
+     * @param logger    receives the text outputs of each cell
+     * @return true when every cell succeeded
+     * @throws InterpreterException the interpreter exception
+     * @throws IOException          the io exception
+     * @throws InterruptedException the interrupted exception
+     */
+    protected boolean invokeInterpreterParallel(List<String> cells, boolean pipelined, String task,
+                                                FilePath workspace, PrintStream logger)
+            throws InterpreterException, IOException, InterruptedException {
+        try (LogStreamer streamer = newStreamer(logger)) {
+            return guard(() -> runParallel(cells, pipelined ? PIPELINE_DEPTH : 1, task, workspace, streamer),
+                    streamer);
+        }
+    }
+
+    private boolean runParallel(List<String> cells, int depth, String task, FilePath workspace,
+                                LogStreamer streamer) throws InterpreterException, IOException, InterruptedException {
+        CellGraph graph = null;
+        if (kernelInterpreter instanceof IPythonKernelInterpreter) {
+            kernelInterpreter.interpretCode(CellGraph.getHelpers());
+            graph = CellGraph.parse(CellGraph.report(kernelInterpreter.interpretCode(CellGraph.analyzeCode(cells))),
+                    cells.size());
+        }
+        if (graph == null) {
+            streamer.println("Dependencies of the cells are not known, executing the cells in order");
+            return runCells(cells, depth, (index, text) -> streamer.write(text), images(task, workspace, streamer),
+                    reporter(0, task, workspace, streamer));
+        }
+        Set<Integer> done = new HashSet<>();
+        while (done.size() < cells.size()) {
+            List<Integer> ready = graph.ready(done);
+            List<Integer> forked = ready.stream().filter(graph::isForkable).limit(PARALLEL_CELLS)
+                    .collect(Collectors.toList());
+            if (forked.size() < 2) {
+                // the first cell not done runs in the kernel, every cell before it is done
+                int first = ready.get(0);
+                if (!runCell(cells, first, task, workspace, streamer)) {
+                    return false;
+                }
+                done.add(first);
+                continue;
+            }
+            String numbers = forked.stream().map(cell -> String.valueOf(cell + 1)).collect(Collectors.joining(", "));
+            streamer.println("Running cells " + numbers + " in parallel");
+            JsonElement report = CellGraph.report(kernelInterpreter.interpretCode(CellGraph.forkCode(forked)));
+            if (report == null || !report.isJsonObject()) {
+                // the cells may have run in forked kernels, running them again would repeat their side effects
+                streamer.println("Cells " + numbers + " did not report their outputs, the remaining cells are skipped");
+                return false;
+            }
+            for (JsonElement element : report.getAsJsonObject().getAsJsonArray("cells")) {
+                JsonObject result = element.getAsJsonObject();
+                int cell = result.get("index").getAsInt();
+                String status = result.get("status").getAsString();
+                if ("SERIAL".equals(status)) {
+                    // it reads variables that can not be compared, it was not forked and runs in order
+                    graph.setBarrier(cell);
+                    continue;
+                }
+                println(streamer, formatResult(CellGraph.outputs(result), task, workspace));
+                streamer.endCell();
+                if ("CRASHED".equals(status)) {
+                    streamer.println("Forked kernel of cell " + (cell + 1)
+                            + " exited without its outputs, the remaining cells are skipped");
+                    return false;
+                }
+                if (!"SUCCESS".equals(status)) {
+                    streamer.println("Cell " + (cell + 1) + " failed, the remaining cells are skipped");
+                    return false;
+                }
+                done.add(cell);
+            }
+            cellStarted = System.currentTimeMillis();
+        }
+        return true;
+    }
+
+    private boolean runCell(List<String> cells, int cell, String task, FilePath workspace, LogStreamer streamer)
+            throws InterpreterException, IOException, InterruptedException {
+        return runCells(Collections.singletonList(cells.get(cell)), 1, (index, text) -> streamer.write(text),
+                images(task, workspace, streamer), reporter(cell, task, workspace, streamer));
+    }
+
+    /**
+     * Prints the outputs of each cell, the text outputs are already streamed.
+     *
+     * @param offset the index of the first cell in the notebook
+     */
+    private KernelPipeline.CellListener reporter(int offset, String task, FilePath workspace, LogStreamer streamer) {
+        return (index, code, messages) -> {
+            println(streamer, formatResult(messages, task, workspace));
+            streamer.endCell();
+            if (code != InterpreterResult.Code.SUCCESS) {
+                streamer.println("Cell " + (offset + index + 1) + " failed, the remaining cells are skipped");
+            }
+        };
+    }
+
+    /**
+     * Queues the images of the cells to the output writer as the kernel sends them, without base64.
+     */
+    private KernelPipeline.DataListener images(String task, FilePath workspace, LogStreamer streamer) {
+        return (index, mimeType, data) -> {
+            try {
+                getOutputWriter().submit(() -> Dumper.dumpImage(data, mimeType, task, workspace));
+                streamer.println("Image added to " + task);
+            } catch (InterruptedException e) {
+                // the cell is being stopped
+                Thread.currentThread().interrupt();
+            }
+        };
+    }
+
+    /**
+     * Invoke interpreter on the cells of a notebook, replaying the cached outputs of the cells that
+     * did not change since the last run, see {@link CellCache}. The kernel state is restored from
+     * the last snapshot before the first cell missing from the cache, and the cached cells after
+     * the snapshot are executed again without reporting their outputs. Execution resumes at the
+     * first cell missing from the cache and stops at the first failed cell.
+     *
+     * @param job       the full name of the job, cells are only replayed for the job that cached them
+     * @param cells     the code of each cell
+     * @param inputs    the input files of the notebook, relative to the workspace
+     * @param pipelined whether the next cells are queued to the kernel while a cell runs
+     * @param task      the task
+     * @param workspace the workspace
+     * @param logger    receives the text outputs of each cell
+     * @return true when every cell succeeded
+     * @throws InterpreterException the interpreter exception
+     * @throws IOException          the io exception
+     * @throws InterruptedException the interrupted exception
+     */
+    protected boolean invokeInterpreterCached(String job, List<String> cells, List<String> inputs,
+                                              boolean pipelined, String task, FilePath workspace,
+                                              PrintStream logger)
+            throws InterpreterException, IOException, InterruptedException {
+        CellCache cache;
+        try {
+            cache = CellCache.forAgent();
+        } catch (IOException e) {
+            logger.println("Cell cache is not available, executing every cell: " + e.getMessage());
+            return invokeInterpreterCells(cells, pipelined, task, workspace, logger);
+        }
+        try (LogStreamer streamer = newStreamer(logger)) {
+            return guard(() -> runCached(cache, job, cells, inputs, pipelined ? PIPELINE_DEPTH : 1, task,
+                    workspace, streamer), streamer);
+        } finally {
+            cache.trim();
+        }
+    }
+
+    private boolean runCached(CellCache cache, String job, List<String> cells, List<String> inputs, int depth,
+                              String task, FilePath workspace, LogStreamer streamer)
+            throws InterpreterException, IOException, InterruptedException {
+        List<String> keys = CellCache.keys(CellCache.seed(job, userConfig.getkernel(), workspace, inputs), cells);
+        int first = 0;
+        List<InterpreterResultMessage> cached;
+        while (first < cells.size() && (cached = cache.get(keys.get(first))) != null) {
+            println(streamer, formatResult(cached, task, workspace));
+            streamer.endCell();
+            first++;
+        }
+        if (first > 0) {
+            streamer.println("Replayed " + first + " of " + cells.size() + " cells from the cache");
+        }
+        if (first == cells.size()) {
+            return true;
+        }
+        kernelInterpreter.interpretCode(CellCache.getStateHelpers());
+        // resume at the last snapshot before the first changed cell, the cached cells after it run again
+        int restored = first;
+        while (restored > 0 && !cache.getStateFile(keys.get(restored - 1)).isFile()) {
+            restored--;
+        }
+        if (restored > 0 && !restoreState(cache, keys.get(restored - 1))) {
+            restored = 0;
+        }
+        if (restored < first) {
+            streamer.println("Kernel state after the cached cells is not available, executing cells "
+                    + (restored + 1) + " to " + first + " again");
+            int offset = restored;
+            boolean executed = runCells(cells.subList(restored, first), depth, null, null,
+                    (index, code, messages) -> {
+                        if (code != InterpreterResult.Code.SUCCESS) {
+                            println(streamer, formatResult(messages, task, workspace));
+                            streamer.println("Cached cell " + (offset + index + 1)
+                                    + " failed, the remaining cells are skipped");
+                        }
+                    });
+            if (!executed) {
+                return false;
+            }
+        }
+        // the kernel state is only written once, before the last cell
+        int snapshot = cells.size() - 2;
+        List<String> code = new ArrayList<>();
+        List<Integer> codeCells = new ArrayList<>();
+        for (int i = first; i < cells.size(); i++) {
+            code.add(cells.get(i));
+            codeCells.add(i);
+            if (i == snapshot) {
+                code.add(cache.snapshotCode(keys.get(i)));
+                codeCells.add(-1);
+            }
+        }
+        // the streamed text of the running cells, cached along with their other outputs
+        Map<Integer, ByteArrayOutputStream> texts = new ConcurrentHashMap<>();
+        // the images stay in the outputs, so they are cached with them
+        return runCells(code, depth, (index, text) -> {
+            if (codeCells.get(index) >= 0) {
+                streamer.write(text);
+                texts.computeIfAbsent(index, i -> new ByteArrayOutputStream()).write(text, 0, text.length);
+            }
+        }, null, (index, status, messages) -> {
+            int cell = codeCells.get(index);
+            if (cell < 0) {
+                return;
+            }
+            println(streamer, formatResult(messages, task, workspace));
+            streamer.endCell();
+            if (status == InterpreterResult.Code.SUCCESS) {
+                List<InterpreterResultMessage> outputs = new ArrayList<>();
+                ByteArrayOutputStream text = texts.remove(index);
+                if (text != null) {
+                    outputs.add(new InterpreterResultMessage(InterpreterResult.Type.TEXT,
+                            new String(text.toByteArray(), StandardCharsets.UTF_8)));
+                }
+                outputs.addAll(messages);
+                cache.put(keys.get(cell), outputs);
+            } else {
+                streamer.println("Cell " + (cell + 1) + " failed, the remaining cells are skipped");
+            }
+        });
+    }
+
+    private boolean restoreState(CellCache cache, String key) throws IOException, InterpreterException {
+        if (!cache.getStateFile(key).isFile()) {
+            return false;
+        }
+        List<InterpreterResultMessage> messages = kernelInterpreter.interpretCode(cache.restoreCode(key));
+        return messages != null && messages.stream()
+                .anyMatch(message -> message.getData().contains(CellCache.RESTORED_MARKER));
+    }
+
+    private boolean runCells(List<String> cells, int depth, KernelPipeline.TextListener text,
+                             KernelPipeline.DataListener data, KernelPipeline.CellListener listener)
+            throws InterpreterException, IOException, InterruptedException {
+        // the next cell starts running once the kernel is done with this one
+        KernelPipeline.CellListener timed = (index, code, messages) -> {
+            listener.onCell(index, code, messages);
+            cellStarted = System.currentTimeMillis();
+        };
+        if (kernelInterpreter instanceof IPythonKernelInterpreter) {
+            return ((IPythonKernelInterpreter) kernelInterpreter).interpretCells(cells, depth, text, data, timed);
+        }
+        // other kernels do not report the status of a cell
+        for (int i = 0; i < cells.size(); i++) {
+            List<InterpreterResultMessage> messages = kernelInterpreter.interpretCode(cells.get(i));
+            timed.onCell(i, InterpreterResult.Code.SUCCESS,
+                    messages == null ? Collections.emptyList() : messages);
+        }
+        return true;
+    }
+
+    /**
+     * Runs a call to the kernel on the worker thread and waits for it within the time limits.
+     * The kernel is interrupted when a time limit is exceeded or the build is aborted, and killed
+     * when it does not stop within {@link #CANCEL_GRACE}.
+     */
+    private <T> T guard(KernelCall<T> call, LogStreamer streamer)
+            throws InterpreterException, IOException, InterruptedException {
+        cellStarted = System.currentTimeMillis();
+        Future<T> future = getWorker().submit(call::call);
+        String reason;
+        boolean aborted = false;
+        try {
+            while ((reason = expired()) == null) {
+                try {
+                    T result = future.get(WATCH_INTERVAL, TimeUnit.MILLISECONDS);
+                    // the outputs are written by the time the code is reported done
+                    getOutputWriter().flush();
+                    return result;
+                } catch (TimeoutException e) {
+                    // still running
+                }
+            }
+        } catch (InterruptedException e) {
+            reason = "Execution was aborted";
+            aborted = true;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof InterpreterException) {
+                throw (InterpreterException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+        streamer.println(reason + ", interrupting the kernel");
+        stopKernel(future, streamer);
+        if (aborted) {
+            throw new InterruptedException(reason);
+        }
+        throw new AbortException(reason);
+    }
+
+    private String expired() {
+        long now = System.currentTimeMillis();
+        if (deadline > 0 && now >= deadline) {
+            return "Notebook timed out after " + TimeUnit.MILLISECONDS.toMinutes(notebookTimeout) + " minutes";
+        }
+        if (cellTimeout > 0 && now - cellStarted >= cellTimeout) {
+            return "Cell timed out after " + TimeUnit.MILLISECONDS.toSeconds(cellTimeout) + " seconds";
+        }
+        return null;
+    }
+
+    private void stopKernel(Future<?> future, LogStreamer streamer) {
+        if (!(kernelInterpreter instanceof IPythonKernelInterpreter)) {
+            future.cancel(true);
+            return;
+        }
+        IPythonKernelInterpreter kernel = (IPythonKernelInterpreter) kernelInterpreter;
+        // the cancel request waits for the kernel, keep watching from here
+        getWorker().execute(() -> {
+            try {
+                kernel.cancel();
+            } catch (InterpreterException | RuntimeException e) {
+                LOGGER.debug("Failed to interrupt the kernel", e);
+            }
+        });
+        try {
+            future.get(CANCEL_GRACE, TimeUnit.MILLISECONDS);
+            return;
+        } catch (ExecutionException e) {
+            // the interrupted cell failed, as expected
+            return;
+        } catch (TimeoutException | InterruptedException e) {
+            // the kernel ignores the interrupt, or the build was aborted again
+        }
+        streamer.println("Kernel did not stop within " + TimeUnit.MILLISECONDS.toSeconds(CANCEL_GRACE)
+                + " seconds, killing it");
+        killed = true;
+        kernel.kill();
+        future.cancel(true);
+    }
+
+    private synchronized ExecutorService getWorker() {
+        if (worker == null) {
+            worker = Executors.newCachedThreadPool(
+                    new NamingThreadFactory(new DaemonThreadFactory(), "IPythonInterpreterManager.worker"));
+        }
+        return worker;
+    }
+
+    /**
+     * Gets the metrics of the image and HTML outputs written, once the manager is closed.
+     *
+     * @return the metrics, null when no output was written
+     */
+    synchronized OutputWriter.Metrics getOutputMetrics() {
+        return outputMetrics == null || outputMetrics.getWrites() == 0 ? null : outputMetrics;
+    }
+
+    private synchronized OutputWriter getOutputWriter() {
+        if (outputWriter == null) {
+            outputWriter = new OutputWriter(WRITER_THREADS, WRITER_QUEUE);
+        }
+        return outputWriter;
+    }
+
+    /**
+     * Code executed on the kernel, see {@link #guard(KernelCall, LogStreamer)}.
+     */
+    @FunctionalInterface
+    private interface KernelCall<T> {
+        T call() throws InterpreterException, IOException, InterruptedException;
+    }
+
+    private static void println(LogStreamer streamer, String result) {
+        // empty when every output was text, which is already streamed
+        if (!result.isEmpty()) {
+            streamer.println(result);
+        }
+    }
+
+    /**
+     * Formats the text outputs. The other outputs are queued to the output writer, so the next cell
+     * does not wait for them to be written.
+     */
+    private String formatResult(List<InterpreterResultMessage> interpreterResultMessages, String task,
+                                FilePath workspace) throws InterruptedException {
+        if (interpreterResultMessages == null || interpreterResultMessages.isEmpty()) {
             return "";
         }
         boolean containsHTML = false;
         StringBuilder strTEXTBuild = new StringBuilder();
         StringBuilder strHTMLBuild = new StringBuilder();
         for (InterpreterResultMessage interpreterResultMessage : interpreterResultMessages) {
+            String data = interpreterResultMessage.getData();
             switch (interpreterResultMessage.getType()) {
                 case HTML:
                     strHTMLBuild.append(interpreterResultMessage.getData());
                     containsHTML = true;
                     break;
                 case IMG:
-                    Dumper.dumpImage(interpreterResultMessage.getData(), task, workspace);
+                    getOutputWriter().submit(() -> Dumper.dumpImage(data, task, workspace));
+                    strTEXTBuild.append("Image added to ").append(task);
+                    strTEXTBuild.append('\n');
+                    break;
+                case SVG:
+                    getOutputWriter().submit(() -> Dumper.dumpSvg(data, task, workspace));
                     strTEXTBuild.append("Image added to ").append(task);
                     strTEXTBuild.append('\n');
                     break;
                 case TEXT:
+                    if (interpreterResultMessage.getData().isEmpty()) {
+                        // streamed while the code ran
+                        break;
+                    }
                     strTEXTBuild.append(interpreterResultMessage.getData());
                     strTEXTBuild.append('\n');
                     break;
@@ -135,8 +767,15 @@ public class IPythonInterpreterManager extends InterpreterManager {
             }
         }
         if (containsHTML) {
-            Dumper.dumpHtml(strHTMLBuild.toString(), task, workspace);
-            strTEXTBuild.append("HTML added to ").append(task);
+            String html = strHTMLBuild.toString();
+            byte[] bytes = html.getBytes(StandardCharsets.UTF_8);
+            if (outputLimit > 0 && bytes.length > outputLimit) {
+                // kept compressed with the build log outputs instead of the results
+                strTEXTBuild.append(LogStreamer.spillHtml(bytes, outputLimit, outputDirectory, outputUrl));
+            } else {
+                getOutputWriter().submit(() -> Dumper.dumpHtml(html, task, workspace));
+                strTEXTBuild.append("HTML added to ").append(task);
+            }
         }
         return strTEXTBuild.toString();
     }
@@ -152,6 +791,27 @@ public class IPythonInterpreterManager extends InterpreterManager {
 
     @Override
     public void close() {
+        synchronized (this) {
+            if (worker != null) {
+                worker.shutdownNow();
+                worker = null;
+            }
+            if (outputWriter != null) {
+                // outputs of code stopped by a time limit are still written
+                outputWriter.close();
+                outputMetrics = outputWriter.getMetrics();
+                if (buildLog != null && outputWriter.getWrites() > 0) {
+                    buildLog.println((logPrefix == null ? "" : logPrefix) + outputWriter.getSummary());
+                }
+                outputWriter = null;
+            }
+        }
+        if (leased && !killed) {
+            // hand the kernel back to the pool instead of killing it, a killed kernel can not be reused
+            IPythonKernelPool.get().release(userConfig, (IPythonKernelInterpreter) kernelInterpreter);
+            leased = false;
+            return;
+        }
         try {
             kernelInterpreter.shutdown();
         } catch (InterpreterException e) {
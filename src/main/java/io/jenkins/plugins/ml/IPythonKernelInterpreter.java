@@ -28,6 +28,8 @@ import org.apache.zeppelin.interpreter.*;
 import org.apache.zeppelin.resource.LocalResourcePool;
 import org.apache.zeppelin.resource.ResourcePool;
 import io.jenkins.plugins.ml.jupyter.JupyterInterpreter;
+import io.jenkins.plugins.ml.jupyter.JupyterKernelInterpreter;
+import io.jenkins.plugins.ml.jupyter.KernelPipeline;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -67,6 +69,11 @@ public class IPythonKernelInterpreter implements KernelInterpreter  {
         properties.setProperty("zeppelin.python.gatewayserver_address", "127.0.0.1");
         properties.setProperty("zeppelin.jupyter.kernel.launch.timeout", String.valueOf(iPythonLaunchTimeout));
         properties.setProperty("zeppelin.py4j.useAuth","false");
+        properties.setProperty(JupyterKernelInterpreter.FORK_SERVER_PROPERTY, String.valueOf(userConfig.isForkServer()));
+        if (userConfig.getPreloadModules() != null) {
+            properties.setProperty(JupyterKernelInterpreter.PRELOAD_MODULES_PROPERTY, userConfig.getPreloadModules());
+        }
+        properties.setProperty(JupyterKernelInterpreter.DOMAIN_SOCKET_PROPERTY, String.valueOf(userConfig.isDomainSocket()));
         // Hack to change the working directory
         properties.setProperty("jenkins.plugin.working.directory", workingDirectory);
 
@@ -83,7 +90,18 @@ public class IPythonKernelInterpreter implements KernelInterpreter  {
      */
     @Override
     public List<InterpreterResultMessage> interpretCode(String code) throws IOException, InterpreterException {
-        InterpreterContext context = getInterpreterContext();
+        return interpretCode(code, null);
+    }
+
+    /**
+     * Interprets the code, streaming its text outputs to the listener while it runs.
+     * @param code - python code to be executed
+     * @param text - receives the text outputs, which are then missing from the result
+     * @return the list of result of the interpreted code
+     */
+    public List<InterpreterResultMessage> interpretCode(String code, KernelPipeline.TextListener text)
+            throws IOException, InterpreterException {
+        InterpreterContext context = getInterpreterContext(KernelPipeline.newOutput(0, text));
         interpreter.interpret(code, context);
         List<InterpreterResultMessage> rst = context.out.toInterpreterResultMessage();
 
@@ -93,6 +111,46 @@ public class IPythonKernelInterpreter implements KernelInterpreter  {
         return null;
     }
 
+    /**
+     * Executes the cells of a notebook with up to depth of them queued to the kernel, stopping at
+     * the first failed cell.
+     *
+     * @param cells    the code of each cell
+     * @param depth    the maximum number of cells queued to the kernel
+     * @param text     receives the text outputs while the cells run, may be null
+     * @param data     receives the images as raw bytes while the cells run, null to get them in the outputs
+     * @param listener receives the result of each executed cell
+     * @return true when every cell succeeded
+     * @throws InterpreterException when the cells can not be executed
+     */
+    public boolean interpretCells(List<String> cells, int depth, KernelPipeline.TextListener text,
+                                  KernelPipeline.DataListener data, KernelPipeline.CellListener listener)
+            throws InterpreterException {
+        interpreter.open();
+        JupyterInterpreter jupyterInterpreter = (JupyterInterpreter) interpreter.getInnerInterpreter();
+        return jupyterInterpreter.getKernelInterpreter(kernel).interpretPipelined(cells, depth, text, data,
+                listener);
+    }
+
+    /**
+     * Interrupts the running code, like a keyboard interrupt.
+     * @throws InterpreterException when the kernel can not be reached
+     */
+    public void cancel() throws InterpreterException {
+        interpreter.cancel(getInterpreterContext(new InterpreterOutput(null)));
+    }
+
+    /**
+     * Kills the kernel process, for a kernel ignoring {@link #cancel()}. The kernel is not alive
+     * anymore afterwards, see {@link #isAlive()}.
+     */
+    public void kill() {
+        Interpreter inner = interpreter.getInnerInterpreter();
+        if (inner instanceof JupyterInterpreter) {
+            ((JupyterInterpreter) inner).killKernel(kernel);
+        }
+    }
+
     public void start() throws InterpreterException {
         interpreter.open();
     }
@@ -102,18 +160,26 @@ public class IPythonKernelInterpreter implements KernelInterpreter  {
         interpreter.close();
     }
 
+    /**
+     * @return true when the jupyter kernel has been launched and its process is still running
+     */
+    public boolean isAlive() {
+        Interpreter inner = interpreter.getInnerInterpreter();
+        return inner instanceof JupyterInterpreter && ((JupyterInterpreter) inner).isKernelRunning(kernel);
+    }
+
     @Override
     public String toString() {
         return "IPython Interpreter";
     }
 
-    private InterpreterContext getInterpreterContext() {
+    private InterpreterContext getInterpreterContext(InterpreterOutput output) {
         Map<String, String> localProperties = new HashMap<>();
         localProperties.put("kernel", kernel);
         return InterpreterContext.builder()
                 .setNoteId("noteId")
                 .setParagraphId("paragraphId")
-                .setInterpreterOut(new InterpreterOutput(null))
+                .setInterpreterOut(output)
                 .setLocalProperties(localProperties)
                 .setResourcePool(resourcePool)
                 .build();
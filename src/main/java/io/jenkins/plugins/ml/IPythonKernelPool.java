@@ -0,0 +1,427 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Loghi Perinpanayagam.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.jenkins.plugins.ml;
+
+import hudson.model.Computer;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+import jenkins.security.MasterToSlaveCallable;
+import org.apache.zeppelin.interpreter.InterpreterException;
+import org.apache.zeppelin.interpreter.InterpreterResult;
+import org.apache.zeppelin.interpreter.InterpreterResultMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Agent side pool of warm IPython kernels.
+ *
+ * Kernels are grouped by the launch related part of {@link IPythonUserConfig} and leased to
+ * one build at a time. A returned kernel gets its namespace reset before it is leased again,
+ * and kernels that stay idle too long or grew above the memory limit are shut down.
+ */
+final class IPythonKernelPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IPythonKernelPool.class);
+    private static final IPythonKernelPool INSTANCE = new IPythonKernelPool();
+    private static final long EVICTION_PERIOD_SECONDS = 30;
+    // kernels launched at a time to refill the pool
+    private static final int LAUNCHERS = 2;
+
+    // %reset clears the user namespace, modules imported by the warm-up code stay in sys.modules
+    private static final String RESET_CODE = "%reset -f\n"
+            + "try:\n"
+            + "    import resource as _r, sys as _s\n"
+            + "    print(_r.getrusage(_r.RUSAGE_SELF).ru_maxrss // (1048576 if _s.platform == 'darwin' else 1024))\n"
+            + "    del _r, _s\n"
+            + "except Exception:\n"
+            + "    print(-1)\n";
+
+    private final Map<Key, Deque<PooledKernel>> idleKernels = new HashMap<>();
+    private final Map<Key, Integer> launching = new HashMap<>();
+    // configurations announced by the controller, null until the first announcement
+    private Set<Key> retained;
+    // resets returned kernels and evicts idle ones
+    private final ScheduledExecutorService executor;
+    // launches kernels, a slow launch does not hold back the kernels returned meanwhile
+    private final ExecutorService launcher;
+
+    private IPythonKernelPool() {
+        executor = Executors.newSingleThreadScheduledExecutor(
+                new NamingThreadFactory(new DaemonThreadFactory(), "IPythonKernelPool"));
+        executor.scheduleWithFixedDelay(this::evictIdle, EVICTION_PERIOD_SECONDS, EVICTION_PERIOD_SECONDS, TimeUnit.SECONDS);
+        launcher = Executors.newFixedThreadPool(LAUNCHERS,
+                new NamingThreadFactory(new DaemonThreadFactory(), "IPythonKernelPool launcher"));
+    }
+
+    /**
+     * Gets the pool of this JVM.
+     *
+     * @return the pool
+     */
+    static IPythonKernelPool get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Leases a running kernel for the given configuration, launching one if none is idle.
+     * The kernel is moved to the working directory of the configuration.
+     *
+     * @param userConfig the user configuration
+     * @return the leased kernel
+     * @throws InterpreterException when a kernel can not be launched
+     */
+    IPythonKernelInterpreter lease(IPythonUserConfig userConfig) throws InterpreterException {
+        Key key = new Key(userConfig);
+        IPythonKernelInterpreter kernel = null;
+        while (kernel == null) {
+            PooledKernel pooled;
+            synchronized (this) {
+                Deque<PooledKernel> idle = idleKernels.get(key);
+                pooled = idle == null ? null : idle.pollFirst();
+            }
+            if (pooled == null) {
+                kernel = launch(userConfig);
+            } else if (pooled.kernel.isAlive()) {
+                kernel = pooled.kernel;
+            } else {
+                LOGGER.info("Discarding pooled kernel that is no longer running");
+                shutdown(pooled.kernel);
+            }
+        }
+        try {
+            changeDirectory(kernel, userConfig.getWorkingDirectory());
+        } catch (InterpreterException | IOException e) {
+            shutdown(kernel);
+            throw e instanceof InterpreterException ? (InterpreterException) e : new InterpreterException(e);
+        }
+        launcher.execute(() -> replenish(userConfig));
+        return kernel;
+    }
+
+    /**
+     * Returns a leased kernel. The namespace is reset in the background and the kernel is
+     * kept for the next build unless it is over the memory limit or the pool was drained.
+     *
+     * @param userConfig the user configuration the kernel was leased with
+     * @param kernel     the kernel
+     */
+    void release(IPythonUserConfig userConfig, IPythonKernelInterpreter kernel) {
+        executor.execute(() -> recycle(new Key(userConfig), kernel));
+    }
+
+    /**
+     * Shuts down every kernel whose configuration is not in the given set.
+     *
+     * @param keys the configurations still in use
+     */
+    void retainAll(Set<Key> keys) {
+        List<PooledKernel> stale = new ArrayList<>();
+        synchronized (this) {
+            retained = new HashSet<>(keys);
+            Iterator<Map.Entry<Key, Deque<PooledKernel>>> entries = idleKernels.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<Key, Deque<PooledKernel>> entry = entries.next();
+                if (!keys.contains(entry.getKey())) {
+                    stale.addAll(entry.getValue());
+                    entries.remove();
+                }
+            }
+        }
+        if (!stale.isEmpty()) {
+            LOGGER.info("Draining " + stale.size() + " pooled kernel(s) after a configuration change");
+        }
+        stale.forEach(pooled -> shutdown(pooled.kernel));
+    }
+
+    /**
+     * Tells every online node to drop pooled kernels of servers that were changed or removed.
+     *
+     * @param servers the configured servers
+     */
+    static void drainStale(List<Server> servers) {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null) {
+            return;
+        }
+        HashSet<Key> keys = new HashSet<>();
+        for (Server server : servers) {
+            if (server.getKernel() != null && server.getPoolSize() > 0) {
+                keys.add(new Key(new IPythonUserConfig(server, null)));
+            }
+        }
+        for (Computer computer : jenkins.getComputers()) {
+            VirtualChannel channel = computer.getChannel();
+            if (channel == null) {
+                continue;
+            }
+            try {
+                channel.callAsync(new Retain(keys));
+            } catch (IOException e) {
+                LOGGER.warn("Failed to drain kernel pool on " + computer.getName(), e);
+            }
+        }
+    }
+
+    private IPythonKernelInterpreter launch(IPythonUserConfig userConfig) throws InterpreterException {
+        IPythonKernelInterpreter kernel = IPythonInterpreterManager.newKernelInterpreter(userConfig);
+        kernel.start();
+        // the jupyter kernel process is launched by the first interpretation
+        String warmupCode = userConfig.getWarmupCode();
+        try {
+            kernel.interpretCode(warmupCode == null ? "pass" : warmupCode);
+        } catch (IOException e) {
+            shutdown(kernel);
+            throw new InterpreterException(e);
+        }
+        if (!kernel.isAlive()) {
+            shutdown(kernel);
+            throw new InterpreterException("Pooled kernel " + userConfig.getkernel() + " failed to start");
+        }
+        return kernel;
+    }
+
+    private void replenish(IPythonUserConfig userConfig) {
+        Key key = new Key(userConfig);
+        while (true) {
+            synchronized (this) {
+                Deque<PooledKernel> idle = idleKernels.get(key);
+                int available = (idle == null ? 0 : idle.size()) + launching.getOrDefault(key, 0);
+                if (!isRetained(key) || available >= userConfig.getPoolSize()) {
+                    return;
+                }
+                launching.merge(key, 1, Integer::sum);
+            }
+            IPythonKernelInterpreter kernel = null;
+            try {
+                kernel = launch(userConfig);
+            } catch (InterpreterException e) {
+                LOGGER.warn("Failed to launch a pooled kernel", e);
+            } finally {
+                synchronized (this) {
+                    launching.merge(key, -1, Integer::sum);
+                    launching.remove(key, 0);
+                }
+            }
+            if (kernel == null) {
+                return;
+            }
+            offer(key, kernel);
+        }
+    }
+
+    private void recycle(Key key, IPythonKernelInterpreter kernel) {
+        try {
+            long memory = reset(kernel);
+            if (key.maxKernelMemory > 0 && memory > key.maxKernelMemory) {
+                LOGGER.info("Evicting pooled kernel using " + memory + " MB");
+                shutdown(kernel);
+                return;
+            }
+        } catch (InterpreterException | IOException e) {
+            LOGGER.warn("Failed to reset pooled kernel", e);
+            shutdown(kernel);
+            return;
+        }
+        offer(key, kernel);
+    }
+
+    private void offer(Key key, IPythonKernelInterpreter kernel) {
+        boolean accepted = false;
+        if (kernel.isAlive()) {
+            synchronized (this) {
+                Deque<PooledKernel> idle = idleKernels.computeIfAbsent(key, k -> new ArrayDeque<>());
+                if (isRetained(key) && idle.size() < key.poolSize) {
+                    idle.addFirst(new PooledKernel(kernel));
+                    accepted = true;
+                }
+            }
+        }
+        if (!accepted) {
+            shutdown(kernel);
+        }
+    }
+
+    private synchronized boolean isRetained(Key key) {
+        return retained == null || retained.contains(key);
+    }
+
+    private void evictIdle() {
+        List<PooledKernel> expired = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            for (Map.Entry<Key, Deque<PooledKernel>> entry : idleKernels.entrySet()) {
+                // the least recently used kernels are at the tail
+                Deque<PooledKernel> idle = entry.getValue();
+                while (!idle.isEmpty() && now - idle.peekLast().idleSince > entry.getKey().idleTimeout) {
+                    expired.add(idle.pollLast());
+                }
+            }
+            idleKernels.values().removeIf(Deque::isEmpty);
+        }
+        expired.forEach(pooled -> shutdown(pooled.kernel));
+    }
+
+    /**
+     * Resets the namespace of the kernel.
+     *
+     * @return the peak memory of the kernel in MB or -1 when unknown
+     */
+    private static long reset(IPythonKernelInterpreter kernel) throws InterpreterException, IOException {
+        List<InterpreterResultMessage> messages = kernel.interpretCode(RESET_CODE);
+        if (messages != null) {
+            for (InterpreterResultMessage message : messages) {
+                if (message.getType() == InterpreterResult.Type.TEXT) {
+                    try {
+                        return Long.parseLong(message.getData().trim());
+                    } catch (NumberFormatException e) {
+                        LOGGER.debug("Unexpected memory probe output " + message.getData());
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static void changeDirectory(IPythonKernelInterpreter kernel, String workingDirectory)
+            throws InterpreterException, IOException {
+        if (workingDirectory == null) {
+            return;
+        }
+        String path = workingDirectory.replace("\\", "\\\\").replace("'", "\\'").replace("\n", "\\n");
+        kernel.interpretCode("import os as _os\n_os.chdir('" + path + "')\ndel _os\n");
+    }
+
+    private static void shutdown(IPythonKernelInterpreter kernel) {
+        try {
+            kernel.shutdown();
+        } catch (InterpreterException e) {
+            LOGGER.trace("Failed to close pooled interpreter", e);
+        }
+    }
+
+    private static final class PooledKernel {
+        private final IPythonKernelInterpreter kernel;
+        private final long idleSince = System.currentTimeMillis();
+
+        private PooledKernel(IPythonKernelInterpreter kernel) {
+            this.kernel = kernel;
+        }
+    }
+
+    /**
+     * Identifies kernels that can serve the same builds, the working directory is not part of it.
+     */
+    static final class Key implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String kernel;
+        private final long launchTimeout;
+        private final long maxResult;
+        private final int poolSize;
+        private final long idleTimeout;
+        private final String warmupCode;
+        private final long maxKernelMemory;
+        private final boolean forkServer;
+        private final String preloadModules;
+        private final boolean domainSocket;
+
+        Key(IPythonUserConfig userConfig) {
+            this.kernel = userConfig.getkernel();
+            this.launchTimeout = userConfig.getIPythonLaunchTimeout();
+            this.maxResult = userConfig.getMaxResult();
+            this.poolSize = userConfig.getPoolSize();
+            this.idleTimeout = userConfig.getIdleTimeout();
+            this.warmupCode = userConfig.getWarmupCode();
+            this.maxKernelMemory = userConfig.getMaxKernelMemory();
+            this.forkServer = userConfig.isForkServer();
+            this.preloadModules = userConfig.getPreloadModules();
+            this.domainSocket = userConfig.isDomainSocket();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return Objects.equals(kernel, key.kernel) &&
+                    launchTimeout == key.launchTimeout &&
+                    maxResult == key.maxResult &&
+                    poolSize == key.poolSize &&
+                    idleTimeout == key.idleTimeout &&
+                    Objects.equals(warmupCode, key.warmupCode) &&
+                    maxKernelMemory == key.maxKernelMemory &&
+                    forkServer == key.forkServer &&
+                    Objects.equals(preloadModules, key.preloadModules) &&
+                    domainSocket == key.domainSocket;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(kernel, launchTimeout, maxResult, poolSize, idleTimeout, warmupCode, maxKernelMemory,
+                    forkServer, preloadModules, domainSocket);
+        }
+    }
+
+    private static final class Retain extends MasterToSlaveCallable<Void, RuntimeException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final HashSet<Key> keys;
+
+        private Retain(HashSet<Key> keys) {
+            this.keys = keys;
+        }
+
+        @Override
+        public Void call() {
+            IPythonKernelPool.get().retainAll(keys);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Loghi Perinpanayagam.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package io.jenkins.plugins.ml;
+
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.Computer;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.util.ListBoxModel;
+import io.jenkins.plugins.ml.utils.ConvertHelper;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pipeline step running python code or a notebook on the node of the enclosing node block.
+ *
+ * Unlike {@link IPythonBuilder} no thread waits for the kernel: the cells run in a process
+ * detached from the agent JVM, see {@link NotebookRunner}, and the controller polls its outputs on
+ * the shared timer. The step survives a restart of the controller and reattaches to the running
+ * notebook, and the outputs stream to the build log while the cells run.
+ */
+public class IPythonStep extends Step implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String task;
+    private String kernelName;
+    private String filePath;
+    private String code;
+
+    /**
+     * Instantiates a new IPython step.
+     *
+     * @param task the task folder of the images and html
+     */
+    @DataBoundConstructor
+    public IPythonStep(String task) {
+        this.task = task;
+    }
+
+    /**
+     * Gets task.
+     *
+     * @return the task
+     */
+    public String getTask() {
+        return task;
+    }
+
+    /**
+     * Gets kernel name.
+     *
+     * @return the kernel name, null for the first configured kernel
+     */
+    @CheckForNull
+    public String getKernelName() {
+        return kernelName;
+    }
+
+    /**
+     * Sets kernel name.
+     *
+     * @param kernelName the kernel name
+     */
+    @DataBoundSetter
+    public void setKernelName(String kernelName) {
+        this.kernelName = Util.fixEmptyAndTrim(kernelName);
+    }
+
+    /**
+     * Gets file path.
+     *
+     * @return the notebook or script to run, relative to the workspace
+     */
+    @CheckForNull
+    public String getFilePath() {
+        return filePath;
+    }
+
+    /**
+     * Sets file path.
+     *
+     * @param filePath the notebook or script to run, relative to the workspace
+     */
+    @DataBoundSetter
+    public void setFilePath(String filePath) {
+        this.filePath = Util.fixEmptyAndTrim(filePath);
+    }
+
+    /**
+     * Gets code.
+     *
+     * @return the code to run when there is no file path
+     */
+    @CheckForNull
+    public String getCode() {
+        return code;
+    }
+
+    /**
+     * Sets code.
+     *
+     * @param code the code to run when there is no file path
+     */
+    @DataBoundSetter
+    public void setCode(String code) {
+        this.code = Util.fixEmpty(code);
+    }
+
+    @Override
+    public StepExecution start(StepContext context) {
+        return new Execution(this, context);
+    }
+
+    private List<String> readCells(FilePath ws, String kernel) throws IOException, InterruptedException {
+        if (filePath == null) {
+            if (code == null) {
+                throw new AbortException("Either the code or the file path is required");
+            }
+            return Collections.singletonList(code);
+        }
+        FilePath file = ws.child(filePath);
+        if (filePath.endsWith("." + IPythonBuilder.FileExtension.ipynb)) {
+            return ConvertHelper.jupyterToTextArray(file);
+        }
+        if (filePath.endsWith("." + IPythonBuilder.FileExtension.json)) {
+            throw new AbortException("The ipython step does not support Zeppelin notes");
+        }
+        if (IPythonInterpreterManager.canExecuteFile(kernel, filePath)) {
+            // the kernel reads the script from the workspace
+            return Collections.singletonList(IPythonInterpreterManager.executeFileCode(file.getRemote()));
+        }
+        return Collections.singletonList(file.readToString());
+    }
+
+    /**
+     * The type Descriptor.
+     */
+    @Extension
+    public static final class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+                    Run.class, FilePath.class, TaskListener.class, EnvVars.class, Computer.class)));
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "ipython";
+        }
+
+        @Override
+        @Nonnull
+        public String getDisplayName() {
+            return "Run IPython code or a notebook";
+        }
+
+        /**
+         * Do fill kernel name items list box model.
+         *
+         * @return the list box model
+         */
+        public ListBoxModel doFillKernelNameItems() {
+            ListBoxModel items = new ListBoxModel();
+            for (Server site : IPythonGlobalConfiguration.get().getServers()) {
+                items.add(site.getKernel());
+            }
+            return items;
+        }
+    }
+
+    /**
+     * Launches the runner, then polls its control directory until it reports a result. Only the
+     * node, the paths and the offset of the outputs read so far are saved with the build.
+     */
+    static final class Execution extends StepExecution {
+
+        private static final long serialVersionUID = 1L;
+        private static final Logger LOGGER = Logger.getLogger(Execution.class.getName());
+
+        // polls back off while no output arrives
+        private static final long MIN_POLL_INTERVAL = 250;
+        private static final long MAX_POLL_INTERVAL = TimeUnit.SECONDS.toMillis(15);
+        // the runner touches its heartbeat every second
+        private static final long HEARTBEAT_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+        // a poll only reads a few files, the agent is unresponsive when it takes longer
+        private static final long POLL_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+
+        private final transient IPythonStep step;
+        private String node;
+        private String workspace;
+        private String task;
+        private String control;
+        private long offset;
+        private volatile Throwable stopCause;
+        private volatile boolean done;
+        private transient long interval;
+        private transient ScheduledFuture<?> poll;
+
+        Execution(IPythonStep step, StepContext context) {
+            super(context);
+            this.step = step;
+        }
+
+        @Override
+        public boolean start() throws Exception {
+            StepContext context = getContext();
+            FilePath ws = context.get(FilePath.class);
+            TaskListener listener = context.get(TaskListener.class);
+            Server server = IPythonBuilder.findServer(step.getKernelName());
+            if (server == null) {
+                throw new AbortException("No valid kernel exist for " + step.getKernelName());
+            }
+            if (Util.fixEmptyAndTrim(step.getTask()) == null) {
+                throw new AbortException("Task name is required to save the artifacts");
+            }
+            List<String> cells = step.readCells(ws, server.getKernel());
+            listener.getLogger().println("Executed kernel : " + server.getKernel().toUpperCase());
+            listener.getLogger().println("Language : " + server.getServerName().toUpperCase());
+            listener.getLogger().println("Working directory : " + ws.getRemote());
+            FilePath controlDirectory = NotebookRunner.newControlDirectory(ws);
+            controlDirectory.act(new NotebookRunner.Launch(cells, server.getKernel(), ws.getRemote(),
+                    context.get(EnvVars.class)));
+            node = context.get(Computer.class).getName();
+            workspace = ws.getRemote();
+            task = step.getTask();
+            control = controlDirectory.getRemote();
+            listener.getLogger().println("Output : ");
+            schedule(MIN_POLL_INTERVAL);
+            return false;
+        }
+
+        @Override
+        public void onResume() {
+            // the runner kept going without us, carry on from the last output read
+            schedule(MIN_POLL_INTERVAL);
+        }
+
+        @Override
+        public void stop(@Nonnull Throwable cause) throws Exception {
+            stopCause = cause;
+            FilePath controlDirectory = getControlDirectory();
+            if (controlDirectory == null) {
+                // the agent is gone, nothing can be stopped there
+                finish(cause);
+                return;
+            }
+            // the next poll fails the step once the runner exits
+            controlDirectory.act(new NotebookRunner.Stop());
+        }
+
+        @Override
+        public String getStatus() {
+            return "reading the outputs of " + control + " on " + (node.isEmpty() ? "the controller" : node)
+                    + " from offset " + offset;
+        }
+
+        @CheckForNull
+        private FilePath getControlDirectory() {
+            Jenkins jenkins = Jenkins.getInstanceOrNull();
+            Computer computer = jenkins == null ? null : jenkins.getComputer(node);
+            VirtualChannel channel = computer == null ? null : computer.getChannel();
+            return channel == null ? null : new FilePath(channel, control);
+        }
+
+        /**
+         * Schedules the next poll, which is only done once the previous one completed. The timer
+         * threads are shared by the whole controller, so the poll waits for the agent on a remoting
+         * thread instead.
+         */
+        private void schedule(long delay) {
+            if (!done) {
+                interval = delay;
+                poll = Timer.get().schedule(() -> Computer.threadPoolForRemoting.submit(this::poll),
+                        delay, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void poll() {
+            if (done) {
+                return;
+            }
+            FilePath controlDirectory = getControlDirectory();
+            if (controlDirectory == null) {
+                // the agent is offline or reconnecting, the runner does not need it
+                schedule(MAX_POLL_INTERVAL);
+                return;
+            }
+            Future<NotebookRunner.Progress> call = null;
+            try {
+                call = controlDirectory.actAsync(new NotebookRunner.Poll(offset, task, workspace));
+                NotebookRunner.Progress progress = call.get(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (!progress.getText().isEmpty()) {
+                    getContext().get(TaskListener.class).getLogger().print(progress.getText());
+                }
+                long delay = progress.getOffset() > offset ? MIN_POLL_INTERVAL
+                        : Math.min(interval * 2, MAX_POLL_INTERVAL);
+                offset = progress.getOffset();
+                if (progress.getResult() != null) {
+                    onExit(progress.getResult(), controlDirectory);
+                } else if (progress.getIdle() > HEARTBEAT_TIMEOUT) {
+                    finish(new AbortException("The notebook runner stopped without a result, see "
+                            + controlDirectory.child(NotebookRunner.LOG).getRemote()));
+                } else {
+                    schedule(delay);
+                }
+            } catch (TimeoutException e) {
+                // the output read by a late answer is read again by the next poll
+                call.cancel(true);
+                LOGGER.log(Level.FINE, "Timed out polling " + control + " on " + node, e);
+                schedule(MAX_POLL_INTERVAL);
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof IOException)) {
+                    finish(e.getCause());
+                    return;
+                }
+                // the channel may close during the call, the next poll finds out whether it is back
+                LOGGER.log(Level.FINE, "Fail to poll " + control + " on " + node, e.getCause());
+                schedule(MAX_POLL_INTERVAL);
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Fail to poll " + control + " on " + node, e);
+                schedule(MAX_POLL_INTERVAL);
+            } catch (InterruptedException e) {
+                finish(e);
+            } catch (RuntimeException e) {
+                finish(e);
+            }
+        }
+
+        private void onExit(int result, FilePath controlDirectory) throws IOException, InterruptedException {
+            Run<?, ?> run = getContext().get(Run.class);
+            run.addOrReplaceAction(new ResultAction(run, new FilePath(controlDirectory.getChannel(), workspace)));
+            controlDirectory.deleteRecursive();
+            if (stopCause != null) {
+                finish(stopCause);
+            } else if (result == NotebookRunner.SUCCESS) {
+                done = true;
+                getContext().onSuccess(null);
+            } else if (result == NotebookRunner.FAILED) {
+                finish(new AbortException("The notebook failed"));
+            } else {
+                finish(new AbortException("The notebook runner exited with " + result));
+            }
+        }
+
+        private void finish(Throwable cause) {
+            done = true;
+            if (poll != null) {
+                poll.cancel(false);
+            }
+            getContext().onFailure(cause);
+        }
+    }
+}
@@ -39,6 +39,13 @@ public class IPythonUserConfig implements Serializable {
     private final long iPythonLaunchTimeout;
     private final long maxResult;
     private final String workingDirectory;
+    private final int poolSize;
+    private final long idleTimeout;
+    private final String warmupCode;
+    private final long maxKernelMemory;
+    private final boolean forkServer;
+    private final String preloadModules;
+    private final boolean domainSocket;
 
     /**
      * Constructor for configuration
@@ -53,6 +60,33 @@ public class IPythonUserConfig implements Serializable {
         this.iPythonLaunchTimeout = iPythonLaunchTimeout;
         this.maxResult = maxResult;
         this.workingDirectory = workingDirectory;
+        this.poolSize = 0;
+        this.idleTimeout = Server.DEFAULT_IDLE_TIMEOUT * 1000;
+        this.warmupCode = null;
+        this.maxKernelMemory = 0;
+        this.forkServer = false;
+        this.preloadModules = null;
+        this.domainSocket = false;
+    }
+
+    /**
+     * Constructor for configuration of a server
+     *
+     * @param server           the server
+     * @param workingDirectory the working directory
+     */
+    public IPythonUserConfig(Server server, String workingDirectory) {
+        this.kernel = server.getKernel();
+        this.iPythonLaunchTimeout = server.getLaunchTimeoutInMilliSeconds();
+        this.maxResult = server.getMaxResults();
+        this.workingDirectory = workingDirectory;
+        this.poolSize = server.getPoolSize();
+        this.idleTimeout = server.getIdleTimeout() * 1000;
+        this.warmupCode = server.getWarmupCode();
+        this.maxKernelMemory = server.getMaxKernelMemory();
+        this.forkServer = server.isForkServer();
+        this.preloadModules = server.getPreloadModules();
+        this.domainSocket = server.isDomainSocket();
     }
 
     /**
@@ -91,6 +125,69 @@ public class IPythonUserConfig implements Serializable {
         return workingDirectory;
     }
 
+    /**
+     * Gets pool size.
+     *
+     * @return the number of warm kernels, zero when pooling is disabled
+     */
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * Gets idle timeout of a pooled kernel.
+     *
+     * @return idle timeout in milliseconds
+     */
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Gets warm-up code.
+     *
+     * @return the warm-up code
+     */
+    public String getWarmupCode() {
+        return warmupCode;
+    }
+
+    /**
+     * Gets max kernel memory.
+     *
+     * @return the max kernel memory in MB, zero when there is no limit
+     */
+    public long getMaxKernelMemory() {
+        return maxKernelMemory;
+    }
+
+    /**
+     * Gets whether kernels are forked from a fork server.
+     *
+     * @return true when the fork server is enabled
+     */
+    public boolean isForkServer() {
+        return forkServer;
+    }
+
+    /**
+     * Gets preload modules of the fork server.
+     *
+     * @return the preload modules
+     */
+    public String getPreloadModules() {
+        return preloadModules;
+    }
+
+    /**
+     * Gets whether the kernel is reached over a unix domain socket.
+     *
+     * @return true when the unix domain socket transport is enabled
+     */
+    public boolean isDomainSocket() {
+        return domainSocket;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -103,12 +200,20 @@ public class IPythonUserConfig implements Serializable {
         return kernel.equals(userConfig.getkernel()) &&
                 iPythonLaunchTimeout == userConfig.getIPythonLaunchTimeout() &&
                 maxResult == userConfig.getMaxResult() &&
-                workingDirectory == userConfig.getWorkingDirectory();
+                Objects.equals(workingDirectory, userConfig.getWorkingDirectory()) &&
+                poolSize == userConfig.poolSize &&
+                idleTimeout == userConfig.idleTimeout &&
+                Objects.equals(warmupCode, userConfig.warmupCode) &&
+                maxKernelMemory == userConfig.maxKernelMemory &&
+                forkServer == userConfig.forkServer &&
+                Objects.equals(preloadModules, userConfig.preloadModules) &&
+                domainSocket == userConfig.domainSocket;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(kernel, iPythonLaunchTimeout, maxResult, workingDirectory);
+        return Objects.hash(kernel, iPythonLaunchTimeout, maxResult, workingDirectory, poolSize, idleTimeout,
+                warmupCode, maxKernelMemory, forkServer, preloadModules, domainSocket);
     }
 
 }
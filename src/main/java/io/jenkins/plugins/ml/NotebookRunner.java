@@ -0,0 +1,315 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Loghi Perinpanayagam.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package io.jenkins.plugins.ml;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import hudson.slaves.WorkspaceList;
+import io.jenkins.plugins.ml.jupyter.KernelScriptCache;
+import io.jenkins.plugins.ml.utils.Dumper;
+import jenkins.MasterToSlaveFileCallable;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Agent side of {@link IPythonStep}, runs notebook_runner.py detached from the agent JVM and reads
+ * back what it reports in its control directory.
+ *
+ * The control directory sits in the @tmp sibling of the workspace. The runner reads the cells from
+ * it, appends every output there as soon as the kernel sends it, touches a heartbeat file every
+ * second and writes its exit code last. Nothing else is shared with the runner, so the step picks
+ * the run up again from the offset of the last output it read after the controller or the agent
+ * JVM restarted.
+ */
+final class NotebookRunner {
+
+    static final String CELLS = "cells.json";
+    static final String OUTPUT = "output.jsonl";
+    static final String HEARTBEAT = "heartbeat";
+    static final String RESULT = "result";
+    static final String STOP = "stop";
+    static final String LOG = "runner.log";
+
+    // exit codes of notebook_runner.py
+    static final int SUCCESS = 0;
+    static final int FAILED = 1;
+    static final int STOPPED = 2;
+    static final int CRASHED = 3;
+
+    // outputs read by one poll, a single larger output is still read whole
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    private NotebookRunner() {
+    }
+
+    /**
+     * Gets a new control directory for a run in the workspace.
+     *
+     * @param workspace the workspace
+     * @return the control directory, not created yet
+     */
+    static FilePath newControlDirectory(FilePath workspace) {
+        return WorkspaceList.tempDir(workspace).child("ipython-" + UUID.randomUUID());
+    }
+
+    /**
+     * Writes the cells to the control directory and starts the runner on them.
+     */
+    static final class Launch extends MasterToSlaveFileCallable<Void> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> cells;
+        private final String kernel;
+        private final String workspace;
+        private final Map<String, String> environment;
+
+        /**
+         * @param cells       the code of each cell
+         * @param kernel      the python executable, also the name of the jupyter kernel
+         * @param workspace   the working directory of the kernel
+         * @param environment variables added to the environment of the agent
+         */
+        Launch(List<String> cells, String kernel, String workspace, Map<String, String> environment) {
+            this.cells = new ArrayList<>(cells);
+            this.kernel = kernel;
+            this.workspace = workspace;
+            this.environment = new HashMap<>(environment);
+        }
+
+        @Override
+        public Void invoke(File control, VirtualChannel channel) throws IOException {
+            FileUtils.forceMkdir(control);
+            FileUtils.writeStringToFile(new File(control, CELLS), new Gson().toJson(cells), StandardCharsets.UTF_8);
+            File script = new File(KernelScriptCache.getScriptDirectory(), "notebook_runner.py");
+            ProcessBuilder builder = new ProcessBuilder(kernel, script.getAbsolutePath(),
+                    control.getAbsolutePath(), kernel)
+                    .directory(new File(workspace))
+                    .redirectErrorStream(true)
+                    .redirectOutput(new File(control, LOG));
+            builder.environment().putAll(environment);
+            // the runner is never waited for, it reports through the control directory only
+            builder.start().getOutputStream().close();
+            return null;
+        }
+    }
+
+    /**
+     * Reads the outputs reported since the last poll. Images and html are saved to the task folder
+     * like {@link IPythonInterpreterManager} does, the text is returned for the build log.
+     */
+    static final class Poll extends MasterToSlaveFileCallable<Progress> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long offset;
+        private final String task;
+        private final String workspace;
+
+        /**
+         * @param offset    the offset of the first output not read yet
+         * @param task      the task folder of the images and html
+         * @param workspace the workspace holding the task folder
+         */
+        Poll(long offset, String task, String workspace) {
+            this.offset = offset;
+            this.task = task;
+            this.workspace = workspace;
+        }
+
+        @Override
+        public Progress invoke(File control, VirtualChannel channel) throws IOException, InterruptedException {
+            // the runner writes its result after its last output, so read it first
+            File resultFile = new File(control, RESULT);
+            Integer result = resultFile.isFile()
+                    ? Integer.valueOf(FileUtils.readFileToString(resultFile, StandardCharsets.UTF_8).trim()) : null;
+            File output = new File(control, OUTPUT);
+            long length = output.isFile() ? output.length() : 0;
+            StringBuilder text = new StringBuilder();
+            long next = offset;
+            if (length > offset) {
+                next += read(output, length, text);
+            }
+            if (result != null && next == length && result == CRASHED) {
+                text.append(FileUtils.readFileToString(new File(control, LOG), StandardCharsets.UTF_8));
+            }
+            File heartbeat = new File(control, HEARTBEAT);
+            long idle = System.currentTimeMillis()
+                    - (heartbeat.isFile() ? heartbeat.lastModified() : new File(control, CELLS).lastModified());
+            return new Progress(next, text.toString(), next == length ? result : null, idle);
+        }
+
+        /**
+         * @return the number of bytes of the complete outputs read
+         */
+        private long read(File output, long length, StringBuilder text) throws IOException, InterruptedException {
+            byte[] chunk;
+            int end;
+            try (RandomAccessFile file = new RandomAccessFile(output, "r")) {
+                file.seek(offset);
+                chunk = new byte[(int) Math.min(length - offset, CHUNK_SIZE)];
+                file.readFully(chunk);
+                end = lastLineEnd(chunk);
+                if (end < 0 && chunk.length < length - offset) {
+                    // one output larger than a chunk, read up to its end
+                    file.seek(offset);
+                    chunk = new byte[(int) (length - offset)];
+                    file.readFully(chunk);
+                    end = lastLineEnd(chunk);
+                }
+            }
+            if (end < 0) {
+                // the runner is still writing the output
+                return 0;
+            }
+            FilePath ws = new FilePath(new File(workspace));
+            for (String line : new String(chunk, 0, end, StandardCharsets.UTF_8).split("\n")) {
+                format(new JsonParser().parse(line).getAsJsonObject(), ws, text);
+            }
+            return end + 1;
+        }
+
+        private static int lastLineEnd(byte[] chunk) {
+            for (int i = chunk.length - 1; i >= 0; i--) {
+                if (chunk[i] == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void format(JsonObject record, FilePath ws, StringBuilder text)
+                throws IOException, InterruptedException {
+            int cell = record.get("cell").getAsInt();
+            if (record.has("end")) {
+                if ("ERROR".equals(record.get("end").getAsString())) {
+                    text.append("Cell ").append(cell + 1).append(" failed, the remaining cells are skipped\n");
+                }
+                return;
+            }
+            String data = record.get("output").getAsString();
+            switch (record.get("type").getAsString()) {
+                case "HTML":
+                    Dumper.dumpHtml(data, task, ws);
+                    text.append("HTML added to ").append(task).append('\n');
+                    break;
+                case "PNG":
+                case "JPEG":
+                    String mimeType = record.has("mime") ? record.get("mime").getAsString() : "";
+                    Dumper.dumpImage(data, mimeType.isEmpty() ? null : mimeType, task, ws);
+                    text.append("Image added to ").append(task).append('\n');
+                    break;
+                case "SVG":
+                    Dumper.dumpSvg(data, task, ws);
+                    text.append("Image added to ").append(task).append('\n');
+                    break;
+                case "CLEAR":
+                    break;
+                default:
+                    text.append(data);
+                    if (!data.endsWith("\n")) {
+                        text.append('\n');
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Asks the runner to interrupt the running cell and to skip the remaining ones.
+     */
+    static final class Stop extends MasterToSlaveFileCallable<Void> {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Void invoke(File control, VirtualChannel channel) throws IOException {
+            FileUtils.touch(new File(control, STOP));
+            return null;
+        }
+    }
+
+    /**
+     * Outputs of one poll.
+     */
+    static final class Progress implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long offset;
+        private final String text;
+        private final Integer result;
+        private final long idle;
+
+        Progress(long offset, String text, Integer result, long idle) {
+            this.offset = offset;
+            this.text = text;
+            this.result = result;
+            this.idle = idle;
+        }
+
+        /**
+         * @return the offset of the first output not read yet
+         */
+        long getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return the text outputs for the build log
+         */
+        String getText() {
+            return text;
+        }
+
+        /**
+         * @return the exit code of the runner once every output was read, null while it runs
+         */
+        Integer getResult() {
+            return result;
+        }
+
+        /**
+         * @return milliseconds since the runner last touched its heartbeat
+         */
+        long getIdle() {
+            return idle;
+        }
+    }
+}
@@ -0,0 +1,485 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Loghi Perinpanayagam.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.jenkins.plugins.ml;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+import hudson.AbortException;
+import hudson.FilePath;
+import hudson.model.Computer;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.TopLevelItem;
+import hudson.remoting.VirtualChannel;
+import hudson.slaves.WorkspaceList;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import io.jenkins.plugins.ml.model.SweepResult;
+import io.jenkins.plugins.ml.utils.ConvertHelper;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.model.Jenkins;
+import jenkins.security.MasterToSlaveCallable;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+/**
+ * Runs one notebook for every combination of a parameter grid, fanned out across agents.
+ *
+ * The grid is a JSON object mapping each parameter to the list of its values. The notebook is read
+ * once on the node of the build, and each combination gets a cell assigning its parameters inserted after
+ * the cell tagged "parameters", or first when no cell is tagged. At most {@code concurrency}
+ * combinations run at a time, spread over the online nodes of the label, each one writing its
+ * images and html to a task folder of its own that is copied back to the workspace of the build.
+ * A combination on another node runs in a workspace leased from that node, like a build would, so
+ * builds running there at the same time do not share it. The outputs of a combination are streamed to the build log while it runs, each line starting
+ * with the name of its task folder. Kernels are reused across combinations through the kernel
+ * pool of the server.
+ */
+final class ParameterSweep {
+
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    private final Server server;
+    private final List<String> cells;
+    private final int parametersCell;
+    private final String task;
+    private final boolean pipelined;
+    private int cellTimeout;
+    private int notebookTimeout;
+    private long outputLimit;
+    private String outputDirectory;
+    private String outputUrl;
+
+    /**
+     * @param server         the server of the kernel
+     * @param cells          the code of each cell
+     * @param parametersCell the index of the cell holding the default parameters, or -1
+     * @param task           the task, combinations write to numbered task folders
+     * @param pipelined      whether the next cells are queued to the kernel while a cell runs
+     */
+    ParameterSweep(Server server, List<String> cells, int parametersCell, String task, boolean pipelined) {
+        this.server = server;
+        this.cells = cells;
+        this.parametersCell = parametersCell;
+        this.task = task;
+        this.pipelined = pipelined;
+    }
+
+    /**
+     * Sets the time limits of every combination.
+     *
+     * @param cellTimeout     the time limit of a cell in seconds, 0 for none
+     * @param notebookTimeout the time limit of a combination in minutes, 0 for none
+     */
+    void setTimeouts(int cellTimeout, int notebookTimeout) {
+        this.cellTimeout = cellTimeout;
+        this.notebookTimeout = notebookTimeout;
+    }
+
+    /**
+     * Reads the notebook on its node and creates the sweep of its cells.
+     *
+     * @param server    the server of the kernel
+     * @param notebook  the .ipynb file
+     * @param task      the task, combinations write to numbered task folders
+     * @param pipelined whether the next cells are queued to the kernel while a cell runs
+     * @return the sweep
+     * @throws IOException          when the notebook can not be read
+     * @throws InterruptedException when interrupted
+     */
+    static ParameterSweep ofNotebook(Server server, FilePath notebook, String task, boolean pipelined)
+            throws IOException, InterruptedException {
+        Notebook cells = notebook.act(new ReadNotebook());
+        return new ParameterSweep(server, cells.cells, cells.parametersCell, task, pipelined);
+    }
+
+    /**
+     * Sets the size limit of the text output of a cell in the build log, see
+     * {@link IPythonInterpreterManager#setOutputLimit(long, File, String)}.
+     *
+     * @param limit     the bytes of the output of a cell written to the log, 0 for no limit
+     * @param directory the directory of the workspace receiving the outputs over the limit
+     * @param url       the url of the directory relative to the Jenkins root, null when it is not served
+     */
+    void setOutputLimit(long limit, String directory, String url) {
+        this.outputLimit = limit;
+        this.outputDirectory = directory;
+        this.outputUrl = url;
+    }
+
+    /**
+     * Expands a parameter grid, the last parameter varying fastest.
+     *
+     * @param grid JSON object of the values of each parameter, a value that is not a list is used as is
+     * @return python literals of the parameters of each combination
+     * @throws AbortException when the grid is not valid
+     */
+    static List<Map<String, String>> combinations(String grid) throws AbortException {
+        JsonObject parameters;
+        try {
+            parameters = new Gson().fromJson(grid, JsonObject.class);
+        } catch (JsonParseException e) {
+            throw new AbortException("Parameter grid is not a JSON object: " + e.getMessage());
+        }
+        if (parameters == null || parameters.size() == 0) {
+            throw new AbortException("Parameter grid is empty");
+        }
+        List<Map<String, String>> combinations = new ArrayList<>();
+        combinations.add(new LinkedHashMap<>());
+        for (Map.Entry<String, JsonElement> parameter : parameters.entrySet()) {
+            if (!IDENTIFIER.matcher(parameter.getKey()).matches()) {
+                throw new AbortException("Parameter " + parameter.getKey() + " is not a python identifier");
+            }
+            List<JsonElement> values = new ArrayList<>();
+            if (parameter.getValue().isJsonArray()) {
+                parameter.getValue().getAsJsonArray().forEach(values::add);
+            } else {
+                values.add(parameter.getValue());
+            }
+            if (values.isEmpty()) {
+                throw new AbortException("Parameter " + parameter.getKey() + " has no value");
+            }
+            List<Map<String, String>> expanded = new ArrayList<>();
+            for (Map<String, String> combination : combinations) {
+                for (JsonElement value : values) {
+                    Map<String, String> next = new LinkedHashMap<>(combination);
+                    next.put(parameter.getKey(), toPython(value));
+                    expanded.add(next);
+                }
+            }
+            combinations = expanded;
+        }
+        return combinations;
+    }
+
+    private static String toPython(JsonElement value) {
+        if (value.isJsonNull()) {
+            return "None";
+        }
+        if (value.isJsonArray()) {
+            List<String> items = new ArrayList<>();
+            value.getAsJsonArray().forEach(item -> items.add(toPython(item)));
+            return "[" + String.join(", ", items) + "]";
+        }
+        if (value.isJsonObject()) {
+            List<String> items = new ArrayList<>();
+            value.getAsJsonObject().entrySet().forEach(item ->
+                    items.add(toPythonString(item.getKey()) + ": " + toPython(item.getValue())));
+            return "{" + String.join(", ", items) + "}";
+        }
+        JsonPrimitive primitive = value.getAsJsonPrimitive();
+        if (primitive.isBoolean()) {
+            return primitive.getAsBoolean() ? "True" : "False";
+        }
+        if (primitive.isNumber()) {
+            return primitive.getAsString();
+        }
+        return toPythonString(primitive.getAsString());
+    }
+
+    private static String toPythonString(String text) {
+        StringBuilder literal = new StringBuilder("u\"");
+        for (char c : text.toCharArray()) {
+            if (c == '\\' || c == '"') {
+                literal.append('\\').append(c);
+            } else if (c < 0x20 || c > 0x7e) {
+                literal.append(String.format("\\u%04x", (int) c));
+            } else {
+                literal.append(c);
+            }
+        }
+        return literal.append('"').toString();
+    }
+
+    /**
+     * @param combination the parameters of a combination
+     * @return the cell assigning the parameters
+     */
+    static String parametersCell(Map<String, String> combination) {
+        StringBuilder cell = new StringBuilder("# Parameters of the sweep\n");
+        combination.forEach((name, value) -> cell.append(name).append(" = ").append(value).append('\n'));
+        return cell.toString();
+    }
+
+    private static String describe(Map<String, String> combination) {
+        List<String> parameters = new ArrayList<>();
+        combination.forEach((name, value) -> parameters.add(name + "=" + value));
+        return String.join(", ", parameters);
+    }
+
+    /**
+     * Runs every combination, {@code concurrency} of them at a time, and streams their outputs to the build log.
+     *
+     * @param run         the build
+     * @param workspace   the workspace of the build
+     * @param grid        the parameter grid, see {@link #combinations(String)}
+     * @param label       the label of the nodes to run on, or null for the node of the build
+     * @param concurrency the maximum number of combinations running at a time
+     * @param listener    the build listener
+     * @return the result of each combination
+     * @throws IOException          when no node can run the sweep
+     * @throws InterruptedException when the build is aborted
+     */
+    List<SweepResult> run(Run<?, ?> run, FilePath workspace, String grid, String label, int concurrency,
+                          TaskListener listener) throws IOException, InterruptedException {
+        List<Map<String, String>> combinations = combinations(grid);
+        List<Slot> nodes = nodes(run, workspace, label);
+        int slotCount = Math.max(1, Math.min(concurrency, combinations.size()));
+        BlockingQueue<Slot> slots = new ArrayBlockingQueue<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            slots.add(nodes.get(i % nodes.size()));
+        }
+        listener.getLogger().println("Sweeping " + combinations.size() + " combinations over " + nodes.size()
+                + " node(s), " + slotCount + " at a time");
+        ExecutorService executor = Executors.newFixedThreadPool(slotCount,
+                new NamingThreadFactory(new DaemonThreadFactory(), "IPythonBuilder sweep"));
+        try {
+            List<Future<SweepResult>> futures = new ArrayList<>();
+            for (int i = 0; i < combinations.size(); i++) {
+                int index = i;
+                futures.add(executor.submit(() -> {
+                    Slot slot = slots.take();
+                    try {
+                        return runCombination(slot, workspace, index, combinations.get(index), listener);
+                    } finally {
+                        slots.add(slot);
+                    }
+                }));
+            }
+            List<SweepResult> results = new ArrayList<>();
+            for (Future<SweepResult> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<Slot> nodes(Run<?, ?> run, FilePath workspace, String label) throws AbortException {
+        List<Slot> nodes = new ArrayList<>();
+        Computer current = workspace.toComputer();
+        if (label == null) {
+            nodes.add(new Slot(current == null ? "" : current.getName(), workspace, workspace.getChannel(), null));
+            return nodes;
+        }
+        Label nodeLabel = Jenkins.get().getLabel(label);
+        if (nodeLabel != null) {
+            for (Node node : nodeLabel.getNodes()) {
+                Computer computer = node.toComputer();
+                if (computer == null || computer.isOffline() || computer.getChannel() == null) {
+                    continue;
+                }
+                if (computer == current) {
+                    nodes.add(new Slot(computer.getName(), workspace, workspace.getChannel(), null));
+                } else if (run.getParent() instanceof TopLevelItem) {
+                    FilePath nodeWorkspace = node.getWorkspaceFor((TopLevelItem) run.getParent());
+                    if (nodeWorkspace != null) {
+                        nodes.add(new Slot(computer.getName(), nodeWorkspace, computer.getChannel(), computer));
+                    }
+                }
+            }
+        }
+        if (nodes.isEmpty()) {
+            throw new AbortException("No online node matches the sweep label " + label);
+        }
+        return nodes;
+    }
+
+    private SweepResult runCombination(Slot slot, FilePath workspace, int index, Map<String, String> combination,
+                                       TaskListener listener) throws IOException, InterruptedException {
+        String combinationTask = task + "_" + (index + 1);
+        List<String> combinationCells = new ArrayList<>(cells);
+        combinationCells.add(parametersCell + 1, parametersCell(combination));
+        String parameters = describe(combination);
+        String node = slot.name.isEmpty() ? "built-in node" : slot.name;
+        // the build holds its own workspace, the workspace of another node is leased like a build would
+        WorkspaceList.Lease lease = slot.computer == null ? null
+                : slot.computer.getWorkspaceList().allocate(slot.workspace);
+        boolean success;
+        try {
+            FilePath nodeWorkspace = lease == null ? slot.workspace : lease.path;
+            nodeWorkspace.mkdirs();
+            listener.getLogger().println("Combination " + (index + 1) + " [" + parameters + "] on " + node
+                    + " as " + combinationTask);
+            success = slot.channel.call(new Combination(
+                    new IPythonUserConfig(server, nodeWorkspace.getRemote()), combinationCells, combinationTask,
+                    nodeWorkspace, pipelined, cellTimeout, notebookTimeout, listener, outputLimit,
+                    outputDirectory, outputUrl));
+            if (lease != null) {
+                copyBack(nodeWorkspace.child(combinationTask), workspace.child(combinationTask));
+                if (outputDirectory != null) {
+                    copyBack(nodeWorkspace.child(outputDirectory), workspace.child(outputDirectory));
+                }
+            }
+        } finally {
+            if (lease != null) {
+                lease.release();
+            }
+        }
+        Result result = success ? Result.SUCCESS : Result.FAILURE;
+        listener.getLogger().println("Combination " + (index + 1) + " [" + parameters + "] on " + node + " : " + result);
+        return new SweepResult(parameters, combinationTask, slot.name, result.toString());
+    }
+
+    private static void copyBack(FilePath outputs, FilePath target) throws IOException, InterruptedException {
+        if (outputs.exists()) {
+            outputs.copyRecursiveTo(target);
+            outputs.deleteRecursive();
+        }
+    }
+
+    /**
+     * A node with room for one more running combination.
+     */
+    private static final class Slot {
+
+        private final String name;
+        private final FilePath workspace;
+        private final VirtualChannel channel;
+        // the node to lease the workspace from, null for the workspace of the build
+        private final Computer computer;
+
+        private Slot(String name, FilePath workspace, VirtualChannel channel, Computer computer) {
+            this.name = name;
+            this.workspace = workspace;
+            this.channel = channel;
+            this.computer = computer;
+        }
+    }
+
+    private static final class Notebook implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ArrayList<String> cells;
+        private final int parametersCell;
+
+        private Notebook(ArrayList<String> cells, int parametersCell) {
+            this.cells = cells;
+            this.parametersCell = parametersCell;
+        }
+    }
+
+    /**
+     * Parses the notebook on its node, the controller only gets the code of the cells.
+     */
+    private static final class ReadNotebook extends MasterToSlaveFileCallable<Notebook> {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Notebook invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+            FilePath notebook = new FilePath(f);
+            return new Notebook(ConvertHelper.jupyterToTextArray(notebook), ConvertHelper.parametersCellIndex(notebook));
+        }
+    }
+
+    /**
+     * Executes one combination on the node of its workspace.
+     */
+    private static final class Combination extends MasterToSlaveCallable<Boolean, RuntimeException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final IPythonUserConfig userConfig;
+        private final List<String> cells;
+        private final String task;
+        private final FilePath workspace;
+        private final boolean pipelined;
+        private final int cellTimeout;
+        private final int notebookTimeout;
+        private final TaskListener listener;
+        private final long outputLimit;
+        private final String outputDirectory;
+        private final String outputUrl;
+
+        private Combination(IPythonUserConfig userConfig, List<String> cells, String task, FilePath workspace,
+                            boolean pipelined, int cellTimeout, int notebookTimeout, TaskListener listener,
+                            long outputLimit, String outputDirectory, String outputUrl) {
+            this.userConfig = userConfig;
+            this.cells = new ArrayList<>(cells);
+            this.task = task;
+            this.workspace = workspace;
+            this.pipelined = pipelined;
+            this.cellTimeout = cellTimeout;
+            this.notebookTimeout = notebookTimeout;
+            this.listener = listener;
+            this.outputLimit = outputLimit;
+            this.outputDirectory = outputDirectory;
+            this.outputUrl = outputUrl;
+        }
+
+        @Override
+        public Boolean call() {
+            PrintStream logger = listener.getLogger();
+            String prefix = "[" + task + "] ";
+            try (IPythonInterpreterManager interpreterManager = new IPythonInterpreterManager(userConfig)) {
+                interpreterManager.initiateInterpreter();
+                interpreterManager.setTimeouts(cellTimeout, notebookTimeout);
+                interpreterManager.setLogPrefix(prefix);
+                if (outputDirectory != null) {
+                    interpreterManager.setOutputLimit(outputLimit,
+                            new File(workspace.child(outputDirectory).getRemote()), outputUrl);
+                }
+                return interpreterManager.invokeInterpreterCells(cells, pipelined, task, workspace, logger);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.println(prefix + "Interrupted");
+            } catch (AbortException e) {
+                // a time limit was exceeded, no stack trace
+                logger.println(prefix + e.getMessage());
+            } catch (Exception e) {
+                for (String line : ExceptionUtils.getStackTrace(e).split("\\R")) {
+                    logger.println(prefix + line);
+                }
+            }
+            return false;
+        }
+    }
+}
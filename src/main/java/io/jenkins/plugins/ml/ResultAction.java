@@ -28,22 +28,48 @@ import hudson.FilePath;
 import hudson.model.Action;
 import hudson.model.Run;
 import io.jenkins.plugins.ml.model.Summary;
+import io.jenkins.plugins.ml.model.SweepResult;
+import io.jenkins.plugins.ml.utils.Dumper;
+import io.jenkins.plugins.ml.utils.OutputWriter;
 import jenkins.model.RunAction2;
+import org.apache.commons.io.IOUtils;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
 
 import javax.annotation.CheckForNull;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 
 /**
  * The type Result action.
  */
 public class ResultAction implements RunAction2 {
 
+    /**
+     * Build directory holding the cell outputs over the size limit of the build log.
+     */
+    public static final String OUTPUTS_DIRECTORY = "ml-outputs";
+    private static final Pattern OUTPUT_NAME = Pattern.compile("[\\w.-]+\\.(log|html)\\.gz");
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+
     private transient Run<?, ?> run;
     private List<Summary> imageFiles;
     private List<Summary> htmlFiles;
+    private List<SweepResult> sweepResults;
+    private OutputWriter.Metrics outputMetrics;
     private transient FilePath path;
 
     /**
@@ -102,6 +128,140 @@ public class ResultAction implements RunAction2 {
         return htmlFiles;
     }
 
+    /**
+     * Gets the results of the parameter combinations.
+     *
+     * @return the sweep results, null when the build is not a sweep
+     */
+    public List<SweepResult> getSweepResults() {
+        return sweepResults;
+    }
+
+    /**
+     * Sets the results of the parameter combinations.
+     *
+     * @param sweepResults the sweep results
+     */
+    public void setSweepResults(List<SweepResult> sweepResults) {
+        this.sweepResults = sweepResults;
+    }
+
+    /**
+     * Gets the metrics of the image and HTML outputs written by the build.
+     *
+     * @return the metrics, null when the build wrote no such output or ran a parameter sweep
+     */
+    public OutputWriter.Metrics getOutputMetrics() {
+        return outputMetrics;
+    }
+
+    /**
+     * Sets the metrics of the image and HTML outputs written by the build.
+     *
+     * @param outputMetrics the metrics, may be null
+     */
+    public void setOutputMetrics(OutputWriter.Metrics outputMetrics) {
+        this.outputMetrics = outputMetrics;
+    }
+
+    /**
+     * Gets the compressed cell outputs of the build, see {@link #doOutput(StaplerRequest, StaplerResponse)}.
+     *
+     * @return the file names
+     */
+    public List<String> getOutputFiles() {
+        String[] names = getOutputDirectory().list((dir, name) -> OUTPUT_NAME.matcher(name).matches());
+        if (names == null) {
+            return Collections.emptyList();
+        }
+        Arrays.sort(names);
+        return Arrays.asList(names);
+    }
+
+    private File getOutputDirectory() {
+        return new File(run.getRootDir(), OUTPUTS_DIRECTORY);
+    }
+
+    /**
+     * Serves a compressed cell output from the build directory, as text for the HTML ones too so they
+     * are not rendered in the context of Jenkins. Clients accepting gzip get the file
+     * as it is, with byte ranges, so a large output is never loaded in memory. The others get it
+     * inflated while it is sent.
+     *
+     * @param req the request, the rest of its path is the file name
+     * @param rsp the response
+     * @throws IOException when the file can not be sent
+     */
+    public void doOutput(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        String name = req.getRestOfPath().replaceFirst("^/", "");
+        File file = new File(getOutputDirectory(), name);
+        if (!OUTPUT_NAME.matcher(name).matches() || !file.isFile()) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        rsp.setContentType("text/plain;charset=UTF-8");
+        String encodings = req.getHeader("Accept-Encoding");
+        if (encodings == null || !encodings.contains("gzip")) {
+            try (InputStream in = new GZIPInputStream(new FileInputStream(file));
+                 OutputStream out = rsp.getOutputStream()) {
+                IOUtils.copyLarge(in, out);
+            }
+            return;
+        }
+        rsp.setHeader("Content-Encoding", "gzip");
+        rsp.setHeader("Accept-Ranges", "bytes");
+        long length = file.length();
+        long[] range = parseRange(req.getHeader("Range"), length);
+        if (range == null) {
+            range = new long[]{0, length - 1};
+        } else if (range.length == 0) {
+            rsp.setHeader("Content-Range", "bytes */" + length);
+            rsp.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        } else {
+            rsp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            rsp.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+        }
+        rsp.setHeader("Content-Length", String.valueOf(range[1] - range[0] + 1));
+        try (InputStream in = new FileInputStream(file); OutputStream out = rsp.getOutputStream()) {
+            IOUtils.copyLarge(in, out, range[0], range[1] - range[0] + 1);
+        }
+    }
+
+    /**
+     * Parses a single byte range of a Range header.
+     *
+     * @param header the Range header, may be null
+     * @param length the length of the file
+     * @return the first and last byte of the range, null to send the whole file, empty when the range
+     * is out of the file
+     */
+    static long[] parseRange(String header, long length) {
+        Matcher matcher = header == null ? null : RANGE.matcher(header.trim());
+        if (matcher == null || !matcher.matches() || matcher.group(1).isEmpty() && matcher.group(2).isEmpty()) {
+            // no range, or several of them
+            return null;
+        }
+        long first;
+        long last;
+        try {
+            if (matcher.group(1).isEmpty()) {
+                // the last bytes of the file
+                first = Math.max(0, length - Long.parseLong(matcher.group(2)));
+                last = length - 1;
+            } else {
+                first = Long.parseLong(matcher.group(1));
+                last = matcher.group(2).isEmpty() ? length - 1 : Math.min(Long.parseLong(matcher.group(2)), length - 1);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (first >= length || first > last) {
+            return new long[0];
+        }
+        return new long[]{first, last};
+    }
+
     /**
      * Get build id string.
      *
@@ -126,7 +286,10 @@ public class ResultAction implements RunAction2 {
     private void updateFiles() {
         try {
             if (path.exists()) {
-                imageFiles = getVisualsByPath(path, "png");
+                imageFiles = new ArrayList<>();
+                for (String extension : Dumper.IMAGE_EXTENSIONS) {
+                    imageFiles.addAll(getVisualsByPath(path, extension));
+                }
                 htmlFiles = getVisualsByPath(path, "html");
             }
         } catch (Exception e) {
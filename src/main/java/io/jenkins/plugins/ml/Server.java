@@ -31,10 +31,12 @@ import hudson.model.Descriptor;
 import hudson.util.FormValidation;
 import org.apache.zeppelin.interpreter.InterpreterException;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.verb.POST;
 
 import javax.annotation.Nonnull;
+import java.util.Objects;
 import java.util.logging.Level;
 import java.util.regex.Pattern;
 
@@ -46,6 +48,18 @@ public class Server extends AbstractDescribableImpl<Server> {
     private final String kernel;
     private final long launchTimeout;
     private final long maxResults;
+    private int poolSize;
+    private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private String warmupCode;
+    private long maxKernelMemory;
+    private boolean forkServer;
+    private String preloadModules;
+    private boolean domainSocket;
+
+    /**
+     * Default time in seconds that a pooled kernel may stay idle before it is evicted.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = 600;
 
     private static final Pattern pattern = Pattern.compile("^[a-zA-Z0-9_]+$");
     private static final java.util.logging.Logger GRPC_IO_LOGGER = java.util.logging.Logger.getLogger("io.grpc.internal");
@@ -111,6 +125,168 @@ public class Server extends AbstractDescribableImpl<Server> {
         return Util.fixEmptyAndTrim(kernel);
     }
 
+    /**
+     * Gets the number of warm kernels kept per agent. Zero disables pooling.
+     *
+     * @return the pool size
+     */
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * Sets pool size.
+     *
+     * @param poolSize the pool size
+     */
+    @DataBoundSetter
+    public void setPoolSize(int poolSize) {
+        this.poolSize = Math.max(0, poolSize);
+    }
+
+    /**
+     * Gets idle timeout of a pooled kernel in seconds.
+     *
+     * @return the idle timeout
+     */
+    public long getIdleTimeout() {
+        // configurations saved before pooling was added have no value
+        return idleTimeout > 0 ? idleTimeout : DEFAULT_IDLE_TIMEOUT;
+    }
+
+    /**
+     * Sets idle timeout.
+     *
+     * @param idleTimeout the idle timeout in seconds
+     */
+    @DataBoundSetter
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Gets code executed once when a pooled kernel is launched, e.g. heavy imports.
+     *
+     * @return the warm-up code
+     */
+    public String getWarmupCode() {
+        return warmupCode;
+    }
+
+    /**
+     * Sets warm-up code.
+     *
+     * @param warmupCode the warm-up code
+     */
+    @DataBoundSetter
+    public void setWarmupCode(String warmupCode) {
+        this.warmupCode = Util.fixEmptyAndTrim(warmupCode);
+    }
+
+    /**
+     * Gets the peak memory in MB above which a returned kernel is evicted. Zero means no limit.
+     *
+     * @return the max kernel memory
+     */
+    public long getMaxKernelMemory() {
+        return maxKernelMemory;
+    }
+
+    /**
+     * Sets max kernel memory.
+     *
+     * @param maxKernelMemory the max kernel memory in MB
+     */
+    @DataBoundSetter
+    public void setMaxKernelMemory(long maxKernelMemory) {
+        this.maxKernelMemory = Math.max(0, maxKernelMemory);
+    }
+
+    /**
+     * Gets whether kernels are forked from a long-lived python process holding the preloaded modules.
+     *
+     * @return true when the fork server is enabled
+     */
+    public boolean isForkServer() {
+        return forkServer;
+    }
+
+    /**
+     * Sets fork server.
+     *
+     * @param forkServer true to fork kernels from a fork server
+     */
+    @DataBoundSetter
+    public void setForkServer(boolean forkServer) {
+        this.forkServer = forkServer;
+    }
+
+    /**
+     * Gets the modules imported once by the fork server, separated by spaces or commas.
+     *
+     * @return the preload modules
+     */
+    public String getPreloadModules() {
+        return preloadModules;
+    }
+
+    /**
+     * Sets preload modules.
+     *
+     * @param preloadModules the preload modules
+     */
+    @DataBoundSetter
+    public void setPreloadModules(String preloadModules) {
+        this.preloadModules = Util.fixEmptyAndTrim(preloadModules);
+    }
+
+    /**
+     * Gets whether the kernel is reached over a unix domain socket instead of loopback TCP.
+     *
+     * @return true when the unix domain socket transport is enabled
+     */
+    public boolean isDomainSocket() {
+        return domainSocket;
+    }
+
+    /**
+     * Sets domain socket.
+     *
+     * @param domainSocket true to use the unix domain socket transport
+     */
+    @DataBoundSetter
+    public void setDomainSocket(boolean domainSocket) {
+        this.domainSocket = domainSocket;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        Server server = (Server) o;
+        return Objects.equals(serverName, server.serverName) &&
+                Objects.equals(kernel, server.kernel) &&
+                launchTimeout == server.launchTimeout &&
+                maxResults == server.maxResults &&
+                poolSize == server.poolSize &&
+                idleTimeout == server.idleTimeout &&
+                Objects.equals(warmupCode, server.warmupCode) &&
+                maxKernelMemory == server.maxKernelMemory &&
+                forkServer == server.forkServer &&
+                Objects.equals(preloadModules, server.preloadModules) &&
+                domainSocket == server.domainSocket;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(serverName, kernel, launchTimeout, maxResults, poolSize, idleTimeout, warmupCode,
+                maxKernelMemory, forkServer, preloadModules, domainSocket);
+    }
+
     @Override
     public Descriptor<Server> getDescriptor() {
         return null;
@@ -181,6 +357,24 @@ public class Server extends AbstractDescribableImpl<Server> {
             return FormValidation.ok();
         }
 
+        /**
+         * Do check pool size form validation.
+         *
+         * @param poolSize the pool size
+         * @return the form validation
+         */
+        public FormValidation doCheckPoolSize(@QueryParameter String poolSize) {
+            try {
+                Integer num = Integer.valueOf(poolSize);
+                if (num >= 0) {
+                    return FormValidation.ok();
+                }
+            } catch (Exception e) {
+                return FormValidation.error("Pool size should be a valid number ");
+            }
+            return FormValidation.error("Pool size should not be negative ");
+        }
+
         /**
          * Validate the server by testing it
          *
@@ -40,24 +40,56 @@ public class JupyterInterpreter extends AbstractInterpreter {
         if (kernel == null) {
             return new InterpreterResult(Code.ERROR, "No kernel is specified");
         } else {
-            io.jenkins.plugins.ml.jupyter.JupyterKernelInterpreter kernelInterpreter = null;
-            synchronized (this.kernelInterpreterMap) {
-                if (this.kernelInterpreterMap.containsKey(kernel)) {
-                    kernelInterpreter = (io.jenkins.plugins.ml.jupyter.JupyterKernelInterpreter) this.kernelInterpreterMap.get(kernel);
-                } else {
-                    kernelInterpreter = new io.jenkins.plugins.ml.jupyter.JupyterKernelInterpreter(kernel, this.properties);
-                    kernelInterpreter.open();
-                    this.kernelInterpreterMap.put(kernel, kernelInterpreter);
-                }
-            }
+            return getKernelInterpreter(kernel).interpret(st, context);
+        }
+    }
 
-            return kernelInterpreter.interpret(st, context);
+    /**
+     * Gets the interpreter of a kernel, launching the kernel on the first call.
+     *
+     * @param kernel the kernel name
+     * @return the opened kernel interpreter
+     * @throws InterpreterException when the kernel can not be launched
+     */
+    public io.jenkins.plugins.ml.jupyter.JupyterKernelInterpreter getKernelInterpreter(String kernel) throws InterpreterException {
+        synchronized (this.kernelInterpreterMap) {
+            io.jenkins.plugins.ml.jupyter.JupyterKernelInterpreter kernelInterpreter = this.kernelInterpreterMap.get(kernel);
+            if (kernelInterpreter == null) {
+                kernelInterpreter = new io.jenkins.plugins.ml.jupyter.JupyterKernelInterpreter(kernel, this.properties);
+                kernelInterpreter.open();
+                this.kernelInterpreterMap.put(kernel, kernelInterpreter);
+            }
+            return kernelInterpreter;
         }
     }
 
     public void open() throws InterpreterException {
     }
 
+    public boolean isKernelRunning(String kernel) {
+        io.jenkins.plugins.ml.jupyter.JupyterKernelInterpreter kernelInterpreter;
+        synchronized (this.kernelInterpreterMap) {
+            kernelInterpreter = this.kernelInterpreterMap.get(kernel);
+        }
+        return kernelInterpreter != null && kernelInterpreter.getKernelProcessLauncher() != null
+                && kernelInterpreter.getKernelProcessLauncher().isRunning();
+    }
+
+    /**
+     * Kills the process of a kernel without asking the kernel to shut down.
+     *
+     * @param kernel the kernel name
+     */
+    public void killKernel(String kernel) {
+        io.jenkins.plugins.ml.jupyter.JupyterKernelInterpreter kernelInterpreter;
+        synchronized (this.kernelInterpreterMap) {
+            kernelInterpreter = this.kernelInterpreterMap.get(kernel);
+        }
+        if (kernelInterpreter != null) {
+            kernelInterpreter.kill();
+        }
+    }
+
     public void close() throws InterpreterException {
         Iterator var1 = this.kernelInterpreterMap.values().iterator();
 
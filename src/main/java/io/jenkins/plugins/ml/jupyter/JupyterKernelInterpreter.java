@@ -17,16 +17,16 @@
 
 package io.jenkins.plugins.ml.jupyter;
 
+import io.grpc.ForwardingChannelBuilder;
+import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
 import org.apache.commons.exec.CommandLine;
+import org.apache.commons.exec.ExecuteException;
 import org.apache.commons.exec.environment.EnvironmentUtils;
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.zeppelin.interpreter.*;
 import org.apache.zeppelin.interpreter.jupyter.proto.*;
-import org.apache.zeppelin.interpreter.remote.RemoteInterpreterUtils;
 import org.apache.zeppelin.interpreter.thrift.InterpreterCompletion;
 import org.apache.zeppelin.interpreter.util.InterpreterOutputStream;
 import org.apache.zeppelin.jupyter.JupyterKernelClient;
@@ -36,14 +36,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.net.URL;
-import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Jupyter Kernel Interpreter for Zeppelin. One instance of this class represents one
@@ -57,7 +58,18 @@ import java.util.Properties;
 public class JupyterKernelInterpreter extends AbstractInterpreter {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(JupyterKernelInterpreter.class);
+    // printed by kernel_server.py once the jupyter kernel is started, followed by its address
+    private static final String READY_MARKER = "jenkins-ml-kernel-ready";
+    // time to let the kernel process exit once the client suspects it failed
+    private static final long KERNEL_EXIT_TIMEOUT = 1000;
+    // launch kernels through a fork server with preloaded modules, see KernelZygote
+    public static final String FORK_SERVER_PROPERTY = "jenkins.plugin.kernel.fork.server";
+    public static final String PRELOAD_MODULES_PROPERTY = "jenkins.plugin.kernel.preload.modules";
+    // reach the kernel over a unix domain socket instead of loopback TCP, see KernelTransport
+    public static final String DOMAIN_SOCKET_PROPERTY = "jenkins.plugin.kernel.domain.socket";
     protected JupyterKernelClient jupyterKernelClient;
+    // channel of jupyterKernelClient, shared with the pipelined executions
+    private ManagedChannel kernelChannel;
     protected ZeppelinContext z;
     // working directory of jupyter kernel
     protected File kernelWorkDir;
@@ -111,84 +123,82 @@ public class JupyterKernelInterpreter extends AbstractInterpreter {
             kernelLaunchTimeout = Integer.parseInt(
                     getProperty("zeppelin.jupyter.kernel.launch.timeout", "30000"));
             this.z = buildZeppelinContext();
-            int kernelPort = RemoteInterpreterUtils.findRandomAvailablePortOnAllLocalInterfaces();
             int message_size = Integer.parseInt(getProperty("zeppelin.jupyter.kernel.grpc.message_size",
                     32 * 1024 * 1024 + ""));
 
-            ManagedChannelBuilder builder = ManagedChannelBuilder
-                    .forAddress("127.0.0.1", kernelPort)
-                    .usePlaintext(true)
+            String kernelAddress = launchJupyterKernel();
+            ManagedChannelBuilder<?> builder = KernelTransport.forAddress(kernelAddress)
                     .maxInboundMessageSize(message_size);
-            jupyterKernelClient = new JupyterKernelClient(builder, getProperties());
-            launchJupyterKernel(kernelPort);
+            kernelChannel = builder.build();
+            jupyterKernelClient = new JupyterKernelClient(new BuiltChannelBuilder(builder, kernelChannel),
+                    getProperties());
         } catch (Exception e) {
+            KernelScriptCache.deleteScratchDirectory(kernelWorkDir);
             throw new InterpreterException("Fail to open JupyterKernelInterpreter:\n" +
                     ExceptionUtils.getStackTrace(e), e);
         }
     }
 
+    /**
+     * Module names imported by the kernel server, matching {@link #getRequiredPackages()}.
+     *
+     * @return importable module names
+     */
+    public List<String> getRequiredModules() {
+        List<String> requiredModules = new ArrayList<>();
+        requiredModules.add("jupyter_client");
+        requiredModules.add("grpc");
+        requiredModules.add("google.protobuf");
+        return requiredModules;
+    }
+
     /**
      * non-empty return value mean the errors when checking kernel prerequisite.
      * empty value mean kernel prerequisite is met.
+     * The result is cached per python environment, see {@link KernelPrerequisiteCache}.
      *
      * @param pythonExec string for python executable
      * @return check result of checking kernel prerequisite.
      */
     public String checkKernelPrerequisite(String pythonExec) {
-        ProcessBuilder processBuilder = new ProcessBuilder(pythonExec, "-m", "pip", "freeze");
-        File stderrFile = null;
-        File stdoutFile = null;
-        try {
-            stderrFile = File.createTempFile("zeppelin", ".txt");
-            processBuilder.redirectError(stderrFile);
-            stdoutFile = File.createTempFile("zeppelin", ".txt");
-            processBuilder.redirectOutput(stdoutFile);
-
-            Process proc = processBuilder.start();
-            int ret = proc.waitFor();
-            if (ret != 0) {
-                try (FileInputStream in = new FileInputStream(stderrFile)) {
-                    return "Fail to run pip freeze.\n" + IOUtils.toString(in);
-                }
-            }
-            try (FileInputStream in = new FileInputStream(stdoutFile)) {
-                String freezeOutput = IOUtils.toString(in);
-                for (String packageName : getRequiredPackages()) {
-                    if (!freezeOutput.contains(packageName + "=") && !freezeOutput.contains(packageName.replace('-', '_'))) {
-                        return packageName + " is not installed.";
-                    }
-                }
-                LOGGER.info("Prerequisite for kernel " + getKernelName() + " is met");
-            }
-        } catch (Exception e) {
-            LOGGER.warn("Fail to checkKernelPrerequisite", e);
-            return "Fail to checkKernelPrerequisite: " + ExceptionUtils.getStackTrace(e);
-        } finally {
-            FileUtils.deleteQuietly(stderrFile);
-            FileUtils.deleteQuietly(stdoutFile);
+        String result = KernelPrerequisiteCache.check(pythonExec, getRequiredModules());
+        if (result.isEmpty()) {
+            LOGGER.debug("Prerequisite for kernel " + getKernelName() + " is met");
         }
-        return "";
+        return result;
     }
 
-    private void launchJupyterKernel(int kernelPort)
+    /**
+     * Launches kernel_server.py, which binds its address itself so concurrent kernels do not race
+     * for a free port.
+     *
+     * @return the address the kernel server is listening on
+     */
+    private String launchJupyterKernel()
             throws IOException {
-        LOGGER.info("Launching Jupyter Kernel at port: " + kernelPort);
-        // copy the python scripts to a temp directory, then launch jupyter kernel in that folder
-        this.kernelWorkDir = Files.createTempDirectory(
-                "zeppelin_jupyter_kernel_" + getKernelName()).toFile();
-        String[] kernelScripts = {"kernel_server.py", "kernel_pb2.py", "kernel_pb2_grpc.py"};
-        for (String kernelScript : kernelScripts) {
-            URL url = getClass().getClassLoader().getResource("grpc/jupyter"
-                    + "/" + kernelScript);
-            FileUtils.copyURLToFile(url, new File(kernelWorkDir, kernelScript));
-        }
+        // the scripts are shared by all kernels, each kernel only gets its own scratch directory
+        File scriptDirectory = KernelScriptCache.getScriptDirectory();
+        this.kernelWorkDir = KernelScriptCache.createScratchDirectory(getKernelName());
+        String bindAddress = KernelTransport.bindAddress(
+                Boolean.parseBoolean(getProperty(DOMAIN_SOCKET_PROPERTY, "false")), kernelWorkDir);
+        LOGGER.info("Launching Jupyter Kernel at address: " + bindAddress);
 
         CommandLine cmd = CommandLine.parse(pythonExecutable);
-        cmd.addArgument(kernelWorkDir.getAbsolutePath() + "/kernel_server.py");
+        KernelZygote zygote = getZygote();
+        if (zygote != null) {
+            // the client only relays the forked kernel, skipping site makes it start in a few milliseconds
+            cmd.addArgument("-S");
+            cmd.addArgument(new File(scriptDirectory, "zygote_client.py").getAbsolutePath());
+            cmd.addArgument(zygote.getSocket().getAbsolutePath());
+        } else {
+            cmd.addArgument(new File(scriptDirectory, "kernel_server.py").getAbsolutePath());
+        }
         cmd.addArgument(getKernelName());
-        cmd.addArgument(kernelPort + "");
+        cmd.addArgument(bindAddress);
 
         Map<String, String> envs = setupKernelEnv();
+        // keep the connection file of the kernel in the scratch directory so it is removed with it
+        envs.put("JUPYTER_RUNTIME_DIR", kernelWorkDir.getAbsolutePath());
         final String workingDirectory = getProperty("jenkins.plugin.working.directory");
         jupyterKernelProcessLauncher = new JupyterKernelProcessLauncher(cmd, envs, workingDirectory);
         jupyterKernelProcessLauncher.launch();
@@ -202,6 +212,36 @@ public class JupyterKernelInterpreter extends AbstractInterpreter {
             throw new IOException("Fail to launch Jupyter Kernel as the python process is failed.\n"
                     + jupyterKernelProcessLauncher.getErrorMessage());
         }
+        return jupyterKernelProcessLauncher.getKernelAddress();
+    }
+
+    /**
+     * @return the fork server to launch the kernel with, null to launch the kernel directly
+     */
+    private KernelZygote getZygote() {
+        if (!Boolean.parseBoolean(getProperty(FORK_SERVER_PROPERTY, "false"))) {
+            return null;
+        }
+        if (!KernelZygote.isSupported()) {
+            LOGGER.warn("Fork server is not supported on this platform, launching the kernel directly");
+            return null;
+        }
+        if (!KernelZygote.canFork(getKernelName())) {
+            LOGGER.info("Fork server only starts IPython kernels, launching " + getKernelName() + " directly");
+            return null;
+        }
+        List<String> modules = new ArrayList<>();
+        for (String module : getProperty(PRELOAD_MODULES_PROPERTY, "").split("[\\s,]+")) {
+            if (!module.isEmpty()) {
+                modules.add(module);
+            }
+        }
+        try {
+            return KernelZygote.get(pythonExecutable, modules, kernelLaunchTimeout);
+        } catch (IOException e) {
+            LOGGER.warn("Fail to launch the fork server, launching the kernel directly", e);
+            return null;
+        }
     }
 
     protected Map<String, String> setupKernelEnv() throws IOException {
@@ -212,6 +252,18 @@ public class JupyterKernelInterpreter extends AbstractInterpreter {
         return jupyterKernelProcessLauncher;
     }
 
+    /**
+     * Kills the kernel process, for a kernel that does not answer a cancel request anymore. The
+     * running calls fail once the process is gone, {@link #close()} still has to be called.
+     */
+    public void kill() {
+        JupyterKernelProcessLauncher launcher = jupyterKernelProcessLauncher;
+        if (launcher != null && launcher.isRunning()) {
+            LOGGER.info("Killing Jupyter Kernel Process");
+            launcher.stop();
+        }
+    }
+
     @Override
     public void close() throws InterpreterException {
         if (jupyterKernelProcessLauncher != null) {
@@ -228,6 +280,8 @@ public class JupyterKernelInterpreter extends AbstractInterpreter {
             jupyterKernelProcessLauncher = null;
             LOGGER.info("Jupyter Kernel is killed");
         }
+        KernelScriptCache.deleteScratchDirectory(kernelWorkDir);
+        kernelWorkDir = null;
     }
 
     @Override
@@ -245,14 +299,14 @@ public class JupyterKernelInterpreter extends AbstractInterpreter {
             interpreterOutput.getInterpreterOutput().flush();
             // It is not known which method is called first (JupyterKernelClient.stream_execute
             // or onProcessFailed) when jupyter kernel process is exited. Because they are in
-            // 2 different threads. So here we would check JupyterKernelClient's status and sleep 1 second
-            // if jupyter kernel is maybe terminated.
+            // 2 different threads. So here we would check JupyterKernelClient's status and wait
+            // for the process exit if jupyter kernel is maybe terminated.
             if (jupyterKernelProcessLauncher.isRunning() && !jupyterKernelClient.isMaybeKernelFailed()) {
                 return new InterpreterResult(
                         InterpreterResult.Code.valueOf(response.getStatus().name()));
             } else {
                 if (jupyterKernelClient.isMaybeKernelFailed()) {
-                    Thread.sleep(1000);
+                    jupyterKernelProcessLauncher.waitForTermination(KERNEL_EXIT_TIMEOUT);
                 }
                 if (jupyterKernelProcessLauncher.isRunning()) {
                     return new InterpreterResult(
@@ -267,6 +321,39 @@ public class JupyterKernelInterpreter extends AbstractInterpreter {
         }
     }
 
+    /**
+     * Executes the cells in order with up to depth of them queued to the kernel, stopping at the
+     * first failed cell, see {@link KernelPipeline}.
+     *
+     * @param cells    the code of each cell
+     * @param depth    the maximum number of cells queued to the kernel
+     * @param text     receives the text outputs while the cells run, may be null
+     * @param data     receives the images while the cells run, null to get them in the outputs
+     * @param listener receives the result of each executed cell
+     * @return true when every cell succeeded
+     * @throws InterpreterException when the cells can not be executed
+     */
+    public boolean interpretPipelined(List<String> cells, int depth, KernelPipeline.TextListener text,
+                                      KernelPipeline.DataListener data, KernelPipeline.CellListener listener)
+            throws InterpreterException {
+        try {
+            return new KernelPipeline(kernelChannel, depth).execute(cells, text, data, (index, code, messages) -> {
+                List<InterpreterResultMessage> result = messages;
+                if (code != InterpreterResult.Code.SUCCESS && !jupyterKernelProcessLauncher.isRunning()) {
+                    result = new ArrayList<>(messages);
+                    result.add(new InterpreterResultMessage(InterpreterResult.Type.TEXT,
+                            "IPython kernel is abnormally exited, please check your code and log."));
+                }
+                listener.onCell(index, code, result);
+            });
+        } catch (IOException e) {
+            throw new InterpreterException("Fail to interpret python code", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterpreterException("Interrupted while interpreting python code", e);
+        }
+    }
+
     @Override
     public void cancel(InterpreterContext context) throws InterpreterException {
         jupyterKernelClient.cancel(CancelRequest.newBuilder().build());
@@ -307,43 +394,112 @@ public class JupyterKernelInterpreter extends AbstractInterpreter {
         return z;
     }
 
-    public class JupyterKernelProcessLauncher extends ProcessLauncher {
+    /**
+     * Hands the channel built by {@link #open()} to JupyterKernelClient, which builds its own otherwise.
+     */
+    private static final class BuiltChannelBuilder extends ForwardingChannelBuilder<BuiltChannelBuilder> {
+
+        private final ManagedChannelBuilder<?> delegate;
+        private final ManagedChannel channel;
+
+        private BuiltChannelBuilder(ManagedChannelBuilder<?> delegate, ManagedChannel channel) {
+            this.delegate = delegate;
+            this.channel = channel;
+        }
+
+        @Override
+        protected ManagedChannelBuilder<?> delegate() {
+            return delegate;
+        }
+
+        @Override
+        public ManagedChannel build() {
+            return channel;
+        }
+    }
+
+    public static class JupyterKernelProcessLauncher extends ProcessLauncher {
+
+        // completed with the address of the ready line, or null when the process exits first
+        private final CompletableFuture<String> ready;
+        private volatile String kernelAddress;
 
         JupyterKernelProcessLauncher(CommandLine commandLine,
                                      Map<String, String> envs,
                                      String workingDirectory) {
-            super(commandLine, envs, workingDirectory);
+            this(commandLine, envs, new KernelLogOutputStream(), workingDirectory);
         }
 
+        private JupyterKernelProcessLauncher(CommandLine commandLine,
+                                             Map<String, String> envs,
+                                             KernelLogOutputStream processLogOutput,
+                                             String workingDirectory) {
+            super(commandLine, envs, processLogOutput, workingDirectory);
+            this.ready = processLogOutput.ready;
+        }
+
+        /**
+         * Waits for the ready line of kernel_server.py. The wait ends as soon as the kernel is
+         * started, the process exits or the timeout elapses, whichever comes first.
+         */
         @Override
         public void waitForReady(int timeout) {
-            // wait until jupyter kernel is started or timeout
-            long startTime = System.currentTimeMillis();
-            while (state == State.LAUNCHED) {
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                    LOGGER.error("Interrupted by something", e);
+            if (state != State.LAUNCHED) {
+                // process failed to launch
+                return;
+            }
+            try {
+                String address = ready.get(timeout, TimeUnit.MILLISECONDS);
+                if (address != null) {
+                    LOGGER.info("Jupyter Kernel is Running");
+                    kernelAddress = address;
+                    onProcessRunning();
                 }
+            } catch (TimeoutException e) {
+                onTimeout();
+            } catch (InterruptedException e) {
+                LOGGER.error("Interrupted by something", e);
+                Thread.currentThread().interrupt();
+                onTimeout();
+            } catch (ExecutionException e) {
+                LOGGER.error("Fail to wait for Jupyter Kernel", e);
+                onTimeout();
+            }
+        }
 
-                try {
-                    StatusResponse response = jupyterKernelClient.status(StatusRequest.newBuilder().build());
-                    if (response.getStatus() == KernelStatus.RUNNING) {
-                        LOGGER.info("Jupyter Kernel is Running");
-                        onProcessRunning();
-                        break;
-                    } else {
-                        LOGGER.info("Wait for Jupyter Kernel to be started");
-                    }
-                } catch (Exception e) {
-                    // ignore the exception, because is may happen when grpc server has not started yet.
-                    LOGGER.info("Wait for Jupyter Kernel to be started");
-                }
+        /**
+         * @return the address reported on the ready line, null until the kernel is running
+         */
+        public String getKernelAddress() {
+            return kernelAddress;
+        }
 
-                if ((System.currentTimeMillis() - startTime) > timeout) {
-                    onTimeout();
-                    break;
-                }
+        @Override
+        public void onProcessComplete(int exitValue) {
+            super.onProcessComplete(exitValue);
+            ready.complete(null);
+        }
+
+        @Override
+        public void onProcessFailed(ExecuteException e) {
+            super.onProcessFailed(e);
+            ready.complete(null);
+        }
+    }
+
+    /**
+     * Completes {@link #ready} when kernel_server.py prints its ready line.
+     */
+    static class KernelLogOutputStream extends ProcessLauncher.ProcessLogOutputStream {
+
+        private final CompletableFuture<String> ready = new CompletableFuture<>();
+
+        @Override
+        protected void processLine(String s, int i) {
+            super.processLine(s, i);
+            String line = s.trim();
+            if (line.startsWith(READY_MARKER)) {
+                ready.complete(line.substring(READY_MARKER.length()).trim());
             }
         }
     }
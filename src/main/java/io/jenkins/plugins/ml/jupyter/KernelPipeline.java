@@ -0,0 +1,400 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Loghi Perinpanayagam.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.jenkins.plugins.ml.jupyter;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientInterceptors;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.MetadataUtils;
+import io.jenkins.plugins.ml.jupyter.proto.ExecuteRequest;
+import io.jenkins.plugins.ml.jupyter.proto.ExecuteResponse;
+import io.jenkins.plugins.ml.jupyter.proto.ExecuteStatus;
+import io.jenkins.plugins.ml.utils.Dumper;
+import org.apache.zeppelin.interpreter.InterpreterOutput;
+import org.apache.zeppelin.interpreter.InterpreterOutputListener;
+import org.apache.zeppelin.interpreter.InterpreterResult;
+import org.apache.zeppelin.interpreter.InterpreterResultMessage;
+import org.apache.zeppelin.interpreter.InterpreterResultMessageOutput;
+import org.apache.zeppelin.interpreter.util.InterpreterOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Executes the cells of a notebook with the next cells already queued to the kernel while the
+ * current one runs, so the round trip between two cells is not paid once per cell.
+ *
+ * Every cell is a call of its own carrying a {@link #PIPELINE_KEY} header, kernel_server.py runs
+ * the calls of a pipeline in sequence and skips every cell queued after a failed one. Results are
+ * collected per cell and handed to the {@link CellListener} in order, on the calling thread. The
+ * text outputs can also be streamed to a {@link TextListener} while the cells run, and the images
+ * to a {@link DataListener}.
+ */
+public final class KernelPipeline {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(KernelPipeline.class);
+    // "<pipeline id>/<sequence>/<count>", read by kernel_server.py
+    static final Metadata.Key<String> PIPELINE_KEY =
+            Metadata.Key.of("jenkins-ml-pipeline", Metadata.ASCII_STRING_MARSHALLER);
+    // asks kernel_server.py for the images as raw bytes instead of base64 text
+    static final Metadata.Key<String> RAW_DATA_KEY =
+            Metadata.Key.of("jenkins-ml-raw-data", Metadata.ASCII_STRING_MARSHALLER);
+    // tells kernel_server.py that SVG outputs are handled, it sends them as HTML otherwise
+    static final Metadata.Key<String> SVG_KEY =
+            Metadata.Key.of("jenkins-ml-svg", Metadata.ASCII_STRING_MARSHALLER);
+    // the service of kernel.proto, served by kernel_server.py
+    static final String SERVICE_NAME = "jupyter.JupyterKernel";
+    // execute with the messages of the kernel.proto of the plugin, the ones of zeppelin drop the images
+    static final MethodDescriptor<ExecuteRequest, ExecuteResponse> EXECUTE_METHOD =
+            MethodDescriptor.<ExecuteRequest, ExecuteResponse>newBuilder()
+                    .setType(MethodDescriptor.MethodType.SERVER_STREAMING)
+                    .setFullMethodName(MethodDescriptor.generateFullMethodName(SERVICE_NAME, "execute"))
+                    .setRequestMarshaller(new MessageMarshaller<>(ExecuteRequest.parser()))
+                    .setResponseMarshaller(new MessageMarshaller<>(ExecuteResponse.parser()))
+                    .build();
+
+    private final Channel channel;
+    private final int depth;
+
+    /**
+     * @param channel the channel to the kernel server
+     * @param depth   the maximum number of cells sent to the kernel and not completed yet
+     */
+    public KernelPipeline(Channel channel, int depth) {
+        this.channel = channel;
+        this.depth = Math.max(1, depth);
+    }
+
+    /**
+     * Receives the result of each cell.
+     */
+    public interface CellListener {
+
+        /**
+         * @param index    the index of the cell
+         * @param code     the status of the cell
+         * @param messages the outputs of the cell
+         * @throws IOException          when the outputs can not be handled
+         * @throws InterruptedException when interrupted, the remaining cells are cancelled
+         */
+        void onCell(int index, InterpreterResult.Code code, List<InterpreterResultMessage> messages)
+                throws IOException, InterruptedException;
+    }
+
+    /**
+     * Receives the text outputs of the cells as soon as the kernel sends them, on a grpc thread.
+     */
+    public interface TextListener {
+
+        /**
+         * @param index the index of the cell
+         * @param text  the output, encoded in UTF-8
+         */
+        void onText(int index, byte[] text);
+    }
+
+    /**
+     * Receives the images of the cells as raw bytes as soon as the kernel sends them, on a grpc
+     * thread. They are missing from the {@link InterpreterResultMessage}s of the cell.
+     */
+    public interface DataListener {
+
+        /**
+         * @param index    the index of the cell
+         * @param mimeType the type of the image, like image/png, null when the kernel did not send it
+         * @param data     the image
+         */
+        void onData(int index, @Nullable String mimeType, byte[] data);
+    }
+
+    /**
+     * Creates the output of a cell. Text outputs are handed to the listener and dropped, so they are
+     * missing from the {@link InterpreterResultMessage}s of the cell and not kept in memory.
+     *
+     * @param index    the index of the cell
+     * @param listener receives the text outputs, null to keep them in the output
+     * @return the output of the cell
+     */
+    public static InterpreterOutput newOutput(int index, @Nullable TextListener listener) {
+        if (listener == null) {
+            return new InterpreterOutput(null);
+        }
+        return new InterpreterOutput(new InterpreterOutputListener() {
+            @Override
+            public void onUpdateAll(InterpreterOutput out) {
+            }
+
+            @Override
+            public void onAppend(int message, InterpreterResultMessageOutput out, byte[] line) {
+                if (out.getType() == InterpreterResult.Type.TEXT) {
+                    listener.onText(index, line);
+                    out.clear();
+                }
+            }
+
+            @Override
+            public void onUpdate(int message, InterpreterResultMessageOutput out) {
+            }
+        });
+    }
+
+    /**
+     * Executes the cells, stopping at the first failed one.
+     *
+     * @param cells    the code of each cell
+     * @param listener receives the result of each executed cell
+     * @return true when every cell succeeded
+     * @throws IOException          when the listener fails
+     * @throws InterruptedException when interrupted while waiting for a cell
+     */
+    public boolean execute(List<String> cells, CellListener listener) throws IOException, InterruptedException {
+        return execute(cells, null, listener);
+    }
+
+    /**
+     * Executes the cells, stopping at the first failed one.
+     *
+     * @param cells    the code of each cell
+     * @param text     receives the text outputs while the cells run, may be null
+     * @param listener receives the result of each executed cell
+     * @return true when every cell succeeded
+     * @throws IOException          when the listener fails
+     * @throws InterruptedException when interrupted while waiting for a cell
+     */
+    public boolean execute(List<String> cells, @Nullable TextListener text, CellListener listener)
+            throws IOException, InterruptedException {
+        return execute(cells, text, null, listener);
+    }
+
+    /**
+     * Executes the cells, stopping at the first failed one.
+     *
+     * @param cells    the code of each cell
+     * @param text     receives the text outputs while the cells run, may be null
+     * @param data     receives the images while the cells run, null to get them in base64 in the outputs
+     * @param listener receives the result of each executed cell
+     * @return true when every cell succeeded
+     * @throws IOException          when the listener fails
+     * @throws InterruptedException when interrupted while waiting for a cell
+     */
+    public boolean execute(List<String> cells, @Nullable TextListener text, @Nullable DataListener data,
+                           CellListener listener) throws IOException, InterruptedException {
+        String pipeline = UUID.randomUUID().toString();
+        Deque<CellCall> inFlight = new ArrayDeque<>();
+        int sent = 0;
+        try {
+            for (int i = 0; i < cells.size(); i++) {
+                while (sent < cells.size() && inFlight.size() < depth) {
+                    inFlight.add(send(pipeline, sent, cells, text, data));
+                    sent++;
+                }
+                CellCall call = inFlight.remove();
+                InterpreterResult.Code code = call.await();
+                listener.onCell(i, code, call.output.toInterpreterResultMessage());
+                if (code != InterpreterResult.Code.SUCCESS) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            // the kernel skips these anyway once a cell failed, do not leave the calls open
+            for (CellCall call : inFlight) {
+                call.cancel();
+            }
+        }
+    }
+
+    private CellCall send(String pipeline, int index, List<String> cells, TextListener text, DataListener data) {
+        Metadata headers = new Metadata();
+        headers.put(PIPELINE_KEY, pipeline + "/" + index + "/" + cells.size());
+        headers.put(SVG_KEY, "true");
+        if (data != null) {
+            headers.put(RAW_DATA_KEY, "true");
+        }
+        CellCall call = new CellCall(index, newOutput(index, text), data);
+        ClientCalls.asyncServerStreamingCall(
+                ClientInterceptors.intercept(channel, MetadataUtils.newAttachHeadersInterceptor(headers))
+                        .newCall(EXECUTE_METHOD, CallOptions.DEFAULT),
+                ExecuteRequest.newBuilder().setCode(cells.get(index)).build(), call);
+        return call;
+    }
+
+    /**
+     * Writes and reads the messages of kernel.proto.
+     */
+    private static final class MessageMarshaller<T extends MessageLite> implements MethodDescriptor.Marshaller<T> {
+
+        private final Parser<T> parser;
+
+        private MessageMarshaller(Parser<T> parser) {
+            this.parser = parser;
+        }
+
+        @Override
+        public InputStream stream(T value) {
+            return value.toByteString().newInput();
+        }
+
+        @Override
+        public T parse(InputStream stream) {
+            try {
+                CodedInputStream input = CodedInputStream.newInstance(stream);
+                // the size is already limited by the inbound message size of grpc
+                input.setSizeLimit(Integer.MAX_VALUE);
+                return parser.parseFrom(input);
+            } catch (InvalidProtocolBufferException e) {
+                throw new IllegalArgumentException("Invalid kernel message", e);
+            }
+        }
+    }
+
+    /**
+     * Outputs of one cell, translated like JupyterKernelClient#stream_execute does.
+     */
+    private static final class CellCall implements ClientResponseObserver<ExecuteRequest, ExecuteResponse> {
+
+        private final int index;
+        private final InterpreterOutput output;
+        private final DataListener data;
+        private final InterpreterOutputStream stream = new InterpreterOutputStream(LOGGER);
+        private final CompletableFuture<InterpreterResult.Code> done = new CompletableFuture<>();
+        private volatile ClientCallStreamObserver<ExecuteRequest> requestStream;
+        private ExecuteStatus status = ExecuteStatus.SUCCESS;
+
+        private CellCall(int index, InterpreterOutput output, DataListener data) {
+            this.index = index;
+            this.output = output;
+            this.data = data;
+            stream.setInterpreterOutput(output);
+        }
+
+        @Override
+        public void beforeStart(ClientCallStreamObserver<ExecuteRequest> requestStream) {
+            this.requestStream = requestStream;
+        }
+
+        @Override
+        public void onNext(ExecuteResponse response) {
+            if (response.getStatus() == ExecuteStatus.ERROR) {
+                status = ExecuteStatus.ERROR;
+            }
+            if (!response.getData().isEmpty() && data != null) {
+                String mimeType = response.getMimeType();
+                data.onData(index, mimeType.isEmpty() ? null : mimeType, response.getData().toByteArray());
+                return;
+            }
+            try {
+                switch (response.getType()) {
+                    case TEXT:
+                        String text = response.getOutput();
+                        if (!text.startsWith("%")) {
+                            if (output.getCurrentOutput() != null
+                                    && output.getCurrentOutput().getType() != InterpreterResult.Type.HTML
+                                    && output.getCurrentOutput().getType() != InterpreterResult.Type.TEXT) {
+                                write("%text ");
+                            }
+                            if (text.contains("<script type=\"text/javascript\">")) {
+                                write("\n%html ");
+                            }
+                        }
+                        write(text);
+                        break;
+                    case PNG:
+                    case JPEG:
+                        // %img has no type, the image output carries it when the kernel sent it
+                        String mimeType = response.getMimeType();
+                        write("\n%img " + Dumper.imageData(response.getOutput(), mimeType.isEmpty() ? null : mimeType));
+                        break;
+                    case HTML:
+                        write("\n%html " + response.getOutput());
+                        break;
+                    case SVG:
+                        write("\n%svg " + response.getOutput());
+                        break;
+                    case CLEAR:
+                        output.clear();
+                        break;
+                    default:
+                        LOGGER.error("Unrecognized type: " + response.getType());
+                }
+            } catch (IOException e) {
+                LOGGER.error("Unexpected IOException", e);
+            }
+        }
+
+        private void write(String text) throws IOException {
+            stream.write(text.getBytes(StandardCharsets.UTF_8));
+            output.flush();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            try {
+                write("\n%text Fail to execute cell: " + t.getMessage());
+            } catch (IOException e) {
+                LOGGER.error("Unexpected IOException", e);
+            }
+            done.complete(InterpreterResult.Code.ERROR);
+        }
+
+        @Override
+        public void onCompleted() {
+            done.complete(InterpreterResult.Code.valueOf(status.name()));
+        }
+
+        private InterpreterResult.Code await() throws IOException, InterruptedException {
+            try {
+                return done.get();
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+
+        private void cancel() {
+            if (requestStream != null && !done.isDone()) {
+                requestStream.cancel("pipeline stopped", null);
+            }
+        }
+    }
+}
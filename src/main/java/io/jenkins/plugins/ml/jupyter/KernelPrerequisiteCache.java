@@ -0,0 +1,236 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Loghi Perinpanayagam.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.jenkins.plugins.ml.jupyter;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per agent cache of kernel prerequisite checks.
+ *
+ * A python environment is identified by its executable, the modification time of the real
+ * interpreter binary and the modification times of the directories on its sys.path. Installing
+ * or removing a package changes the site-packages directory, so the environment is probed again
+ * only after such a change. The probe itself looks the modules up with importlib instead of
+ * listing every installed distribution with pip freeze.
+ */
+public final class KernelPrerequisiteCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(KernelPrerequisiteCache.class);
+    private static final Map<Key, Environment> CACHE = new ConcurrentHashMap<>();
+
+    private static final String MISSING_PREFIX = "missing=";
+    private static final String PATH_PREFIX = "path=";
+    private static final String PROBE = "import os, sys\n"
+            + "try:\n"
+            + "    from importlib.util import find_spec\n"
+            + "except ImportError:\n"
+            + "    find_spec = None\n"
+            + "missing = []\n"
+            + "for name in sys.argv[1:]:\n"
+            + "    try:\n"
+            + "        if find_spec is None:\n"
+            + "            __import__(name)\n"
+            + "        elif find_spec(name) is None:\n"
+            + "            missing.append(name)\n"
+            + "    except Exception:\n"
+            + "        missing.append(name)\n"
+            + "print('" + MISSING_PREFIX + "' + ','.join(missing))\n"
+            + "for p in sys.path:\n"
+            + "    if p and os.path.isdir(p):\n"
+            + "        print('" + PATH_PREFIX + "' + os.path.abspath(p))\n";
+
+    private KernelPrerequisiteCache() {
+    }
+
+    /**
+     * Checks that the given modules can be imported by the python executable.
+     *
+     * @param pythonExec the python executable
+     * @param modules    the importable module names
+     * @return empty value when the prerequisite is met, otherwise the reason
+     */
+    public static String check(String pythonExec, List<String> modules) {
+        Key key = Key.of(pythonExec, modules);
+        if (key != null) {
+            Environment environment = CACHE.get(key);
+            if (environment != null && environment.fingerprint.equals(fingerprint(environment.paths))) {
+                LOGGER.debug("Kernel prerequisite of " + pythonExec + " is cached");
+                return "";
+            }
+        }
+        List<String> paths = new ArrayList<>();
+        String result = probe(pythonExec, modules, paths);
+        if (result.isEmpty() && key != null) {
+            CACHE.put(key, new Environment(paths));
+        }
+        return result;
+    }
+
+    private static String probe(String pythonExec, List<String> modules, List<String> paths) {
+        List<String> command = new ArrayList<>();
+        command.add(pythonExec);
+        command.add("-c");
+        command.add(PROBE);
+        command.addAll(modules);
+        try {
+            Process proc = new ProcessBuilder(command).redirectErrorStream(true).start();
+            proc.getOutputStream().close();
+            String output;
+            try (InputStream in = proc.getInputStream()) {
+                output = IOUtils.toString(in, StandardCharsets.UTF_8);
+            }
+            int ret = proc.waitFor();
+            String missing = null;
+            for (String line : output.split("\\r?\\n")) {
+                if (line.startsWith(MISSING_PREFIX)) {
+                    missing = line.substring(MISSING_PREFIX.length());
+                } else if (line.startsWith(PATH_PREFIX)) {
+                    paths.add(line.substring(PATH_PREFIX.length()));
+                }
+            }
+            if (ret != 0 || missing == null) {
+                return "Fail to probe python modules.\n" + output;
+            }
+            if (!missing.isEmpty()) {
+                return missing.replace(",", ", ") + " is not installed.";
+            }
+            LOGGER.info("Prerequisite for " + pythonExec + " is met");
+            return "";
+        } catch (IOException | InterruptedException e) {
+            LOGGER.warn("Fail to checkKernelPrerequisite", e);
+            return "Fail to checkKernelPrerequisite: " + ExceptionUtils.getStackTrace(e);
+        }
+    }
+
+    private static String fingerprint(List<String> paths) {
+        StringBuilder fingerprint = new StringBuilder();
+        for (String path : paths) {
+            fingerprint.append(path).append('@').append(new File(path).lastModified()).append(';');
+        }
+        return fingerprint.toString();
+    }
+
+    /**
+     * Finds the executable the way the operating system would, null when it is not found.
+     */
+    static File resolveExecutable(String pythonExec) {
+        File file = new File(pythonExec);
+        if (file.isAbsolute() || pythonExec.contains(File.separator) || pythonExec.contains("/")) {
+            return file.isFile() ? file.getAbsoluteFile() : null;
+        }
+        String path = System.getenv("PATH");
+        if (path == null) {
+            return null;
+        }
+        List<String> extensions = new ArrayList<>();
+        extensions.add("");
+        String pathExt = System.getenv("PATHEXT");
+        if (pathExt != null) {
+            Collections.addAll(extensions, pathExt.toLowerCase().split(File.pathSeparator));
+        }
+        for (String dir : path.split(File.pathSeparator)) {
+            for (String extension : extensions) {
+                File candidate = new File(dir, pythonExec + extension);
+                if (candidate.isFile() && candidate.canExecute()) {
+                    return candidate.getAbsoluteFile();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static final class Environment {
+        private final List<String> paths;
+        private final String fingerprint;
+
+        private Environment(List<String> paths) {
+            this.paths = paths;
+            this.fingerprint = fingerprint(paths);
+        }
+    }
+
+    private static final class Key {
+        // the executable is kept next to the real path because virtualenvs symlink a shared interpreter
+        private final String executable;
+        private final String realPath;
+        private final long lastModified;
+        private final List<String> modules;
+
+        private Key(String executable, String realPath, long lastModified, List<String> modules) {
+            this.executable = executable;
+            this.realPath = realPath;
+            this.lastModified = lastModified;
+            this.modules = modules;
+        }
+
+        static Key of(String pythonExec, List<String> modules) {
+            File executable = resolveExecutable(pythonExec);
+            if (executable == null) {
+                return null;
+            }
+            try {
+                File real = executable.toPath().toRealPath().toFile();
+                return new Key(executable.getPath(), real.getPath(), real.lastModified(), new ArrayList<>(modules));
+            } catch (IOException e) {
+                LOGGER.debug("Can not resolve " + executable, e);
+                return null;
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return lastModified == key.lastModified &&
+                    executable.equals(key.executable) &&
+                    realPath.equals(key.realPath) &&
+                    modules.equals(key.modules);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(executable, realPath, lastModified, modules);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Loghi Perinpanayagam.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.jenkins.plugins.ml.jupyter;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Extracts the python scripts of the kernel server once per content digest and keeps track of
+ * the scratch directory of every launched kernel.
+ *
+ * The scripts directory is shared by all kernels of the agent, so python also reuses the
+ * bytecode it writes to __pycache__ there. Scratch directories are removed when their kernel
+ * is closed, or at the latest when the agent JVM exits. Each one holds a lock file locked by its
+ * JVM for as long as the directory is in use, so directories left behind by a JVM that died are
+ * recognised by the lock being free.
+ */
+public final class KernelScriptCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(KernelScriptCache.class);
+    private static final String SCRIPTS_PREFIX = "jenkins_ml_kernel_scripts_";
+    private static final String SCRATCH_PREFIX = "zeppelin_jupyter_kernel_";
+    static final String OWNER_LOCK = ".owner.lock";
+
+    // the channel holds the owner lock of the directory until it is closed
+    private static final Map<File, FileChannel> SCRATCH_DIRECTORIES = new ConcurrentHashMap<>();
+    private static File scriptDirectory;
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() ->
+                SCRATCH_DIRECTORIES.forEach(KernelScriptCache::release), "KernelScriptCache cleanup"));
+    }
+
+    private KernelScriptCache() {
+    }
+
+    /**
+     * Gets the directory holding kernel_server.py, the fork server, the notebook runner and the grpc stubs,
+     * extracting them on the first call.
+     *
+     * @return the scripts directory
+     * @throws IOException when the scripts can not be extracted
+     */
+    public static synchronized File getScriptDirectory() throws IOException {
+        if (scriptDirectory != null && scriptDirectory.isDirectory()) {
+            return scriptDirectory;
+        }
+        Map<String, byte[]> scripts = readScripts();
+        Path tmp = Paths.get(System.getProperty("java.io.tmpdir"));
+        Path target = tmp.resolve(SCRIPTS_PREFIX + System.getProperty("user.name") + "_" + digest(scripts));
+        if (!isValid(target, scripts)) {
+            FileUtils.deleteQuietly(target.toFile());
+            Path staging = Files.createTempDirectory(tmp, SCRIPTS_PREFIX);
+            for (Map.Entry<String, byte[]> script : scripts.entrySet()) {
+                Files.write(staging.resolve(script.getKey()), script.getValue());
+            }
+            try {
+                Files.move(staging, target, StandardCopyOption.ATOMIC_MOVE);
+                LOGGER.info("Extracted kernel scripts to " + target);
+            } catch (FileAlreadyExistsException e) {
+                // another JVM on this machine extracted the same scripts first
+                FileUtils.deleteQuietly(staging.toFile());
+                if (!isValid(target, scripts)) {
+                    throw new IOException("Kernel scripts in " + target + " do not match the plugin");
+                }
+            }
+        }
+        sweepLeakedDirectories(tmp.toFile());
+        scriptDirectory = target.toFile();
+        return scriptDirectory;
+    }
+
+    /**
+     * Creates a scratch directory for one kernel.
+     *
+     * @param kernel the kernel name
+     * @return the scratch directory
+     * @throws IOException when the directory can not be created
+     */
+    public static File createScratchDirectory(String kernel) throws IOException {
+        File directory = Files.createTempDirectory(SCRATCH_PREFIX + kernel).toFile();
+        FileChannel owner = null;
+        try {
+            owner = FileChannel.open(new File(directory, OWNER_LOCK).toPath(),
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            owner.lock();
+        } catch (IOException e) {
+            IOUtils.closeQuietly(owner);
+            FileUtils.deleteQuietly(directory);
+            throw e;
+        }
+        SCRATCH_DIRECTORIES.put(directory, owner);
+        return directory;
+    }
+
+    /**
+     * Removes a scratch directory created by {@link #createScratchDirectory(String)}.
+     *
+     * @param directory the scratch directory, may be null
+     */
+    public static void deleteScratchDirectory(File directory) {
+        FileChannel owner = directory == null ? null : SCRATCH_DIRECTORIES.remove(directory);
+        if (owner != null) {
+            release(directory, owner);
+        }
+    }
+
+    private static void release(File directory, FileChannel owner) {
+        // the lock must be released first, a locked file can not be deleted on windows
+        IOUtils.closeQuietly(owner);
+        FileUtils.deleteQuietly(directory);
+    }
+
+    private static Map<String, byte[]> readScripts() throws IOException {
+        Map<String, byte[]> scripts = new LinkedHashMap<>();
+        // the scripts are bundled with this plugin, kernel_pb2.py is generated from its kernel.proto
+        for (String script : new String[]{"kernel_server.py", "kernel_zygote.py", "zygote_client.py",
+                "notebook_runner.py", "kernel_pb2.py"}) {
+            scripts.put(script, read(KernelScriptCache.class.getResource(script)));
+        }
+        // the service stub of zeppelin only refers to the messages by name
+        scripts.put("kernel_pb2_grpc.py",
+                read(KernelScriptCache.class.getClassLoader().getResource("grpc/jupyter/kernel_pb2_grpc.py")));
+        return scripts;
+    }
+
+    private static byte[] read(URL url) throws IOException {
+        if (url == null) {
+            throw new IOException("Kernel script is missing from the plugin");
+        }
+        try (InputStream in = url.openStream()) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+
+    private static String digest(Map<String, byte[]> scripts) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (Map.Entry<String, byte[]> script : scripts.entrySet()) {
+                digest.update(script.getKey().getBytes(StandardCharsets.UTF_8));
+                digest.update(script.getValue());
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : Arrays.copyOf(digest.digest(), 8)) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * The directory name is predictable, so reuse it only when this user owns it and every
+     * script has the expected content.
+     */
+    private static boolean isValid(Path directory, Map<String, byte[]> scripts) throws IOException {
+        if (!Files.isDirectory(directory) || !isOwnedByCurrentUser(directory)) {
+            return false;
+        }
+        for (Map.Entry<String, byte[]> script : scripts.entrySet()) {
+            Path file = directory.resolve(script.getKey());
+            if (!Files.isRegularFile(file) || !Arrays.equals(Files.readAllBytes(file), script.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isOwnedByCurrentUser(Path path) {
+        try {
+            UserPrincipal user = path.getFileSystem().getUserPrincipalLookupService()
+                    .lookupPrincipalByName(System.getProperty("user.name"));
+            return user.equals(Files.getOwner(path));
+        } catch (IOException | UnsupportedOperationException e) {
+            LOGGER.debug("Can not check owner of " + path, e);
+            return false;
+        }
+    }
+
+    private static void sweepLeakedDirectories(File tmp) {
+        File[] leaked = tmp.listFiles((dir, name) -> name.startsWith(SCRATCH_PREFIX));
+        if (leaked == null) {
+            return;
+        }
+        for (File directory : leaked) {
+            if (directory.isDirectory() && !SCRATCH_DIRECTORIES.containsKey(directory) && isOwnerGone(directory)) {
+                LOGGER.debug("Removing leaked kernel directory " + directory);
+                FileUtils.deleteQuietly(directory);
+            }
+        }
+    }
+
+    /**
+     * The owner is gone only when the lock file exists and nobody holds its lock. Directories
+     * without a lock file are still being created, or belong to an older plugin version, and are kept.
+     */
+    static boolean isOwnerGone(File directory) {
+        File marker = new File(directory, OWNER_LOCK);
+        if (!marker.isFile()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(marker.toPath(), StandardOpenOption.WRITE);
+             FileLock lock = channel.tryLock()) {
+            return lock != null;
+        } catch (IOException | OverlappingFileLockException e) {
+            LOGGER.debug("Can not check owner of " + directory, e);
+            return false;
+        }
+    }
+}
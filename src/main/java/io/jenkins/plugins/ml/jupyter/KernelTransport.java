@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Loghi Perinpanayagam.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package io.jenkins.plugins.ml.jupyter;
+
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.netty.NettyChannelBuilder;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDomainSocketChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.unix.DomainSocketAddress;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.io.File;
+
+/**
+ * Transports between the JVM and kernel_server.py.
+ *
+ * A kernel server address is either a loopback TCP port or a unix domain socket prefixed with
+ * {@link #UNIX_PREFIX}. The kernel server binds the address itself and reports the bound one,
+ * so no port is reserved up front. Unix domain sockets need the epoll transport of netty, which
+ * is only available on Linux.
+ */
+public final class KernelTransport {
+
+    public static final String UNIX_PREFIX = "unix:";
+    // the port is chosen by the kernel server when it binds
+    public static final String ANY_PORT = "0";
+    // sun_path of struct sockaddr_un is 108 bytes on Linux
+    private static final int MAX_SOCKET_PATH = 107;
+
+    private static EventLoopGroup domainSocketGroup;
+
+    private KernelTransport() {
+    }
+
+    /**
+     * @return true when kernels can be reached over unix domain sockets
+     */
+    public static boolean isDomainSocketSupported() {
+        try {
+            return Epoll.isAvailable();
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Gets the address a kernel server should bind.
+     *
+     * @param domainSocket true to prefer a unix domain socket
+     * @param directory    private directory of the kernel holding the socket
+     * @return the address to pass to kernel_server.py
+     */
+    public static String bindAddress(boolean domainSocket, File directory) {
+        if (domainSocket && isDomainSocketSupported()) {
+            String path = new File(directory, "kernel.sock").getAbsolutePath();
+            if (path.length() <= MAX_SOCKET_PATH) {
+                return UNIX_PREFIX + path;
+            }
+        }
+        return ANY_PORT;
+    }
+
+    /**
+     * Creates the channel builder for the address reported by a kernel server.
+     *
+     * @param address the bound address
+     * @return the channel builder
+     */
+    public static ManagedChannelBuilder<?> forAddress(String address) {
+        if (address.startsWith(UNIX_PREFIX)) {
+            return NettyChannelBuilder
+                    .forAddress(new DomainSocketAddress(address.substring(UNIX_PREFIX.length())))
+                    .eventLoopGroup(getDomainSocketGroup())
+                    .channelType(EpollDomainSocketChannel.class)
+                    .usePlaintext();
+        }
+        return ManagedChannelBuilder
+                .forAddress("127.0.0.1", Integer.parseInt(address))
+                .usePlaintext();
+    }
+
+    private static synchronized EventLoopGroup getDomainSocketGroup() {
+        if (domainSocketGroup == null) {
+            // shared by every kernel of the agent, the threads must not keep the JVM alive
+            domainSocketGroup = new EpollEventLoopGroup(0, new DefaultThreadFactory("kernel-domain-socket", true));
+        }
+        return domainSocketGroup;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Loghi Perinpanayagam.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.jenkins.plugins.ml.jupyter;
+
+import org.apache.commons.exec.CommandLine;
+import org.apache.commons.exec.environment.EnvironmentUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Fork server of IPython kernels, at most one per python executable and preloaded modules on this agent.
+ *
+ * kernel_zygote.py imports the kernel server and the preloaded modules once and forks a fresh
+ * kernel for every launch, so each kernel is isolated but starts with those modules already
+ * imported. Forking needs a POSIX platform, see {@link #isSupported()}, and only IPython kernels
+ * can be forked, see {@link #canFork(String)}.
+ */
+public final class KernelZygote {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(KernelZygote.class);
+    private static final String SOCKET_NAME = "zygote.sock";
+    // importing the preloaded modules may take longer than launching a kernel
+    private static final int PRELOAD_TIMEOUT = 120000;
+    // kernelspecs of ipykernel, the only kernel the fork server starts
+    private static final Pattern IPYTHON_KERNEL = Pattern.compile("python[23]?");
+    private static final Map<String, KernelZygote> ZYGOTES = new HashMap<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(KernelZygote::stopAll, "KernelZygote shutdown"));
+    }
+
+    private final List<String> modules;
+    private final File directory;
+    private final JupyterKernelInterpreter.JupyterKernelProcessLauncher launcher;
+
+    private KernelZygote(List<String> modules, File directory,
+                         JupyterKernelInterpreter.JupyterKernelProcessLauncher launcher) {
+        this.modules = modules;
+        this.directory = directory;
+        this.launcher = launcher;
+    }
+
+    /**
+     * @return true when kernels can be forked on this platform
+     */
+    public static boolean isSupported() {
+        return !System.getProperty("os.name").toLowerCase().startsWith("windows");
+    }
+
+    /**
+     * @param kernel the kernelspec name
+     * @return true when the fork server can start the kernel
+     */
+    public static boolean canFork(String kernel) {
+        return kernel != null && IPYTHON_KERNEL.matcher(kernel).matches();
+    }
+
+    /**
+     * Gets the running fork server of the python executable preloading the modules, launching it
+     * when there is none. Jobs preloading different modules get different fork servers.
+     *
+     * @param pythonExecutable the python executable
+     * @param modules          the modules to preload
+     * @param timeout          the kernel launch timeout in milliseconds
+     * @return the fork server
+     * @throws IOException when the fork server can not be launched
+     */
+    public static synchronized KernelZygote get(String pythonExecutable, List<String> modules, int timeout)
+            throws IOException {
+        String key = pythonExecutable + " " + modules;
+        KernelZygote zygote = ZYGOTES.get(key);
+        if (zygote != null && zygote.launcher.isRunning()) {
+            return zygote;
+        }
+        if (zygote != null) {
+            // kernels already forked keep running, they do not depend on the fork server
+            zygote.stop();
+            ZYGOTES.remove(key);
+        }
+        zygote = launch(pythonExecutable, new ArrayList<>(modules), Math.max(timeout, PRELOAD_TIMEOUT));
+        ZYGOTES.put(key, zygote);
+        return zygote;
+    }
+
+    private static KernelZygote launch(String pythonExecutable, List<String> modules, int timeout)
+            throws IOException {
+        LOGGER.info("Launching fork server of " + pythonExecutable + " preloading " + modules);
+        File directory = KernelScriptCache.createScratchDirectory("zygote");
+        CommandLine cmd = CommandLine.parse(pythonExecutable);
+        cmd.addArgument(new File(KernelScriptCache.getScriptDirectory(), "kernel_zygote.py").getAbsolutePath());
+        cmd.addArgument(new File(directory, SOCKET_NAME).getAbsolutePath());
+        for (String module : modules) {
+            cmd.addArgument(module);
+        }
+        JupyterKernelInterpreter.JupyterKernelProcessLauncher launcher =
+                new JupyterKernelInterpreter.JupyterKernelProcessLauncher(
+                        cmd, EnvironmentUtils.getProcEnvironment(), directory.getAbsolutePath());
+        launcher.launch();
+        launcher.waitForReady(timeout);
+        if (!launcher.isRunning()) {
+            launcher.stop();
+            KernelScriptCache.deleteScratchDirectory(directory);
+            throw new IOException("Fail to launch the fork server.\n" + launcher.getErrorMessage());
+        }
+        launcher.stopCatchLaunchOutput();
+        return new KernelZygote(modules, directory, launcher);
+    }
+
+    /**
+     * @return the unix socket the fork server listens on
+     */
+    public File getSocket() {
+        return new File(directory, SOCKET_NAME);
+    }
+
+    private void stop() {
+        launcher.stop();
+        KernelScriptCache.deleteScratchDirectory(directory);
+    }
+
+    private static synchronized void stopAll() {
+        ZYGOTES.values().forEach(KernelZygote::stop);
+        ZYGOTES.clear();
+    }
+}
@@ -31,24 +31,32 @@ import hudson.model.Descriptor;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 
 import javax.annotation.Nonnull;
+import java.io.Serializable;
 
-public class ParsableFile extends AbstractDescribableImpl<ParsableFile> {
+public class ParsableFile extends AbstractDescribableImpl<ParsableFile> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     enum SourceCodeConvertType{
         // Type of source code to be handled by IPython builder
         JSON,
         PY,
-        NONE
+        NONE,
+        // hard link the file instead of copying it
+        LINK,
+        // the notebook without outputs
+        STRIPPED
     }
 
     private final String fileName;
     private final boolean deleteFilesAfterBuild;
     private final String convertType;
     private final String saveConverted;
-
+    private boolean stripMetadata;
 
     @DataBoundConstructor
     public ParsableFile(String fileName, boolean deleteFilesAfterBuild, String convertType, String saveConverted) {
@@ -83,6 +91,20 @@ public class ParsableFile extends AbstractDescribableImpl<ParsableFile> {
         return saveConverted;
     }
 
+    public boolean isStripMetadata() {
+        return stripMetadata;
+    }
+
+    /**
+     * Sets whether a notebook without outputs also drops the metadata, but the kernel and the cell tags.
+     *
+     * @param stripMetadata true to strip the metadata
+     */
+    @DataBoundSetter
+    public void setStripMetadata(boolean stripMetadata) {
+        this.stripMetadata = stripMetadata;
+    }
+
     @Extension
     public static class DescriptorImpl extends Descriptor<ParsableFile> {
         @Nonnull
@@ -96,8 +118,10 @@ public class ParsableFile extends AbstractDescribableImpl<ParsableFile> {
             ListBoxModel model = new ListBoxModel();
 
             model.add(createOption("None", SourceCodeConvertType.NONE, convertType));
+            model.add(createOption("Link", SourceCodeConvertType.LINK, convertType));
             model.add(createOption("JSON", SourceCodeConvertType.JSON, convertType));
             model.add(createOption("Python", SourceCodeConvertType.PY, convertType));
+            model.add(createOption("Notebook without outputs", SourceCodeConvertType.STRIPPED, convertType));
 
             return model;
         }
@@ -0,0 +1,87 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Loghi Perinpanayagam.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.jenkins.plugins.ml.model;
+
+/**
+ * The result of one parameter combination of a sweep.
+ */
+public class SweepResult {
+
+    private final String parameters;
+    private final String task;
+    private final String node;
+    private final String result;
+
+    /**
+     * Instantiates a new Sweep result.
+     *
+     * @param parameters the parameters of the combination
+     * @param task       the task folder holding its images and html
+     * @param node       the node it was executed on
+     * @param result     the result
+     */
+    public SweepResult(String parameters, String task, String node, String result) {
+        this.parameters = parameters;
+        this.task = task;
+        this.node = node;
+        this.result = result;
+    }
+
+    /**
+     * Gets parameters.
+     *
+     * @return the parameters
+     */
+    public String getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Gets task.
+     *
+     * @return the task
+     */
+    public String getTask() {
+        return task;
+    }
+
+    /**
+     * Gets node.
+     *
+     * @return the node
+     */
+    public String getNode() {
+        return node;
+    }
+
+    /**
+     * Gets result.
+     *
+     * @return the result
+     */
+    public String getResult() {
+        return result;
+    }
+}
@@ -27,6 +27,8 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Abstract class for launching java process.
@@ -46,6 +48,7 @@ public abstract class ProcessLauncher implements ExecuteResultHandler {
     private ExecuteWatchdog watchdog;
     private ProcessLogOutputStream processOutput;
     private boolean launchTimeout = false;
+    private final CountDownLatch terminated = new CountDownLatch(1);
 
     public ProcessLauncher(CommandLine commandLine,
                            Map<String, String> envs,
@@ -96,6 +99,7 @@ public abstract class ProcessLauncher implements ExecuteResultHandler {
             LOGGER.error("Fail to launch process: " + commandLine, e);
             transition(State.TERMINATED);
             errorMessage = e.getMessage();
+            terminated.countDown();
         }
     }
 
@@ -124,6 +128,7 @@ public abstract class ProcessLauncher implements ExecuteResultHandler {
         } else {
             transition(State.TERMINATED);
         }
+        terminated.countDown();
     }
 
     @Override
@@ -131,6 +136,18 @@ public abstract class ProcessLauncher implements ExecuteResultHandler {
         LOGGER.warn("Process is failed due to " + e);
         errorMessage = ExceptionUtils.getStackTrace(e);
         transition(State.TERMINATED);
+        terminated.countDown();
+    }
+
+    /**
+     * Waits until the process has exited.
+     *
+     * @param timeout maximum time to wait in milliseconds
+     * @return true if the process exited within the timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean waitForTermination(long timeout) throws InterruptedException {
+        return terminated.await(timeout, TimeUnit.MILLISECONDS);
     }
 
     public String getErrorMessage() {
@@ -0,0 +1,275 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Loghi Perinpanayagam.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.jenkins.plugins.ml.utils;
+
+import hudson.FilePath;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Content addressed store of the images and html written by the builds of an agent.
+ *
+ * Each distinct content is kept once as a blob named by its SHA-256 digest, and task folders get
+ * a hard link to the blob, so an identical plot written by every build takes the disk space of a
+ * single file. The number of links of a blob counts its references: once every task folder file
+ * linking to it was deleted or overwritten, by a later build or a workspace cleanup, the blob is
+ * collected. The store lives next to the workspaces of the node by default, hard links need both
+ * on the same file system, and files are copied instead when they are not.
+ *
+ * Blobs are read-only, a task folder file is a link to a blob shared by other builds, so it is
+ * replaced rather than written in place. Collection runs in the background, the builds adding
+ * artifacts do not wait for it.
+ */
+public final class ArtifactStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ArtifactStore.class);
+    /**
+     * System property of the store directory of the agent, next to the workspaces by default.
+     */
+    public static final String DIRECTORY_PROPERTY = ArtifactStore.class.getName() + ".directory";
+    private static final String DIRECTORY_NAME = ".jenkins-ml-artifacts";
+    private static final String TMP = "tmp";
+    private static final long COLLECT_INTERVAL = TimeUnit.HOURS.toMillis(1);
+    // unreferenced blobs younger than this may be about to be linked
+    private static final long DEFAULT_GRACE = TimeUnit.HOURS.toMillis(1);
+    // temporary files younger than this may still be written
+    private static final long TEMP_GRACE = TimeUnit.HOURS.toMillis(1);
+    // a blob is added, or checked and deleted, under this lock, across the builds of the agent
+    private static final Object LOCK = new Object();
+    private static final Map<File, Long> LAST_COLLECTIONS = new HashMap<>();
+    private static final ExecutorService COLLECTOR = Executors.newSingleThreadExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), "ArtifactStore collector"));
+
+    private final File directory;
+    private final long grace;
+    private final boolean linking;
+
+    ArtifactStore(File directory, long grace) {
+        this.directory = directory;
+        this.grace = grace;
+        // link counts are only known on unix file systems
+        this.linking = FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+    }
+
+    /**
+     * Gets the store of the node of a workspace.
+     *
+     * @param ws the workspace, on this node
+     * @return the artifact store
+     */
+    public static ArtifactStore forWorkspace(FilePath ws) {
+        String directory = System.getProperty(DIRECTORY_PROPERTY);
+        if (directory != null) {
+            return new ArtifactStore(new File(directory), DEFAULT_GRACE);
+        }
+        File workspaces = new File(ws.getRemote()).getAbsoluteFile().getParentFile();
+        return new ArtifactStore(new File(workspaces == null ? new File(System.getProperty("java.io.tmpdir"))
+                : workspaces, DIRECTORY_NAME), DEFAULT_GRACE);
+    }
+
+    /**
+     * Creates a temporary file to write an artifact to, see {@link #add(Path, String, File, String)}.
+     *
+     * @param folder the task folder of the artifact
+     * @return the temporary file
+     * @throws IOException when the file can not be created
+     */
+    public Path createTempFile(File folder) throws IOException {
+        // on the file system of the blobs, so adding the artifact is a rename
+        Path parent = linking ? new File(directory, TMP).toPath() : folder.toPath();
+        Files.createDirectories(parent);
+        return Files.createTempFile(parent, "artifact", ".part");
+    }
+
+    /**
+     * Adds an artifact to a task folder, the temporary file is moved to the store or deleted.
+     *
+     * @param temp      the temporary file holding the artifact
+     * @param digest    the hex SHA-256 digest of the artifact, or null to compute it
+     * @param folder    the task folder
+     * @param extension the file extension of the artifact
+     * @return the artifact in the task folder, named by its digest
+     * @throws IOException when the artifact can not be added
+     */
+    public File add(Path temp, String digest, File folder, String extension) throws IOException {
+        try {
+            String name = (digest == null ? digest(temp) : digest) + "." + extension;
+            Files.createDirectories(folder.toPath());
+            Path target = new File(folder, name).toPath();
+            if (!linking) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+                return target.toFile();
+            }
+            Path blob = new File(new File(directory, name.substring(0, 2)), name).toPath();
+            synchronized (LOCK) {
+                // otherwise the same content was written before
+                if (!Files.exists(blob)) {
+                    Files.createDirectories(blob.getParent());
+                    Files.move(temp, blob, StandardCopyOption.ATOMIC_MOVE);
+                    // shared by every link, a build writing to its task folder file would change the others
+                    if (!blob.toFile().setWritable(false, false)) {
+                        LOGGER.debug("Can not make " + blob + " read-only");
+                    }
+                }
+                if (Files.exists(target)) {
+                    if (Files.isSameFile(target, blob)) {
+                        return target.toFile();
+                    }
+                    Files.delete(target);
+                }
+                try {
+                    Files.createLink(target, blob);
+                } catch (IOException | UnsupportedOperationException e) {
+                    LOGGER.debug("Can not link " + target + " to the artifact store, copying it", e);
+                    Files.copy(blob, target);
+                }
+            }
+            collectPeriodically();
+            return target.toFile();
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Computes the digest of an artifact while it is read.
+     *
+     * @param in the content of the artifact
+     * @return the stream updating the digest, see {@link #hex(MessageDigest)}
+     */
+    public static DigestInputStream digesting(InputStream in) {
+        try {
+            return new DigestInputStream(in, MessageDigest.getInstance("SHA-256"));
+        } catch (NoSuchAlgorithmException e) {
+            // every java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param digest the digest of a content
+     * @return the name of the content in the store
+     */
+    public static String hex(MessageDigest digest) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static String digest(Path file) throws IOException {
+        try (DigestInputStream in = digesting(Files.newInputStream(file))) {
+            byte[] buffer = new byte[8192];
+            while (in.read(buffer) != -1) {
+                // only the digest is needed
+            }
+            return hex(in.getMessageDigest());
+        }
+    }
+
+    private void collectPeriodically() {
+        long now = System.currentTimeMillis();
+        synchronized (LAST_COLLECTIONS) {
+            Long last = LAST_COLLECTIONS.get(directory);
+            if (last != null && now - last < COLLECT_INTERVAL) {
+                return;
+            }
+            LAST_COLLECTIONS.put(directory, now);
+        }
+        COLLECTOR.submit(this::collect);
+    }
+
+    /**
+     * Deletes the blobs no task folder links to anymore, and the temporary files left behind.
+     *
+     * @return the number of deleted files
+     */
+    public int collect() {
+        if (!linking) {
+            return 0;
+        }
+        int deleted = 0;
+        long now = System.currentTimeMillis();
+        File[] folders = directory.listFiles(File::isDirectory);
+        if (folders == null) {
+            return 0;
+        }
+        for (File folder : folders) {
+            boolean temp = TMP.equals(folder.getName());
+            long expired = now - (temp ? TEMP_GRACE : grace);
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(folder.toPath())) {
+                for (Path file : files) {
+                    if (temp) {
+                        if (Files.getLastModifiedTime(file).toMillis() <= expired) {
+                            Files.delete(file);
+                            deleted++;
+                        }
+                        continue;
+                    }
+                    // checked again under the lock, a build may link the blob in between
+                    if (isUnreferenced(file, expired)) {
+                        synchronized (LOCK) {
+                            if (isUnreferenced(file, expired)) {
+                                Files.delete(file);
+                                deleted++;
+                            }
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.debug("Failed to collect " + folder, e);
+            }
+        }
+        if (deleted > 0) {
+            LOGGER.info("Collected " + deleted + " unreferenced artifact(s) from " + directory);
+        }
+        return deleted;
+    }
+
+    private static boolean isUnreferenced(Path blob, long expired) throws IOException {
+        return Files.exists(blob) && (Integer) Files.getAttribute(blob, "unix:nlink") <= 1
+                && Files.getLastModifiedTime(blob).toMillis() <= expired;
+    }
+}
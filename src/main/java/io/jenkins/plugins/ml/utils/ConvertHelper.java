@@ -24,18 +24,23 @@
 
 package io.jenkins.plugins.ml.utils;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import hudson.AbortException;
 import hudson.FilePath;
-import org.apache.zeppelin.jupyter.JupyterUtil;
-import org.apache.zeppelin.jupyter.zformat.Note;
-import org.apache.zeppelin.jupyter.zformat.Paragraph;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 
 
@@ -55,18 +60,11 @@ public class ConvertHelper {
      * @throws InterruptedException exception on input stream reading
      */
     public static String jupyterToText(FilePath jupyterFile) throws IOException, InterruptedException {
-        if (!jupyterFile.exists()) throw new AbortException("Invalid file");
-        // Convert Jupyter Notebook to JSON
-        try (final InputStreamReader inputStreamReader = new InputStreamReader(jupyterFile.read(), Charset.forName("UTF-8"))) {
-            Note n = new JupyterUtil().getNote(inputStreamReader, "python", "\n", "#");
-            StringBuilder outText = new StringBuilder();
-            for (Paragraph para : n.getParagraphs()) {
-                // skipping markdowns
-                if (para.getConfig().get("editorMode").equals(MARKDOWN_ANNOTATION)) continue;
-                outText.append(para.getText());
-            }
-            return outText.toString();
+        StringBuilder outText = new StringBuilder();
+        for (String text : jupyterToTextArray(jupyterFile)) {
+            outText.append(text);
         }
+        return outText.toString();
 
     }
 
@@ -77,14 +75,47 @@ public class ConvertHelper {
      * @throws InterruptedException exception on input stream reading
      */
     public static JsonObject jupyterToJSON(FilePath jupyterFile) throws IOException, InterruptedException {
+        return new JsonParser().parse(jupyterToJSONString(jupyterFile)).getAsJsonObject();
+
+    }
+
+    /**
+     * Converts the notebook on the node that has it, each notebook content is converted once per JVM.
+     *
+     * @param jupyterFile Path for the jupyter notebook
+     * @return JSON text of the Zeppelin note
+     * @throws IOException when file path does not exist
+     * @throws InterruptedException exception on input stream reading
+     */
+    public static String jupyterToJSONString(FilePath jupyterFile) throws IOException, InterruptedException {
+        return jupyterFile.act(new ReadNote());
+    }
+
+    /**
+     * Writes the notebook without the outputs and execution counts of its cells, in a single streaming pass.
+     *
+     * @param jupyterFile   Path for the jupyter notebook
+     * @param target        Path for the stripped notebook, may be the notebook itself
+     * @param stripMetadata also strip the metadata but the kernel and the cell tags
+     * @throws IOException          when file path does not exist
+     * @throws InterruptedException exception on input stream reading
+     */
+    public static void jupyterToStripped(FilePath jupyterFile, FilePath target, boolean stripMetadata)
+            throws IOException, InterruptedException {
         if (!jupyterFile.exists()) throw new AbortException("Invalid file");
-        try (final InputStreamReader inputStreamReader = new InputStreamReader(jupyterFile.read(), Charset.forName("UTF-8"))) {
-            Note n = new JupyterUtil().getNote(inputStreamReader, "python", "\n", "#");
-            Gson gson = new Gson();
-            JsonElement tree = gson.toJsonTree(n);
-            return tree.getAsJsonObject();
+        FilePath directory = target.getParent();
+        directory.mkdirs();
+        FilePath temp = directory.createTempFile(target.getName(), ".tmp");
+        try {
+            try (Reader in = new InputStreamReader(jupyterFile.read(), StandardCharsets.UTF_8);
+                 Writer out = new OutputStreamWriter(temp.write(), StandardCharsets.UTF_8)) {
+                NotebookStripper.strip(in, out, stripMetadata);
+            }
+            // replaces the target at once, a notebook stripped in place is never missing
+            temp.act(new ReplaceFile(target.getRemote()));
+        } finally {
+            temp.delete();
         }
-
     }
 
     /**
@@ -94,18 +125,96 @@ public class ConvertHelper {
      * @throws InterruptedException exception on input stream reading
      */
     public static ArrayList<String> jupyterToTextArray(FilePath jupyterFile) throws IOException, InterruptedException {
-        if (!jupyterFile.exists()) throw new AbortException("Invalid file");
-        // Convert Jupyter Notebook to JSON
-        try (final InputStreamReader inputStreamReader = new InputStreamReader(jupyterFile.read(), Charset.forName("UTF-8"))) {
-            Note n = new JupyterUtil().getNote(inputStreamReader, "python", "\n", "#");
-            ArrayList outTextArray = new ArrayList();
-            for (Paragraph para : n.getParagraphs()) {
+        // Each notebook content is parsed once per JVM, on the node that has the notebook
+        return jupyterFile.act(new ReadCode());
+
+    }
+
+    /**
+     * Finds the cell tagged "parameters", the cell that holds the default parameters of the notebook
+     * by the papermill convention.
+     *
+     * @param jupyterFile Path for the jupyter notebook
+     * @return index of the cell in {@link #jupyterToTextArray(FilePath)}, or -1 when no cell is tagged
+     * @throws IOException          when file path does not exist
+     * @throws InterruptedException exception on input stream reading
+     */
+    public static int parametersCellIndex(FilePath jupyterFile) throws IOException, InterruptedException {
+        return jupyterFile.act(new FindParameters());
+    }
+
+    /**
+     * Reads the code cells of a notebook through the cache of the node.
+     */
+    private static final class ReadCode extends MasterToSlaveFileCallable<ArrayList<String>> {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public ArrayList<String> invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+            ArrayList<String> outTextArray = new ArrayList<>();
+            for (NotebookReader.Cell cell : NotebookCache.get().getCells(f)) {
                 // skipping markdowns
-                if (para.getConfig().get("editorMode").equals(MARKDOWN_ANNOTATION)) continue;
-                outTextArray.add(para.getText());
+                if (cell.isMarkdown()) continue;
+                outTextArray.add(cell.getText());
             }
             return outTextArray;
         }
+    }
 
+    /**
+     * Finds the parameters cell of a notebook through the cache of the node.
+     */
+    private static final class FindParameters extends MasterToSlaveFileCallable<Integer> {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Integer invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+            int index = 0;
+            for (NotebookReader.Cell cell : NotebookCache.get().getCells(f)) {
+                // markdowns are skipped by jupyterToTextArray
+                if (cell.isMarkdown()) continue;
+                if ("code".equals(cell.getType()) && cell.getTags().contains("parameters")) {
+                    return index;
+                }
+                index++;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Converts a notebook to a Zeppelin note through the cache of the node.
+     */
+    private static final class ReadNote extends MasterToSlaveFileCallable<String> {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public String invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+            return NotebookCache.get().getNote(f);
+        }
+    }
+
+    /**
+     * Moves a file over another one in a single step, on the node of the file.
+     */
+    private static final class ReplaceFile extends MasterToSlaveFileCallable<Void> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String target;
+
+        private ReplaceFile(String target) {
+            this.target = target;
+        }
+
+        @Override
+        public Void invoke(File f, VirtualChannel channel) throws IOException {
+            Files.move(f.toPath(), Paths.get(target), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            return null;
+        }
     }
 }
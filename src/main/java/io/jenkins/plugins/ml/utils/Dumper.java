@@ -25,19 +25,30 @@
 package io.jenkins.plugins.ml.utils;
 
 import hudson.FilePath;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CharSequenceInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.imageio.ImageIO;
-import javax.xml.bind.DatatypeConverter;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.util.UUID;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Dumper- A helping tool for save html or image files in the workspace
@@ -45,6 +56,18 @@ import java.util.UUID;
 public final class Dumper {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Dumper.class);
+    /**
+     * System property of the size in bytes over which raster images are scaled down, 0 keeps them as they are.
+     */
+    public static final String MAX_IMAGE_SIZE_PROPERTY = Dumper.class.getName() + ".maxImageSize";
+    /**
+     * Extensions of the image files written by the dumper.
+     */
+    public static final List<String> IMAGE_EXTENSIONS =
+            Collections.unmodifiableList(Arrays.asList("png", "jpeg", "gif", "svg"));
+    // an image output with its type, data:image/png;base64,iVBOR...
+    private static final String DATA_URI = "data:";
+    private static final String BASE64 = ";base64,";
 
     private Dumper() {
     }
@@ -60,16 +83,45 @@ public final class Dumper {
      */
     public static void dumpHtml(String data, String foldername, FilePath ws)
             throws IOException, InterruptedException {
-        UUID random = UUID.nameUUIDFromBytes(data.getBytes(StandardCharsets.UTF_8));
-        // Added a random number to save images
-        String filename = File.separator + random + ".html";
-        FilePath dumpPath = new FilePath(ws, foldername + filename);
-        dumpPath.write(data, "UTF-8");
-        LOGGER.info("Archived " + filename);
+        dumpText(data, "html", foldername, ws);
     }
 
     /**
-     * Dump image output from Zeppelin API as html files under the @param foldername .
+     * Dump svg output from Zeppelin API as svg files under the @param foldername .
+     *
+     * @param data       the svg document
+     * @param foldername the folder name
+     * @param ws         the workspace
+     * @throws IOException          the io exception
+     * @throws InterruptedException the interrupted exception
+     */
+    public static void dumpSvg(String data, String foldername, FilePath ws)
+            throws IOException, InterruptedException {
+        dumpText(data, "svg", foldername, ws);
+    }
+
+    private static void dumpText(String data, String extension, String foldername, FilePath ws)
+            throws IOException {
+        File folder = new File(new FilePath(ws, foldername).getRemote());
+        ArtifactStore store = ArtifactStore.forWorkspace(ws);
+        Path temp = store.createTempFile(folder);
+        String digest;
+        try (DigestInputStream in = ArtifactStore.digesting(new CharSequenceInputStream(data, StandardCharsets.UTF_8));
+             OutputStream out = Files.newOutputStream(temp)) {
+            IOUtils.copy(in, out);
+            digest = ArtifactStore.hex(in.getMessageDigest());
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        File file = store.add(temp, digest, folder, extension);
+        LOGGER.info("Archived " + file.getName());
+    }
+
+    /**
+     * Dump base64 image output from Zeppelin API as image files under the @param foldername . The
+     * image is decoded while it is written. The file extension follows the type of a
+     * {@code data:<type>;base64,} image, see {@link #imageData}, or the format of the image otherwise.
      *
      * @param data       the data for the Image
      * @param foldername the folder name
@@ -77,22 +129,152 @@ public final class Dumper {
      * @throws IOException raise when write fails
      */
     public static void dumpImage(String data, String foldername, FilePath ws) throws IOException {
+        // base64 has no ';', the first one found ends the type
+        int base64 = data.startsWith(DATA_URI) ? data.indexOf(BASE64) : -1;
+        if (base64 > DATA_URI.length()) {
+            dumpImage(data.substring(base64 + BASE64.length()), data.substring(DATA_URI.length(), base64),
+                    foldername, ws);
+        } else {
+            dumpImage(data, null, foldername, ws);
+        }
+    }
+
+    /**
+     * Dump a base64 image as an image file under the @param foldername . The image is decoded while it
+     * is written.
+     *
+     * @param data       the base64 image
+     * @param mimeType   the type of the image sent by the kernel, null when it is not known
+     * @param foldername the folder name
+     * @param ws         the workspace
+     * @throws IOException raise when write fails
+     */
+    public static void dumpImage(String data, @Nullable String mimeType, String foldername, FilePath ws)
+            throws IOException {
+        dumpImage(Base64.getMimeDecoder().wrap(new CharSequenceInputStream(data, StandardCharsets.US_ASCII)),
+                mimeType, foldername, ws);
+    }
 
-        UUID random = UUID.nameUUIDFromBytes(data.getBytes(StandardCharsets.UTF_8));
-        // Added a random number to save images
-        String filename = File.separator + random + ".png";
-        FilePath dumpPath = new FilePath(ws, foldername + filename);
-        /* Decoding the data */
-        byte[] imageBytes = DatatypeConverter.parseBase64Binary(data);
-
-        /* read decoded image data */
-        BufferedImage img = ImageIO.read(new ByteArrayInputStream(imageBytes));
-        File imgFile = new File(dumpPath.getRemote());
-        if (!imgFile.getParentFile().exists()) {
-            Files.createDirectories(Paths.get(imgFile.getParent()));
+    /**
+     * Gets the Zeppelin image output of a base64 image, with its type when it is known.
+     *
+     * @param data     the base64 image
+     * @param mimeType the type of the image, null when it is not known
+     * @return the image output, understood by {@link #dumpImage(String, String, FilePath)}
+     */
+    public static String imageData(String data, @Nullable String mimeType) {
+        return mimeType == null ? data : DATA_URI + mimeType + BASE64 + data;
+    }
+
+    /**
+     * Dump an image received as raw bytes from the kernel as an image file under the @param foldername .
+     *
+     * @param data       the image
+     * @param mimeType   the type of the image sent by the kernel, null when it is not known
+     * @param foldername the folder name
+     * @param ws         the workspace
+     * @throws IOException raise when write fails
+     */
+    public static void dumpImage(byte[] data, @Nullable String mimeType, String foldername, FilePath ws)
+            throws IOException {
+        dumpImage(new ByteArrayInputStream(data), mimeType, foldername, ws);
+    }
+
+    private static void dumpImage(InputStream image, @Nullable String mimeType, String foldername, FilePath ws)
+            throws IOException {
+        File folder = new File(new FilePath(ws, foldername).getRemote());
+        ArtifactStore store = ArtifactStore.forWorkspace(ws);
+        Path temp = store.createTempFile(folder);
+        String extension;
+        String digest;
+        try (InputStream decoded = new BufferedInputStream(image);
+             OutputStream out = Files.newOutputStream(temp)) {
+            extension = imageExtension(mimeType, decoded);
+            DigestInputStream in = ArtifactStore.digesting(decoded);
+            IOUtils.copy(in, out);
+            digest = ArtifactStore.hex(in.getMessageDigest());
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        if (limitSize(temp.toFile(), extension)) {
+            // the scaled image has another digest
+            digest = null;
+        }
+        File file = store.add(temp, digest, folder, extension);
+        LOGGER.info("Archived " + file.getName());
+    }
+
+    /**
+     * Gets the file extension of an image from its MIME type, or from its first bytes when the type is
+     * not known. The stream is not consumed.
+     *
+     * @param mimeType the type of the image, may be null
+     * @param in       the image, supporting mark
+     * @return png, jpeg, gif or svg, png when the format is not known
+     * @throws IOException when the image can not be read
+     */
+    static String imageExtension(@Nullable String mimeType, InputStream in) throws IOException {
+        if (mimeType != null) {
+            switch (mimeType) {
+                case "image/png":
+                    return "png";
+                case "image/jpeg":
+                    return "jpeg";
+                case "image/gif":
+                    return "gif";
+                case "image/svg+xml":
+                    return "svg";
+                default:
+                    break;
+            }
+        }
+        byte[] head = new byte[256];
+        in.mark(head.length);
+        int length = IOUtils.read(in, head);
+        in.reset();
+        if (length >= 3 && (head[0] & 0xff) == 0xff && (head[1] & 0xff) == 0xd8 && (head[2] & 0xff) == 0xff) {
+            return "jpeg";
+        }
+        String text = new String(head, 0, length, StandardCharsets.ISO_8859_1);
+        if (text.startsWith("GIF87a") || text.startsWith("GIF89a")) {
+            return "gif";
+        }
+        if (text.contains("<svg")) {
+            return "svg";
         }
-        ImageIO.write(img, "png", imgFile);
-        LOGGER.info("Archived " + filename);
+        return "png";
+    }
 
+    /**
+     * Scales a raster image down when it is over the size limit, see {@link #MAX_IMAGE_SIZE_PROPERTY}.
+     */
+    private static boolean limitSize(File image, String format) throws IOException {
+        long maxSize = Long.getLong(MAX_IMAGE_SIZE_PROPERTY, 0);
+        if (maxSize <= 0 || image.length() <= maxSize || "svg".equals(format)) {
+            return false;
+        }
+        BufferedImage original = ImageIO.read(image);
+        if (original == null) {
+            return false;
+        }
+        // the encoded size roughly follows the number of pixels
+        double scale = Math.sqrt((double) maxSize / image.length());
+        int width = Math.max(1, (int) (original.getWidth() * scale));
+        int height = Math.max(1, (int) (original.getHeight() * scale));
+        BufferedImage scaled = new BufferedImage(width, height,
+                "jpeg".equals(format) ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(original, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        if (!ImageIO.write(scaled, format, image)) {
+            return false;
+        }
+        LOGGER.info("Scaled image down to " + width + "x" + height);
+        return true;
     }
 }
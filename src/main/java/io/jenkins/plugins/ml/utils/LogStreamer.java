@@ -0,0 +1,320 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Loghi Perinpanayagam.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package io.jenkins.plugins.ml.utils;
+
+import hudson.console.HyperlinkNote;
+import org.apache.commons.io.output.NullOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * LogStreamer- Copies the outputs of the kernel to the build log while a cell runs
+ *
+ * The build log of an agent is a remote stream, every write is a message to the controller. The
+ * outputs are buffered and written when the buffer is full, or once a second while the kernel
+ * is quiet.
+ *
+ * With an output limit, the log only gets the first bytes of the output of each cell, and its last
+ * {@link #TAIL_SIZE} bytes once the cell is done. The whole output is then written to a compressed
+ * file, and the log links to it. An HTML output over the limit goes to such a file too, see
+ * {@link #spillHtml}, instead of the HTML files of the results.
+ *
+ * With a prefix, every line of the log starts with it and only whole lines are written, so the
+ * outputs of streamers sharing a log can be told apart. A line without an end is then written once
+ * the buffer is full or the streamer is closed.
+ */
+public final class LogStreamer implements Closeable {
+
+    // bytes buffered before they are written
+    static final int FLUSH_SIZE = 16 * 1024;
+    // the longest time an output waits in the buffer
+    static final long FLUSH_INTERVAL = 1000;
+    // bytes of the end of an output over the limit shown in the log
+    static final int TAIL_SIZE = 8 * 1024;
+
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "LogStreamer flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final PrintStream logger;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final ScheduledFuture<?> flusher;
+    private final long limit;
+    private final File directory;
+    private final String url;
+    private final byte[] prefix;
+    private boolean lineStart = true;
+    // the output of the running cell, kept until it is over the limit
+    private final ByteArrayOutputStream head = new ByteArrayOutputStream();
+    private final byte[] tail = new byte[TAIL_SIZE];
+    private long cellSize;
+    private long tailSize;
+    private File spillFile;
+    private OutputStream spill;
+    private String spillError;
+
+    /**
+     * Instantiates a new Log streamer.
+     *
+     * @param logger the build log
+     */
+    public LogStreamer(PrintStream logger) {
+        this(logger, 0, null, null);
+    }
+
+    /**
+     * Instantiates a new Log streamer limiting the output of each cell in the log.
+     *
+     * @param logger    the build log
+     * @param limit     the bytes of the output of a cell written to the log, 0 for no limit
+     * @param directory receives the outputs over the limit
+     * @param url       the url of the directory relative to the Jenkins root, null when it is not served
+     */
+    public LogStreamer(PrintStream logger, long limit, File directory, String url) {
+        this(logger, limit, directory, url, null);
+    }
+
+    /**
+     * Instantiates a new Log streamer limiting the output of each cell in the log, each line of the
+     * log starting with a prefix.
+     *
+     * @param logger    the build log
+     * @param limit     the bytes of the output of a cell written to the log, 0 for no limit
+     * @param directory receives the outputs over the limit
+     * @param url       the url of the directory relative to the Jenkins root, null when it is not served
+     * @param prefix    the start of every line, null for none
+     */
+    public LogStreamer(PrintStream logger, long limit, File directory, String url, String prefix) {
+        this.logger = logger;
+        this.prefix = prefix == null ? null : prefix.getBytes(StandardCharsets.UTF_8);
+        this.limit = limit;
+        this.directory = directory;
+        this.url = url;
+        this.flusher = FLUSHER.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL, FLUSH_INTERVAL,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Appends an output of the kernel.
+     *
+     * @param text the output, encoded in UTF-8
+     */
+    public synchronized void write(byte[] text) {
+        if (limit <= 0) {
+            append(text, 0, text.length);
+            return;
+        }
+        int shown = (int) Math.max(0, Math.min(text.length, limit - cellSize));
+        cellSize += text.length;
+        append(text, 0, shown);
+        if (shown == text.length) {
+            head.write(text, 0, text.length);
+            return;
+        }
+        spill(text);
+        keepTail(text, shown, text.length - shown);
+    }
+
+    private void append(byte[] text, int offset, int length) {
+        if (prefix == null) {
+            buffer.write(text, offset, length);
+        } else {
+            int end = offset + length;
+            while (offset < end) {
+                if (lineStart) {
+                    buffer.write(prefix, 0, prefix.length);
+                }
+                int line = offset;
+                while (line < end && text[line] != '\n') {
+                    line++;
+                }
+                lineStart = line < end;
+                int next = lineStart ? line + 1 : end;
+                buffer.write(text, offset, next - offset);
+                offset = next;
+            }
+        }
+        if (buffer.size() >= FLUSH_SIZE) {
+            flush();
+        }
+    }
+
+    private void spill(byte[] text) {
+        try {
+            if (spill == null) {
+                directory.mkdirs();
+                spillFile = File.createTempFile("cell-", ".log.gz", directory);
+                spill = new GZIPOutputStream(new FileOutputStream(spillFile), FLUSH_SIZE);
+                head.writeTo(spill);
+                head.reset();
+            }
+            spill.write(text);
+        } catch (IOException e) {
+            // the log still gets the head and the tail of the output
+            spillError = e.getMessage();
+            spill = new NullOutputStream();
+        }
+    }
+
+    private void keepTail(byte[] text, int offset, int length) {
+        int skipped = Math.max(0, length - TAIL_SIZE);
+        tailSize += skipped;
+        for (int i = offset + skipped; i < offset + length; i++) {
+            tail[(int) (tailSize++ % TAIL_SIZE)] = text[i];
+        }
+    }
+
+    /**
+     * Ends the output of the running cell. When it is over the limit, its compressed file is
+     * completed and the log gets a link to it followed by the end of the output.
+     */
+    public synchronized void endCell() {
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (IOException e) {
+                spillError = e.getMessage();
+            }
+            int kept = (int) Math.min(tailSize, TAIL_SIZE);
+            byte[] end = new byte[kept];
+            for (int i = 0; i < kept; i++) {
+                end[i] = tail[(int) ((tailSize - kept + i) % TAIL_SIZE)];
+            }
+            int start = 0;
+            if (tailSize > TAIL_SIZE) {
+                // start at a line, the bytes before it are in the file
+                while (start < end.length && end[start++] != '\n') {
+                    // skip the partial line
+                }
+            }
+            long omitted = tailSize - kept + start;
+            StringBuilder summary = new StringBuilder(System.lineSeparator())
+                    .append("... output of the cell is over ").append(limit).append(" bytes, ");
+            if (omitted > 0) {
+                summary.append(omitted).append(" bytes are omitted, ");
+            }
+            if (spillError != null) {
+                summary.append("the full output could not be written: ").append(spillError);
+            } else {
+                summary.append("the full output is in ").append(link(spillFile, url));
+            }
+            byte[] message = summary.append(System.lineSeparator()).toString().getBytes(StandardCharsets.UTF_8);
+            append(message, 0, message.length);
+            append(end, start, end.length - start);
+        }
+        head.reset();
+        cellSize = 0;
+        tailSize = 0;
+        spillFile = null;
+        spill = null;
+        spillError = null;
+    }
+
+    /**
+     * Writes an HTML output of a cell over the output limit to a compressed file.
+     *
+     * @param html      the HTML output, encoded in UTF-8
+     * @param limit     the bytes of the output of a cell written to the log
+     * @param directory receives the outputs over the limit
+     * @param url       the url of the directory relative to the Jenkins root, null when it is not served
+     * @return the line of the log telling where the output is
+     */
+    public static String spillHtml(byte[] html, long limit, File directory, String url) {
+        String summary = "HTML output of the cell is over " + limit + " bytes, ";
+        try {
+            directory.mkdirs();
+            File file = File.createTempFile("cell-", ".html.gz", directory);
+            try (OutputStream out = new GZIPOutputStream(new FileOutputStream(file), FLUSH_SIZE)) {
+                out.write(html);
+            }
+            return summary + "the full output is in " + link(file, url);
+        } catch (IOException e) {
+            return summary + "the full output could not be written: " + e.getMessage();
+        }
+    }
+
+    private static String link(File file, String url) {
+        String name = file.getName();
+        return url == null ? file.getPath() : HyperlinkNote.encodeTo(url + name, name);
+    }
+
+    /**
+     * Appends a line after the outputs written so far.
+     *
+     * @param line the line
+     */
+    public synchronized void println(String line) {
+        write((line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes the buffered outputs to the build log.
+     */
+    public synchronized void flush() {
+        flush(prefix != null);
+    }
+
+    private synchronized void flush(boolean wholeLines) {
+        if (buffer.size() == 0) {
+            return;
+        }
+        byte[] bytes = buffer.toByteArray();
+        int end = bytes.length;
+        if (wholeLines && end < FLUSH_SIZE) {
+            // keep the end of the line, the next line of the log may be written by another streamer
+            while (end > 0 && bytes[end - 1] != '\n') {
+                end--;
+            }
+        }
+        if (end > 0) {
+            logger.write(bytes, 0, end);
+            logger.flush();
+        }
+        buffer.reset();
+        buffer.write(bytes, end, bytes.length - end);
+    }
+
+    @Override
+    public void close() {
+        flusher.cancel(false);
+        endCell();
+        flush(false);
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Loghi Perinpanayagam.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.jenkins.plugins.ml.utils;
+
+import com.google.gson.Gson;
+import hudson.AbortException;
+import hudson.Util;
+import org.apache.zeppelin.jupyter.JupyterUtil;
+import org.apache.zeppelin.jupyter.zformat.Note;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Notebooks read by this JVM, keyed by the digest of the notebook content.
+ *
+ * A notebook is read once, and the digest and the parse both come from the bytes read. Every build step,
+ * build and sweep reading the same notebook content shares one parse, and concurrent readers of a notebook
+ * being parsed wait for that parse instead of starting another. Notebooks are evicted least recently used
+ * first once they take more than {@link #MAX_SIZE_PROPERTY} bytes of memory.
+ *
+ * The cache holds local files only, {@link ConvertHelper} looks notebooks up on the node that has them.
+ */
+public final class NotebookCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NotebookCache.class);
+    public static final String MAX_SIZE_PROPERTY = NotebookCache.class.getName() + ".maxSize";
+    private static final long DEFAULT_MAX_SIZE = 64L * 1024 * 1024;
+    // rough memory of a cell besides its text
+    private static final int CELL_OVERHEAD = 64;
+    private static final NotebookCache INSTANCE =
+            new NotebookCache(Long.getLong(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE));
+
+    // access ordered, the eldest entry is the least recently used
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxSize;
+    private long size;
+    private long parses;
+
+    NotebookCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Gets the cache of this JVM.
+     *
+     * @return the notebook cache
+     */
+    public static NotebookCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Gets the cells of a jupyter notebook, parsing it only when its content was not parsed before.
+     *
+     * @param notebook the local .ipynb file
+     * @return the cells, markdown included
+     * @throws IOException          when the notebook can not be read or parsed
+     * @throws InterruptedException when interrupted
+     */
+    @SuppressWarnings("unchecked")
+    public List<NotebookReader.Cell> getCells(File notebook) throws IOException, InterruptedException {
+        return (List<NotebookReader.Cell>) get(notebook, "cells", content -> {
+            List<NotebookReader.Cell> cells = new ArrayList<>();
+            long bytes = 0;
+            try (NotebookReader reader = NotebookReader.jupyter(reader(content))) {
+                for (NotebookReader.Cell cell = reader.next(); cell != null; cell = reader.next()) {
+                    cells.add(cell);
+                    bytes += CELL_OVERHEAD + 2L * cell.getText().length();
+                }
+            }
+            return new Parsed(Collections.unmodifiableList(cells), bytes);
+        });
+    }
+
+    /**
+     * Gets a jupyter notebook as a Zeppelin note, converting it only when its content was not converted before.
+     *
+     * @param notebook the local .ipynb file
+     * @return the JSON of the note
+     * @throws IOException          when the notebook can not be read or parsed
+     * @throws InterruptedException when interrupted
+     */
+    public String getNote(File notebook) throws IOException, InterruptedException {
+        return (String) get(notebook, "note", content -> {
+            try (Reader reader = reader(content)) {
+                Note note = new JupyterUtil().getNote(reader, "python", "\n", "#");
+                String json = new Gson().toJsonTree(note).toString();
+                return new Parsed(json, 2L * json.length());
+            }
+        });
+    }
+
+    private Object get(File notebook, String kind, Parser parser) throws IOException, InterruptedException {
+        if (!notebook.exists()) throw new AbortException("Invalid file");
+        // the parse reads the very bytes digested, a notebook written meanwhile is never cached under another key
+        byte[] content = Files.readAllBytes(notebook.toPath());
+        String key = kind + ":" + digest(content);
+        Entry entry;
+        boolean parse = false;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry(parser, content);
+                entries.put(key, entry);
+                parse = true;
+            }
+        }
+        if (parse) {
+            entry.task.run();
+        }
+        try {
+            Object value = entry.task.get();
+            if (parse) {
+                added(key, entry);
+            }
+            return value;
+        } catch (ExecutionException e) {
+            synchronized (this) {
+                entries.remove(key, entry);
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static String digest(byte[] content) throws IOException {
+        try {
+            return Util.toHexString(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static Reader reader(byte[] content) {
+        return new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8);
+    }
+
+    private synchronized void added(String key, Entry entry) {
+        if (entries.get(key) != entry) {
+            return;
+        }
+        parses++;
+        size += entry.size;
+        Iterator<Entry> eldest = entries.values().iterator();
+        // keep the notebook just read even when it is larger than the cache, and the ones still being parsed
+        while (eldest.hasNext() && size > maxSize) {
+            Entry evicted = eldest.next();
+            if (evicted == entry || !evicted.task.isDone()) {
+                continue;
+            }
+            eldest.remove();
+            size -= evicted.size;
+        }
+        LOGGER.debug("Cached notebook {} in {} bytes, {} notebooks in {} bytes", key, entry.size, entries.size(), size);
+    }
+
+    /**
+     * @return the number of notebooks parsed since the cache was created
+     */
+    public synchronized long getParses() {
+        return parses;
+    }
+
+    /**
+     * @return the estimated memory of the cached notebooks in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    private interface Parser {
+        Parsed parse(byte[] content) throws IOException;
+    }
+
+    private static final class Parsed {
+
+        private final Object value;
+        private final long size;
+
+        private Parsed(Object value, long size) {
+            this.value = value;
+            this.size = size;
+        }
+    }
+
+    private static final class Entry {
+
+        private final FutureTask<Object> task;
+        private volatile long size;
+
+        private Entry(Parser parser, byte[] content) {
+            task = new FutureTask<>(() -> {
+                Parsed parsed = parser.parse(content);
+                size = parsed.size;
+                return parsed.value;
+            });
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Loghi Perinpanayagam.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.jenkins.plugins.ml.utils;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads the cells of a notebook one at a time from a JSON token stream.
+ *
+ * Only the source, the type and the tags of a cell are kept: outputs, attachments and the other
+ * metadata are skipped without being materialized, so a notebook full of embedded plots is read
+ * with the memory of its largest cell instead of the whole document. Both jupyter notebooks and
+ * Zeppelin notes are supported, see {@link #jupyter(Reader)} and {@link #zeppelin(Reader)}.
+ */
+public final class NotebookReader implements Closeable {
+
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final JsonReader reader;
+    private final boolean zeppelin;
+    private boolean started;
+    private boolean finished;
+
+    private NotebookReader(Reader in, boolean zeppelin) {
+        this.reader = new JsonReader(in);
+        // same as Gson.fromJson
+        this.reader.setLenient(true);
+        this.zeppelin = zeppelin;
+    }
+
+    /**
+     * @param in the .ipynb document
+     * @return a reader of the cells of the jupyter notebook
+     */
+    public static NotebookReader jupyter(Reader in) {
+        return new NotebookReader(in, false);
+    }
+
+    /**
+     * @param in the Zeppelin note
+     * @return a reader of the paragraphs of the Zeppelin note
+     */
+    public static NotebookReader zeppelin(Reader in) {
+        return new NotebookReader(in, true);
+    }
+
+    /**
+     * Gets the next cell of the notebook.
+     *
+     * @return the next cell, or null after the last one
+     * @throws IOException when the notebook is not valid JSON
+     */
+    public Cell next() throws IOException {
+        if (finished) {
+            return null;
+        }
+        if (!started) {
+            started = true;
+            if (!seekCells()) {
+                finished = true;
+                return null;
+            }
+        }
+        if (!reader.hasNext()) {
+            reader.endArray();
+            finished = true;
+            return null;
+        }
+        return zeppelin ? readParagraph() : readCell();
+    }
+
+    /**
+     * Moves into the cell array, skipping the fields of the document before it.
+     */
+    private boolean seekCells() throws IOException {
+        String cells = zeppelin ? "paragraphs" : "cells";
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals(cells) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                return true;
+            }
+            reader.skipValue();
+        }
+        return false;
+    }
+
+    private Cell readCell() throws IOException {
+        String type = null;
+        List<String> source = Collections.emptyList();
+        List<String> tags = Collections.emptyList();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "cell_type":
+                    type = nextString();
+                    break;
+                case "source":
+                    source = nextLines();
+                    break;
+                case "metadata":
+                    tags = readTags();
+                    break;
+                default:
+                    // outputs and attachments
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new Cell(type, jupyterText(type, source), tags);
+    }
+
+    private Cell readParagraph() throws IOException {
+        String text = null;
+        String editorMode = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("text")) {
+                text = nextString();
+            } else if (name.equals("config") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (reader.nextName().equals("editorMode")) {
+                        editorMode = nextString();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                // results
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        String type = ConvertHelper.MARKDOWN_ANNOTATION.equals(editorMode) ? "markdown" : "code";
+        return new Cell(type, text == null ? "" : text, Collections.emptyList());
+    }
+
+    private List<String> readTags() throws IOException {
+        List<String> tags = Collections.emptyList();
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return tags;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("tags")) {
+                tags = nextLines();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return tags;
+    }
+
+    private String nextString() throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    /**
+     * Reads a multiline string of nbformat, either a string or an array of lines.
+     */
+    private List<String> nextLines() throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            String line = nextString();
+            return line == null ? Collections.emptyList() : Collections.singletonList(line);
+        }
+        List<String> lines = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            lines.add(nextString());
+        }
+        reader.endArray();
+        return lines;
+    }
+
+    /**
+     * Builds the text JupyterUtil gives to the paragraph of the cell, so cached cells and converted
+     * files do not change: a prefix by cell type and the source lines, each but the last ending a line.
+     */
+    private static String jupyterText(String type, List<String> source) {
+        StringBuilder text = new StringBuilder();
+        if ("code".equals(type)) {
+            text.append('\n');
+        } else if (Cell.isMarkdown(type)) {
+            text.append('#');
+        }
+        text.append(LINE_SEPARATOR);
+        for (int i = 0; i < source.size(); i++) {
+            String line = source.get(i);
+            if (line == null) {
+                continue;
+            }
+            text.append(line);
+            if (source.size() > 1 && i < source.size() - 1 && !line.endsWith(LINE_SEPARATOR)) {
+                text.append(LINE_SEPARATOR);
+            }
+        }
+        return text.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * A cell of the notebook without its outputs.
+     */
+    public static final class Cell {
+
+        private final String type;
+        private final String text;
+        private final List<String> tags;
+
+        Cell(String type, String text, List<String> tags) {
+            this.type = type;
+            this.text = text;
+            this.tags = tags;
+        }
+
+        private static boolean isMarkdown(String type) {
+            return "markdown".equals(type) || "heading".equals(type);
+        }
+
+        /**
+         * Gets the type of the cell, code, markdown, raw or heading. Zeppelin paragraphs are either
+         * markdown or code.
+         *
+         * @return the cell type
+         */
+        public String getType() {
+            return type;
+        }
+
+        /**
+         * Gets the text of the cell as it appears in the Zeppelin form of the notebook.
+         *
+         * @return the cell text
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * Gets the tags in the metadata of the cell.
+         *
+         * @return the tags, empty for Zeppelin paragraphs
+         */
+        public List<String> getTags() {
+            return tags;
+        }
+
+        /**
+         * @return true when the cell is documentation, which is not run
+         */
+        public boolean isMarkdown() {
+            return isMarkdown(type);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Loghi Perinpanayagam.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.jenkins.plugins.ml.utils;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Copies a jupyter notebook without the outputs and execution counts of its cells, token by token.
+ *
+ * Outputs are skipped without being materialized, so a notebook full of embedded plots is copied
+ * with the memory of its largest string. The copy is still a valid notebook the builder and the
+ * ipython step can run.
+ */
+public final class NotebookStripper {
+
+    // what the runner and the papermill conventions still need when the metadata is stripped
+    private static final Set<String> NOTEBOOK_METADATA =
+            new HashSet<>(Arrays.asList("kernelspec", "language_info"));
+    private static final Set<String> CELL_METADATA = Collections.singleton("tags");
+
+    private NotebookStripper() {
+    }
+
+    /**
+     * Copies a notebook without its outputs.
+     *
+     * @param in            the notebook
+     * @param out           where the stripped notebook is written
+     * @param stripMetadata also drop the metadata of the notebook and its cells, but the kernel and the cell tags
+     * @throws IOException when the notebook is not valid JSON or can not be written
+     */
+    public static void strip(Reader in, Writer out, boolean stripMetadata) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        reader.setLenient(true);
+        // the indentation of jupyter
+        JsonWriter writer = new JsonWriter(out);
+        writer.setIndent(" ");
+        reader.beginObject();
+        writer.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            writer.name(name);
+            if (name.equals("cells") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                writer.beginArray();
+                while (reader.hasNext()) {
+                    stripCell(reader, writer, stripMetadata);
+                }
+                reader.endArray();
+                writer.endArray();
+            } else if (name.equals("metadata") && stripMetadata) {
+                copyFields(reader, writer, NOTEBOOK_METADATA);
+            } else {
+                copy(reader, writer);
+            }
+        }
+        reader.endObject();
+        writer.endObject();
+        writer.flush();
+        out.write('\n');
+        out.flush();
+    }
+
+    private static void stripCell(JsonReader reader, JsonWriter writer, boolean stripMetadata) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            copy(reader, writer);
+            return;
+        }
+        reader.beginObject();
+        writer.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            writer.name(name);
+            switch (name) {
+                case "outputs":
+                    // code cells must still have outputs
+                    reader.skipValue();
+                    writer.beginArray().endArray();
+                    break;
+                case "execution_count":
+                    reader.skipValue();
+                    writer.nullValue();
+                    break;
+                case "metadata":
+                    if (stripMetadata) {
+                        copyFields(reader, writer, CELL_METADATA);
+                    } else {
+                        copy(reader, writer);
+                    }
+                    break;
+                default:
+                    copy(reader, writer);
+            }
+        }
+        reader.endObject();
+        writer.endObject();
+    }
+
+    private static void copyFields(JsonReader reader, JsonWriter writer, Set<String> fields) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            copy(reader, writer);
+            return;
+        }
+        reader.beginObject();
+        writer.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (fields.contains(name)) {
+                writer.name(name);
+                copy(reader, writer);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        writer.endObject();
+    }
+
+    private static void copy(JsonReader reader, JsonWriter writer) throws IOException {
+        switch (reader.peek()) {
+            case BEGIN_ARRAY:
+                reader.beginArray();
+                writer.beginArray();
+                while (reader.hasNext()) {
+                    copy(reader, writer);
+                }
+                reader.endArray();
+                writer.endArray();
+                break;
+            case BEGIN_OBJECT:
+                reader.beginObject();
+                writer.beginObject();
+                while (reader.hasNext()) {
+                    writer.name(reader.nextName());
+                    copy(reader, writer);
+                }
+                reader.endObject();
+                writer.endObject();
+                break;
+            case STRING:
+                writer.value(reader.nextString());
+                break;
+            case NUMBER:
+                // as written, a double would turn 4 into 4.0
+                writer.jsonValue(reader.nextString());
+                break;
+            case BOOLEAN:
+                writer.value(reader.nextBoolean());
+                break;
+            case NULL:
+                reader.nextNull();
+                writer.nullValue();
+                break;
+            default:
+                throw new IOException("Unexpected " + reader.peek() + " in the notebook");
+        }
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Loghi Perinpanayagam.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.jenkins.plugins.ml.utils;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes the image and html outputs of the kernel on background threads, so a slow disk does not
+ * hold up the next cell.
+ *
+ * At most {@code threads + capacity} writes are pending, {@link #submit(Write)} blocks until one
+ * of them is done when there are more. {@link #flush()} waits for every pending write and throws
+ * the first failure.
+ */
+public final class OutputWriter implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OutputWriter.class);
+    // how long closing waits for the writes still pending
+    private static final long CLOSE_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+
+    private final ExecutorService executor;
+    private final Semaphore slots;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger maxPending = new AtomicInteger();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong();
+    private final AtomicLong maxLatency = new AtomicLong();
+    private IOException failure;
+
+    /**
+     * Instantiates a new output writer.
+     *
+     * @param threads  the number of writes running at a time
+     * @param capacity the number of writes waiting for a thread
+     */
+    public OutputWriter(int threads, int capacity) {
+        this.executor = Executors.newFixedThreadPool(threads,
+                new NamingThreadFactory(new DaemonThreadFactory(), "OutputWriter"));
+        this.slots = new Semaphore(threads + capacity);
+    }
+
+    /**
+     * Queues a write, waiting while the queue is full.
+     *
+     * @param write the write
+     * @throws InterruptedException when interrupted while the queue is full
+     */
+    public void submit(Write write) throws InterruptedException {
+        slots.acquire();
+        maxPending.accumulateAndGet(pending.incrementAndGet(), Math::max);
+        long queued = System.nanoTime();
+        try {
+            executor.execute(() -> run(write, queued));
+        } catch (RejectedExecutionException e) {
+            pending.decrementAndGet();
+            slots.release();
+            throw e;
+        }
+    }
+
+    private void run(Write write, long queued) {
+        try {
+            write.write();
+        } catch (IOException e) {
+            fail(e);
+        } catch (InterruptedException | RuntimeException e) {
+            fail(new IOException("Failed to write an output", e));
+        } finally {
+            done(queued);
+        }
+    }
+
+    private synchronized void fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+        } else {
+            failure.addSuppressed(e);
+        }
+    }
+
+    private void done(long queued) {
+        long latency = System.nanoTime() - queued;
+        writes.incrementAndGet();
+        totalLatency.addAndGet(latency);
+        maxLatency.accumulateAndGet(latency, Math::max);
+        synchronized (this) {
+            pending.decrementAndGet();
+            notifyAll();
+        }
+        slots.release();
+    }
+
+    /**
+     * Waits for every queued write.
+     *
+     * @throws IOException          the first write failure since the last flush
+     * @throws InterruptedException when interrupted while waiting
+     */
+    public synchronized void flush() throws IOException, InterruptedException {
+        while (pending.get() > 0) {
+            wait();
+        }
+        if (failure != null) {
+            IOException e = failure;
+            failure = null;
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the number of writes queued or running.
+     *
+     * @return the queue depth
+     */
+    public int getQueueDepth() {
+        return pending.get();
+    }
+
+    /**
+     * Gets the largest number of writes queued or running at a time.
+     *
+     * @return the maximum queue depth
+     */
+    public int getMaxQueueDepth() {
+        return maxPending.get();
+    }
+
+    /**
+     * Gets the number of writes done, failed ones included.
+     *
+     * @return the number of writes
+     */
+    public long getWrites() {
+        return writes.get();
+    }
+
+    /**
+     * Gets the average time from queueing a write to its end.
+     *
+     * @return the average write latency in milliseconds
+     */
+    public long getAverageLatency() {
+        long count = writes.get();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalLatency.get() / count);
+    }
+
+    /**
+     * Gets the longest time from queueing a write to its end.
+     *
+     * @return the maximum write latency in milliseconds
+     */
+    public long getMaxLatency() {
+        return TimeUnit.NANOSECONDS.toMillis(maxLatency.get());
+    }
+
+    /**
+     * Gets a line describing the writes done, for the build log.
+     *
+     * @return the number of writes, the maximum queue depth and the write latency
+     */
+    public String getSummary() {
+        return getMetrics().getSummary();
+    }
+
+    /**
+     * Gets the metrics of the writes done so far, to keep them with the build.
+     *
+     * @return the metrics
+     */
+    public Metrics getMetrics() {
+        return new Metrics(writes.get(), maxPending.get(), getAverageLatency(), getMaxLatency());
+    }
+
+    /**
+     * Waits for the pending writes, then stops the threads. Failures are only logged, use
+     * {@link #flush()} to get them.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                LOGGER.warn(pending.get() + " outputs were not written within "
+                        + TimeUnit.MILLISECONDS.toSeconds(CLOSE_TIMEOUT) + " seconds");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (failure != null) {
+                LOGGER.warn("Failed to write outputs", failure);
+            }
+        }
+        if (writes.get() > 0) {
+            LOGGER.info(getSummary());
+        }
+    }
+
+    /**
+     * Metrics of the writes of an output writer, see {@link #getMetrics()}.
+     */
+    public static final class Metrics implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long writes;
+        private final int maxQueueDepth;
+        private final long averageLatency;
+        private final long maxLatency;
+
+        private Metrics(long writes, int maxQueueDepth, long averageLatency, long maxLatency) {
+            this.writes = writes;
+            this.maxQueueDepth = maxQueueDepth;
+            this.averageLatency = averageLatency;
+            this.maxLatency = maxLatency;
+        }
+
+        /**
+         * @return the number of writes, failed ones included
+         */
+        public long getWrites() {
+            return writes;
+        }
+
+        /**
+         * @return the largest number of writes queued or running at a time
+         */
+        public int getMaxQueueDepth() {
+            return maxQueueDepth;
+        }
+
+        /**
+         * @return the average write latency in milliseconds
+         */
+        public long getAverageLatency() {
+            return averageLatency;
+        }
+
+        /**
+         * @return the maximum write latency in milliseconds
+         */
+        public long getMaxLatency() {
+            return maxLatency;
+        }
+
+        /**
+         * @return a line describing the writes, for the build log
+         */
+        public String getSummary() {
+            return "Wrote " + writes + " outputs, at most " + maxQueueDepth + " queued, latency "
+                    + averageLatency + " ms on average and " + maxLatency + " ms at most";
+        }
+    }
+
+    /**
+     * Writes one output, see {@link #submit(Write)}.
+     */
+    @FunctionalInterface
+    public interface Write {
+        void write() throws IOException, InterruptedException;
+    }
+}
@@ -0,0 +1,343 @@
+# The MIT License
+#
+# Copyright 2020 Loghi Perinpanayagam.
+#
+# Permission is hereby granted, free of charge, to any person obtaining a copy
+# of this software and associated documentation files (the "Software"), to deal
+# in the Software without restriction, including without limitation the rights
+# to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+# copies of the Software, and to permit persons to whom the Software is
+# furnished to do so, subject to the following conditions:
+#
+# The above copyright notice and this permission notice shall be included in
+# all copies or substantial portions of the Software.
+#
+# THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+# IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+# FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+# AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+# LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+# OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+# THE SOFTWARE.
+
+# Dependency analysis and forked execution of notebook cells, run in the IPython kernel by CellGraph.
+#
+# The analysis reports the names each cell reads and writes, or nothing for a cell it is not sure
+# about. Independent cells run in forked copies of the kernel: every child executes one cell with
+# its outputs captured, checks that the names it only read did not change, and sends back the
+# outputs and the names it wrote, which are merged into the kernel. A cell is never executed again
+# in the kernel once a child ran it, its side effects would happen twice: a child that can not be
+# merged fails its cell, and cells that can not be checked are left to the kernel before forking.
+
+import json as _jenkins_ml_json
+import os as _jenkins_ml_os
+import pickle as _jenkins_ml_pickle
+
+_JENKINS_ML_GRAPH = "jenkins-ml-graph:"
+# calls that may read or write any name
+_JENKINS_ML_DYNAMIC_CALLS = frozenset(['exec', 'eval', 'execfile', 'globals', 'locals', 'vars', 'get_ipython',
+                                       '__import__', 'setattr', 'delattr'])
+# names of the IPython output history, not part of the state sent back by a child
+_JENKINS_ML_HISTORY = frozenset(['_', '__', '___', '_i', '_ii', '_iii', '_oh', '_ih', '_dh', 'In', 'Out'])
+_jenkins_ml_cells = {}
+
+
+def _jenkins_ml_cell_visitor():
+    import ast
+
+    class CellVisitor(ast.NodeVisitor):
+        def __init__(self):
+            self.reads = set()
+            self.writes = set()
+            self.imported = set()
+            self.called = set()
+            # functions and classes bound by the cell
+            self.defined = set()
+            self.forkable = True
+            self.certain = True
+            # names bound inside functions, lambdas and comprehensions are local to them
+            self.scope = 0
+
+        def write(self, name):
+            if self.scope == 0:
+                self.writes.add(name)
+
+        def root(self, node):
+            while isinstance(node, (ast.Attribute, ast.Subscript)):
+                node = node.value
+            return node.id if isinstance(node, ast.Name) else None
+
+        def visit_Name(self, node):
+            if isinstance(node.ctx, ast.Load):
+                self.reads.add(node.id)
+            else:
+                self.write(node.id)
+
+        def visit_Attribute(self, node):
+            if not isinstance(node.ctx, ast.Load):
+                self.changes(node)
+            self.generic_visit(node)
+
+        visit_Subscript = visit_Attribute
+
+        def changes(self, node):
+            name = self.root(node)
+            if name is not None:
+                self.reads.add(name)
+                self.write(name)
+
+        def visit_Assign(self, node):
+            if isinstance(node.value, ast.Lambda) and self.scope == 0:
+                self.defined.update(target.id for target in node.targets if isinstance(target, ast.Name))
+            self.generic_visit(node)
+
+        def visit_AugAssign(self, node):
+            if isinstance(node.target, ast.Name):
+                self.reads.add(node.target.id)
+            self.generic_visit(node)
+
+        def visit_Call(self, node):
+            if isinstance(node.func, ast.Name) and node.func.id in _JENKINS_ML_DYNAMIC_CALLS:
+                self.certain = False
+            if isinstance(node.func, ast.Attribute):
+                name = self.root(node.func.value)
+                if name is not None:
+                    self.called.add(name)
+            self.generic_visit(node)
+
+        def visit_Import(self, node):
+            for alias in node.names:
+                if alias.name == '*':
+                    self.certain = False
+                else:
+                    self.imported.add(alias.asname or alias.name.split('.')[0])
+                    self.write(alias.asname or alias.name.split('.')[0])
+
+        visit_ImportFrom = visit_Import
+
+        def visit_Global(self, node):
+            self.certain = False
+
+        visit_Nonlocal = visit_Global
+
+        def visit_NamedExpr(self, node):
+            # binds in the enclosing scope, even in a comprehension
+            self.writes.add(node.target.id)
+            self.visit(node.value)
+
+        def definition(self, node):
+            # pickle only sends functions and classes by reference, the kernel would not find them
+            self.forkable = False
+            self.write(node.name)
+            if self.scope == 0:
+                self.defined.add(node.name)
+            self.scoped(node)
+
+        visit_FunctionDef = visit_AsyncFunctionDef = visit_ClassDef = definition
+
+        def scoped(self, node):
+            self.scope += 1
+            self.generic_visit(node)
+            self.scope -= 1
+
+        visit_Lambda = visit_ListComp = visit_SetComp = visit_DictComp = visit_GeneratorExp = scoped
+
+    return CellVisitor()
+
+
+def _jenkins_ml_analyze_cell(code):
+    import ast
+    import re
+    try:
+        tree = ast.parse(get_ipython().transform_cell(code))
+    except SyntaxError:
+        return None
+    visitor = _jenkins_ml_cell_visitor()
+    visitor.visit(tree)
+    if not visitor.certain or any(name in _JENKINS_ML_HISTORY or re.match(r'^_i?\d+$', name)
+                                  for name in visitor.reads):
+        return None
+    return visitor
+
+
+def _jenkins_ml_analyze(cells):
+    # forked copies of the kernel need os.fork
+    if not hasattr(_jenkins_ml_os, 'fork'):
+        print(_JENKINS_ML_GRAPH + 'null')
+        return
+    _jenkins_ml_cells.clear()
+    cells = _jenkins_ml_json.loads(cells)
+    visitors = [_jenkins_ml_analyze_cell(code) for code in cells]
+    # a method may change its object, unless the object is a module only ever bound by imports
+    imported, assigned = set(), set()
+    for visitor in visitors:
+        if visitor is not None:
+            imported |= visitor.imported
+            assigned |= visitor.writes - visitor.imported
+    modules = imported - assigned
+    # a function of the notebook may read, change or rebind any global, whoever calls it runs in order
+    defined = set()
+    for visitor in visitors:
+        if visitor is not None:
+            defined |= visitor.defined
+    graph = []
+    for index, visitor in enumerate(visitors):
+        if visitor is None or visitor.reads & defined:
+            graph.append(None)
+            continue
+        writes = sorted(visitor.writes | (visitor.called - modules))
+        _jenkins_ml_cells[index] = (cells[index], sorted(visitor.reads), writes)
+        graph.append({'forkable': visitor.forkable, 'reads': sorted(visitor.reads), 'writes': writes})
+    print(_JENKINS_ML_GRAPH + _jenkins_ml_json.dumps(graph))
+
+
+def _jenkins_ml_digest(value):
+    import hashlib
+    try:
+        return hashlib.sha1(_jenkins_ml_pickle.dumps(value, protocol=2)).hexdigest()
+    except Exception:
+        return None
+
+
+def _jenkins_ml_outputs(captured):
+    outputs = []
+    for text in (captured.stdout, captured.stderr):
+        if text:
+            outputs.append({'type': 'TEXT', 'data': text})
+    for output in captured.outputs:
+        data = output.data
+        if 'text/html' in data:
+            outputs.append({'type': 'HTML', 'data': data['text/html']})
+        elif any(mime in data for mime in ('image/jpeg', 'image/png', 'image/gif')):
+            # the data uri keeps the format of the image along with it
+            mime = next(mime for mime in ('image/jpeg', 'image/png', 'image/gif') if mime in data)
+            outputs.append({'type': 'IMG', 'data': 'data:%s;base64,%s' % (mime, data[mime])})
+        elif 'image/svg+xml' in data:
+            outputs.append({'type': 'SVG', 'data': data['image/svg+xml']})
+        elif 'text/plain' in data:
+            outputs.append({'type': 'TEXT', 'data': data['text/plain'] + '\n'})
+    return outputs
+
+
+def _jenkins_ml_read_digests(index):
+    # digests of the names the cell only reads, None when one of them can not be compared
+    import types
+    ns = get_ipython().user_ns
+    code, reads, writes = _jenkins_ml_cells[index]
+    digests = {}
+    for name in reads:
+        if name in ns and name not in writes and not isinstance(ns[name], types.ModuleType):
+            digests[name] = _jenkins_ml_digest(ns[name])
+            if digests[name] is None:
+                return None
+    return digests
+
+
+def _jenkins_ml_child(index, path, before):
+    import sys
+    import types
+    from IPython.utils.capture import capture_output
+    shell = get_ipython()
+    ns = shell.user_ns
+    code, reads, writes = _jenkins_ml_cells[index]
+    result = {'status': 'SUCCESS', 'mutated': [], 'values': None, 'error': None}
+    # the kernel sends tracebacks over its sockets, which belong to the parent
+    shell._showtraceback = lambda etype, evalue, stb: sys.stdout.write(shell.InteractiveTB.stb2text(stb) + '\n')
+    with capture_output() as captured:
+        executed = shell.run_cell(code, store_history=False)
+    if not executed.success:
+        result['status'] = 'ERROR'
+    result['outputs'] = _jenkins_ml_outputs(captured)
+    result['mutated'] = [name for name, digest in before.items() if _jenkins_ml_digest(ns.get(name)) != digest]
+    modules, values = {}, {}
+    for name in writes:
+        if name not in ns:
+            continue
+        if isinstance(ns[name], types.ModuleType):
+            modules[name] = ns[name].__name__
+        else:
+            values[name] = ns[name]
+    try:
+        result['values'] = _jenkins_ml_pickle.dumps((modules, values, [name for name in writes if name not in ns]),
+                                                    protocol=_jenkins_ml_pickle.HIGHEST_PROTOCOL)
+    except Exception as e:
+        result['error'] = str(e)
+    with open(path, 'wb') as f:
+        _jenkins_ml_pickle.dump(result, f, protocol=_jenkins_ml_pickle.HIGHEST_PROTOCOL)
+
+
+def _jenkins_ml_merge(values):
+    import importlib
+    modules, values, deleted = _jenkins_ml_pickle.loads(values)
+    ns = get_ipython().user_ns
+    for name, module in modules.items():
+        ns[name] = importlib.import_module(module)
+    ns.update(values)
+    for name in deleted:
+        ns.pop(name, None)
+
+
+def _jenkins_ml_fork(indexes):
+    import shutil
+    import signal
+    import sys
+    import tempfile
+    # a cell reading names that can not be compared is not sure to behave like in the kernel, it is
+    # left to the kernel before it runs anywhere
+    digests = dict((index, _jenkins_ml_read_digests(index)) for index in indexes)
+    forked = [index for index in indexes if digests[index] is not None]
+    directory = tempfile.mkdtemp(prefix='jenkins_ml_fork_')
+    children = {}
+    results = {}
+    try:
+        for index in forked:
+            # buffered output would be written again by the child
+            sys.stdout.flush()
+            sys.stderr.flush()
+            pid = _jenkins_ml_os.fork()
+            if pid == 0:
+                status = 1
+                try:
+                    _jenkins_ml_child(index, _jenkins_ml_os.path.join(directory, str(index)), digests[index])
+                    status = 0
+                finally:
+                    _jenkins_ml_os._exit(status)
+            children[index] = pid
+        for index in forked:
+            _jenkins_ml_os.waitpid(children.pop(index), 0)
+            path = _jenkins_ml_os.path.join(directory, str(index))
+            if _jenkins_ml_os.path.isfile(path):
+                with open(path, 'rb') as f:
+                    results[index] = _jenkins_ml_pickle.load(f)
+    finally:
+        # interrupted, the children must not outlive the cell
+        for pid in children.values():
+            try:
+                _jenkins_ml_os.kill(pid, signal.SIGKILL)
+                _jenkins_ml_os.waitpid(pid, 0)
+            except OSError:
+                pass
+        shutil.rmtree(directory, ignore_errors=True)
+    report = []
+    for index in indexes:
+        if digests[index] is None:
+            report.append({'index': index, 'status': 'SERIAL', 'outputs': []})
+            continue
+        result = results.get(index)
+        if result is None:
+            report.append({'index': index, 'status': 'CRASHED', 'outputs': []})
+            continue
+        status, outputs = result['status'], result['outputs']
+        # the cell already ran, so it fails rather than running again in the kernel
+        if result['mutated']:
+            status = 'ERROR'
+            outputs.append({'type': 'TEXT', 'data': 'Cell changed ' + ', '.join(result['mutated'])
+                            + ' without assigning it, so it can not run in a forked kernel\n'})
+        elif status == 'SUCCESS' and result['values'] is None:
+            status = 'ERROR'
+            outputs.append({'type': 'TEXT', 'data': 'Variables of the cell can not be copied to the kernel: '
+                            + result['error'] + '\n'})
+        if status == 'SUCCESS':
+            _jenkins_ml_merge(result['values'])
+        report.append({'index': index, 'status': status, 'outputs': outputs})
+    print(_JENKINS_ML_GRAPH + _jenkins_ml_json.dumps({'cells': report}))
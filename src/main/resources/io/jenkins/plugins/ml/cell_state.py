@@ -0,0 +1,78 @@
+# The MIT License
+#
+# Copyright 2020 Loghi Perinpanayagam.
+#
+# Permission is hereby granted, free of charge, to any person obtaining a copy
+# of this software and associated documentation files (the "Software"), to deal
+# in the Software without restriction, including without limitation the rights
+# to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+# copies of the Software, and to permit persons to whom the Software is
+# furnished to do so, subject to the following conditions:
+#
+# The above copyright notice and this permission notice shall be included in
+# all copies or substantial portions of the Software.
+#
+# THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+# IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+# FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+# AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+# LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+# OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+# THE SOFTWARE.
+
+# Snapshots of the kernel state for the cell cache, run in the IPython kernel by CellCache.
+#
+# A snapshot pickles the user namespace after a cell, imported modules are recorded by name. It is
+# only written when every variable can be restored without executing the notebook again, so
+# functions and classes defined in the notebook make the state of that cell not cacheable.
+
+import os as _jenkins_ml_os
+import pickle as _jenkins_ml_pickle
+import types as _jenkins_ml_types
+
+_JENKINS_ML_RESTORED = "jenkins-ml-state-restored"
+
+
+def _jenkins_ml_user_namespace():
+    ns = get_ipython().user_ns
+    hidden = get_ipython().user_ns_hidden
+    for name, value in list(ns.items()):
+        if not name.startswith('_') and name not in hidden:
+            yield name, value
+
+
+def _jenkins_ml_snapshot(path, max_bytes):
+    # runs between the cells of the notebook, a state that can not be written is just not cached
+    try:
+        modules, values = {}, {}
+        for name, value in _jenkins_ml_user_namespace():
+            if isinstance(value, _jenkins_ml_types.ModuleType):
+                modules[name] = value.__name__
+            elif getattr(value, '__module__', None) == '__main__' or \
+                    getattr(type(value), '__module__', None) == '__main__':
+                return
+            else:
+                values[name] = value
+        data = _jenkins_ml_pickle.dumps((modules, values), protocol=_jenkins_ml_pickle.HIGHEST_PROTOCOL)
+        if len(data) > max_bytes:
+            return
+        directory = _jenkins_ml_os.path.dirname(path)
+        if not _jenkins_ml_os.path.isdir(directory):
+            _jenkins_ml_os.makedirs(directory)
+        with open(path + '.tmp', 'wb') as f:
+            f.write(data)
+        # os.replace also overwrites on windows, python 2 only has os.rename
+        getattr(_jenkins_ml_os, 'replace', _jenkins_ml_os.rename)(path + '.tmp', path)
+    except Exception:
+        pass
+
+
+def _jenkins_ml_restore(path):
+    import importlib
+    with open(path, 'rb') as f:
+        modules, values = _jenkins_ml_pickle.load(f)
+    ns = get_ipython().user_ns
+    for name, module in modules.items():
+        ns[name] = importlib.import_module(module)
+    ns.update(values)
+    print(_JENKINS_ML_RESTORED)
@@ -0,0 +1,280 @@
+# Licensed to the Apache Software Foundation (ASF) under one or more
+# contributor license agreements.  See the NOTICE file distributed with
+# this work for additional information regarding copyright ownership.
+# The ASF licenses this file to You under the Apache License, Version 2.0
+# (the "License"); you may not use this file except in compliance with
+# the License.  You may obtain a copy of the License at
+#
+#    http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+# Copied from org.apache.zeppelin grpc/jupyter/kernel_server.py
+# The server prints READY_MARKER and its address once the kernel is started, so the JVM does not
+# have to poll. It binds a unix domain socket or a loopback port chosen by the OS, so concurrent
+# kernels do not race for a free port.
+# serve() takes a kernel factory so kernel_zygote.py can bridge kernels it forked itself.
+# Cells of a notebook may be sent before the previous ones completed, they carry a PIPELINE_KEY
+# metadata "<pipeline id>/<sequence>/<count>" and run strictly in sequence, see KernelServer.execute.
+
+from __future__ import print_function
+
+import base64
+import jupyter_client
+import os
+import sys
+import threading
+import time
+from concurrent import futures
+
+import grpc
+import kernel_pb2
+import kernel_pb2_grpc
+
+is_py2 = sys.version[0] == '2'
+if is_py2:
+    import Queue as queue
+else:
+    import queue as queue
+
+READY_MARKER = "jenkins-ml-kernel-ready"
+UNIX_PREFIX = "unix:"
+PIPELINE_KEY = "jenkins-ml-pipeline"
+# sent by clients reading images as raw bytes from the data field of ExecuteResponse
+RAW_DATA_KEY = "jenkins-ml-raw-data"
+# sent by clients handling the SVG output type, the JupyterKernelClient of zeppelin drops it
+SVG_KEY = "jenkins-ml-svg"
+# image types of the display data sent as raw bytes, and the output type of each
+RAW_TYPES = (('image/jpeg', kernel_pb2.JPEG), ('image/png', kernel_pb2.PNG), ('image/gif', kernel_pb2.PNG))
+
+
+class Pipeline(object):
+    """Turn of the cells sent on one pipeline, cells after a failed one are skipped."""
+
+    def __init__(self):
+        self.next = 0
+        self.failed = False
+
+
+class KernelServer(kernel_pb2_grpc.JupyterKernelServicer):
+
+    def __init__(self, server, kernel_name):
+        self._status = kernel_pb2.STARTING
+        self._server = server
+        self._kernel_name = kernel_name
+        # issue with execute_interactive and auto completion: https://github.com/jupyter/jupyter_client/issues/429
+        # in all case because ipython does not support run and auto completion at the same time: https://github.com/jupyter/notebook/issues/3763
+        # For now we will lock to ensure that there is no concurrent bug that can "hang" the kernel
+        self._lock = threading.Lock()
+        self._pipelines = {}
+        self._pipelines_condition = threading.Condition()
+
+    def start(self):
+        print("starting...")
+        sys.stdout.flush()
+        self._km, self._kc = jupyter_client.manager.start_new_kernel(kernel_name=self._kernel_name)
+        self._status = kernel_pb2.RUNNING
+
+    def execute(self, request, context):
+        metadata = dict(context.invocation_metadata())
+        pipeline = metadata.get(PIPELINE_KEY)
+        raw = RAW_DATA_KEY in metadata
+        svg = SVG_KEY in metadata
+        if pipeline is None:
+            for response in self._execute(request, raw, svg):
+                yield response
+            return
+        pipeline_id, seq, count = pipeline.rsplit('/', 2)
+        seq, count = int(seq), int(count)
+        with self._pipelines_condition:
+            state = self._pipelines.setdefault(pipeline_id, Pipeline())
+            while state.next < seq and context.is_active():
+                self._pipelines_condition.wait(1)
+            run = not state.failed and context.is_active()
+        failed = True
+        try:
+            if run:
+                failed = False
+                for response in self._execute(request, raw, svg):
+                    if response.status == kernel_pb2.ERROR:
+                        failed = True
+                    yield response
+        finally:
+            # also reached when the client cancels the call and the generator is closed
+            with self._pipelines_condition:
+                state.failed = state.failed or failed
+                state.next = max(state.next, seq + 1)
+                if state.failed or state.next >= count:
+                    # nothing queued after a failed cell is run, the pipeline is over
+                    self._pipelines.pop(pipeline_id, None)
+                self._pipelines_condition.notify_all()
+
+    def _execute(self, request, raw=False, svg=False):
+        # print("execute code:\n")
+        # print(request.code.encode('utf-8'))
+        sys.stdout.flush()
+        stream_reply_queue = queue.Queue(maxsize = 30)
+        payload_reply = []
+        def _output_hook(msg):
+            # print("msg: " + str(msg))
+            msg_type = msg['header']['msg_type']
+            content = msg['content']
+            # print("******************")
+            # print(msg)
+            outStatus, outType, output, mime = kernel_pb2.SUCCESS, None, None, ''
+            # prepare the reply
+            if msg_type == 'stream':
+                outType = kernel_pb2.TEXT
+                output = content['text']
+            elif msg_type in ('display_data', 'execute_result'):
+                # print(content['data'])
+                # The if-else order matters, can not be changed. Because ipython may provide multiple output.
+                # TEXT is the last resort type.
+                raw_type = [(mime, t) for mime, t in RAW_TYPES if mime in content['data']] if raw else []
+                if raw_type and 'text/html' not in content['data']:
+                    # jupyter sends images in base64, the client gets the decoded bytes
+                    mime, t = raw_type[0]
+                    stream_reply_queue.put(kernel_pb2.ExecuteResponse(status=outStatus, type=t, mime_type=mime,
+                                                                      data=base64.b64decode(content['data'][mime])))
+                elif 'text/html' in content['data']:
+                    outType = kernel_pb2.HTML
+                    output = content['data']['text/html']
+                elif any(m in content['data'] for m, t in RAW_TYPES):
+                    # there is no GIF type, the mime type tells the format of the image
+                    mime, outType = next((m, t) for m, t in RAW_TYPES if m in content['data'])
+                    output = content['data'][mime]
+                elif 'image/svg+xml' in content['data']:
+                    # inline svg is valid html for the clients not knowing the SVG type
+                    outType = kernel_pb2.SVG if svg else kernel_pb2.HTML
+                    output = content['data']['image/svg+xml']
+                elif 'application/javascript' in content['data']:
+                    outType = kernel_pb2.HTML
+                    output = '<script> ' + content['data']['application/javascript'] + ' </script>\n'
+                elif 'application/vnd.holoviews_load.v0+json' in content['data']:
+                    outType = kernel_pb2.HTML
+                    output = '<script> ' + content['data']['application/vnd.holoviews_load.v0+json'] + ' </script>\n'
+                elif 'text/plain' in content['data']:
+                    outType = kernel_pb2.TEXT
+                    output = content['data']['text/plain']
+            elif msg_type == 'error':
+                outStatus = kernel_pb2.ERROR
+                outType = kernel_pb2.TEXT
+                output = '\n'.join(content['traceback'])
+            elif msg_type == 'clear_output':
+                outType = kernel_pb2.CLEAR
+                output = ""
+
+            # send reply if we supported the output type
+            if outType is not None:
+                stream_reply_queue.put(
+                    kernel_pb2.ExecuteResponse(status=outStatus,
+                                                type=outType,
+                                                output=output,
+                                                mime_type=mime))
+        def execute_worker():
+            try:
+                reply = self._kc.execute_interactive(request.code,
+                                              output_hook=_output_hook,
+                                              timeout=None)
+                payload_reply.append(reply)
+            finally:
+                # end of execution, the consumer stops once it reads it
+                stream_reply_queue.put(None)
+
+        t = threading.Thread(name="ConsumerThread", target=execute_worker)
+        t.daemon = True
+        completed = False
+        with self._lock:
+            t.start()
+            # Replies are yielded as soon as they are queued, until the worker queues the end of
+            # the execution. However we also ensure that the kernel is alive because in case of OOM
+            # or other errors execution might be stuck there: (might open issue on jupyter client)
+            # https://github.com/jupyter/jupyter_client/blob/master/jupyter_client/blocking/client.py#L323
+            while True:
+                try:
+                    reply = stream_reply_queue.get(timeout=1)
+                except queue.Empty:
+                    if self.isKernelAlive():
+                        continue
+                    break
+                if reply is None:
+                    completed = bool(payload_reply)
+                    break
+                yield reply
+
+            # if kernel is not alive or the execution did not complete, it means that we face an issue.
+            if not self.isKernelAlive() or not completed:
+                yield kernel_pb2.ExecuteResponse(status=kernel_pb2.ERROR,
+                                                  type=kernel_pb2.TEXT,
+                                                  output="Ipython kernel has been stopped. Please check logs. It might be because of an out of memory issue.")
+        if payload_reply:
+            result = []
+            for payload in payload_reply[0]['content']['payload']:
+                if payload['data']['text/plain']:
+                    result.append(payload['data']['text/plain'])
+            if result:
+                yield kernel_pb2.ExecuteResponse(status=kernel_pb2.SUCCESS,
+                                                  type=kernel_pb2.TEXT,
+                                                  output='\n'.join(result))
+
+    def cancel(self, request, context):
+        self._km.interrupt_kernel()
+        return kernel_pb2.CancelResponse()
+
+    def complete(self, request, context):
+        with self._lock:
+            reply = self._kc.complete(request.code, request.cursor, reply=True, timeout=None)
+        return kernel_pb2.CompletionResponse(matches=reply['content']['matches'])
+
+    def status(self, request, context):
+        return kernel_pb2.StatusResponse(status = self._status)
+
+    def isKernelAlive(self):
+        return self._km.is_alive()
+
+    def terminate(self):
+        self._km.shutdown_kernel()
+
+    def stop(self, request, context):
+        self.terminate()
+        return kernel_pb2.StopResponse()
+
+
+def serve(kernel_name, address, kernel_factory=KernelServer):
+    server = grpc.server(futures.ThreadPoolExecutor(max_workers=10))
+    kernel = kernel_factory(server, kernel_name)
+    # handlers are tried in order, this one serializes the RawResponses of execute
+    server.add_generic_rpc_handlers((grpc.method_handlers_generic_handler('jupyter.JupyterKernel', {
+        'execute': grpc.unary_stream_rpc_method_handler(
+            kernel.execute,
+            request_deserializer=kernel_pb2.ExecuteRequest.FromString,
+            response_serializer=lambda response: response.SerializeToString()),
+    }),))
+    kernel_pb2_grpc.add_JupyterKernelServicer_to_server(kernel, server)
+    if address.startswith(UNIX_PREFIX):
+        server.add_insecure_port(address)
+    else:
+        # port 0 lets the OS pick a free port, the bound one is reported with the ready line
+        address = str(server.add_insecure_port('127.0.0.1:' + address))
+    server.start()
+    kernel.start()
+    print(READY_MARKER + ' ' + address)
+    sys.stdout.flush()
+    try:
+        while kernel.isKernelAlive():
+            time.sleep(1)
+    except KeyboardInterrupt:
+        print("interrupted")
+    finally:
+        print("shutdown")
+        # we let 2 sc for all request to be complete
+        server.stop(2)
+        kernel.terminate()
+        os._exit(0)
+
+if __name__ == '__main__':
+    serve(sys.argv[1], sys.argv[2])
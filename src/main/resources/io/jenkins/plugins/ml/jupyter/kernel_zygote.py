@@ -0,0 +1,232 @@
+# The MIT License
+#
+# Copyright 2020 Loghi Perinpanayagam.
+#
+# Permission is hereby granted, free of charge, to any person obtaining a copy
+# of this software and associated documentation files (the "Software"), to deal
+# in the Software without restriction, including without limitation the rights
+# to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+# copies of the Software, and to permit persons to whom the Software is
+# furnished to do so, subject to the following conditions:
+#
+# The above copyright notice and this permission notice shall be included in
+# all copies or substantial portions of the Software.
+#
+# THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+# IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+# FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+# AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+# LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+# OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+# THE SOFTWARE.
+
+# Fork server for jupyter kernels.
+#
+# The zygote imports the kernel server, ipykernel and the preloaded modules once, then waits on
+# a unix socket. Every connection is served by a forked child: the child forks the IPython kernel
+# itself, so the kernel starts with the modules already imported and shares their pages with the
+# zygote, then runs the grpc bridge of kernel_server.py for it. The connection becomes stdin,
+# stdout and stderr of the child, zygote_client.py relays it to the JVM, and closing it from the
+# client side stops the kernel.
+#
+# usage: python kernel_zygote.py <socket path> [module ...]
+
+from __future__ import print_function
+
+import json
+import os
+import signal
+import socket
+import sys
+import threading
+import time
+import uuid
+
+import jupyter_client.kernelspec
+import kernel_pb2
+import kernel_server
+from ipykernel.kernelapp import IPKernelApp
+
+READY_MARKER = kernel_server.READY_MARKER
+# the kernel gets this long to shut down before it is killed
+SHUTDOWN_TIMEOUT = 2
+
+
+class ForkedKernelServer(kernel_server.KernelServer):
+    """Bridge to a kernel forked by this process instead of one started by a KernelManager."""
+
+    def __init__(self, server, kernel_name, pid, connection_file):
+        kernel_server.KernelServer.__init__(self, server, kernel_name)
+        self._pid = pid
+        self._connection_file = connection_file
+        self._exited = False
+
+    def start(self):
+        self._kc = jupyter_client.BlockingKernelClient(connection_file=self._connection_file)
+        self._kc.load_connection_file()
+        self._kc.start_channels()
+        self._kc.wait_for_ready(timeout=60)
+        self._status = kernel_pb2.RUNNING
+
+    def cancel(self, request, context):
+        try:
+            os.kill(self._pid, signal.SIGINT)
+        except OSError:
+            pass
+        return kernel_pb2.CancelResponse()
+
+    def isKernelAlive(self):
+        if self._exited:
+            return False
+        try:
+            pid, _ = os.waitpid(self._pid, os.WNOHANG)
+        except OSError:
+            # reaped by another thread
+            pid = self._pid
+        if pid != 0:
+            self._exited = True
+        return not self._exited
+
+    def terminate(self):
+        if self.isKernelAlive():
+            self._kc.shutdown()
+            deadline = time.time() + SHUTDOWN_TIMEOUT
+            while self.isKernelAlive() and time.time() < deadline:
+                time.sleep(0.05)
+        if self.isKernelAlive():
+            kill(self._pid)
+        self._kc.stop_channels()
+        try:
+            os.remove(self._connection_file)
+        except OSError:
+            pass
+
+
+def kill(pid):
+    try:
+        os.kill(pid, signal.SIGKILL)
+        os.waitpid(pid, 0)
+    except OSError:
+        pass
+
+
+def is_ipython_kernel(kernel_name):
+    try:
+        spec = jupyter_client.kernelspec.KernelSpecManager().get_kernel_spec(kernel_name)
+    except Exception:
+        return False
+    return any('ipykernel' in arg for arg in spec.argv)
+
+
+def read_request(conn):
+    data = b''
+    while not data.endswith(b'\n'):
+        chunk = conn.recv(4096)
+        if not chunk:
+            raise IOError("connection closed before the request was complete")
+        data += chunk
+    return json.loads(data.decode('utf-8'))
+
+
+def fork_kernel():
+    runtime_dir = os.environ.get('JUPYTER_RUNTIME_DIR') or os.getcwd()
+    connection_file = os.path.join(runtime_dir, 'kernel-%d.json' % os.getpid())
+    jupyter_client.connect.write_connection_file(connection_file, ip='127.0.0.1',
+                                                 key=str(uuid.uuid4()).encode('ascii'))
+    pid = os.fork()
+    if pid == 0:
+        try:
+            app = IPKernelApp.instance(connection_file=connection_file)
+            app.initialize([])
+            app.start()
+        finally:
+            os._exit(0)
+    return pid, connection_file
+
+
+def watch_client(pid, connection_file):
+    # stdin is the connection, it only reaches end of file once zygote_client.py is gone
+    while True:
+        try:
+            data = os.read(0, 1024)
+        except OSError:
+            data = b''
+        if not data:
+            break
+    kill(pid)
+    try:
+        os.remove(connection_file)
+    except OSError:
+        pass
+    os._exit(0)
+
+
+def run_child(conn):
+    signal.signal(signal.SIGCHLD, signal.SIG_DFL)
+    os.setsid()
+    request = read_request(conn)
+    for fd in (0, 1, 2):
+        os.dup2(conn.fileno(), fd)
+    conn.close()
+    os.environ.clear()
+    os.environ.update(request['env'])
+    os.chdir(request['cwd'])
+    # the kernel is always forked from ipykernel, never pretend to start another one
+    if not is_ipython_kernel(request['kernel']):
+        print("kernel %s is not an IPython kernel, the fork server can not start it" % request['kernel'])
+        sys.stdout.flush()
+        os._exit(1)
+    # fork the kernel before the bridge starts any grpc thread
+    pid, connection_file = fork_kernel()
+    watcher = threading.Thread(name="ClientWatcher", target=watch_client, args=(pid, connection_file))
+    watcher.daemon = True
+    watcher.start()
+    kernel_server.serve(request['kernel'], request['address'],
+                        lambda server, name: ForkedKernelServer(server, name, pid, connection_file))
+
+
+def preload(modules):
+    for name in modules:
+        started = time.time()
+        try:
+            __import__(name)
+            print("preloaded %s in %.2fs" % (name, time.time() - started))
+        except Exception as e:
+            print("fail to preload %s: %s" % (name, e))
+
+
+def serve(socket_path, modules):
+    preload(modules)
+    parent = os.getppid()
+    # children are never waited for, let the kernel reap them
+    signal.signal(signal.SIGCHLD, signal.SIG_IGN)
+    if os.path.exists(socket_path):
+        os.remove(socket_path)
+    listener = socket.socket(socket.AF_UNIX, socket.SOCK_STREAM)
+    listener.bind(socket_path)
+    os.chmod(socket_path, 0o600)
+    listener.listen(16)
+    listener.settimeout(1)
+    print(READY_MARKER)
+    sys.stdout.flush()
+    while os.getppid() == parent:
+        try:
+            conn, _ = listener.accept()
+        except socket.timeout:
+            continue
+        conn.settimeout(None)
+        pid = os.fork()
+        if pid == 0:
+            listener.close()
+            try:
+                run_child(conn)
+            finally:
+                os._exit(1)
+        conn.close()
+    print("parent process is gone, shutdown")
+    listener.close()
+    os.remove(socket_path)
+
+
+if __name__ == '__main__':
+    serve(sys.argv[1], sys.argv[2:])
@@ -0,0 +1,134 @@
+# The MIT License
+#
+# Copyright 2020 Loghi Perinpanayagam.
+#
+# Permission is hereby granted, free of charge, to any person obtaining a copy
+# of this software and associated documentation files (the "Software"), to deal
+# in the Software without restriction, including without limitation the rights
+# to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+# copies of the Software, and to permit persons to whom the Software is
+# furnished to do so, subject to the following conditions:
+#
+# The above copyright notice and this permission notice shall be included in
+# all copies or substantial portions of the Software.
+#
+# THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+# IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+# FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+# AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+# LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+# OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+# THE SOFTWARE.
+
+
+# Runs the cells of a notebook on a kernel of its own, detached from the JVM that launched it, so
+# the run outlives both the agent connection and a restart of the controller.
+#
+# Everything goes through the control directory: the runner reads the cells from cells.json,
+# appends every output to output.jsonl as soon as the kernel sends it, touches heartbeat while it
+# is alive and finally writes its exit code to result. Creating the stop file interrupts the
+# running cell and skips the remaining ones. The outputs are the ones of kernel_server.py.
+#
+# usage: python notebook_runner.py <control directory> <kernel name>
+
+from __future__ import print_function
+
+import io
+import json
+import os
+import sys
+import threading
+import time
+
+import kernel_pb2
+import kernel_server
+
+CELLS = 'cells.json'
+OUTPUT = 'output.jsonl'
+HEARTBEAT = 'heartbeat'
+RESULT = 'result'
+STOP = 'stop'
+HEARTBEAT_INTERVAL = 1
+
+# exit codes written to the result file
+SUCCESS = 0
+FAILED = 1
+STOPPED = 2
+# the runner itself failed, its log tells why
+CRASHED = 3
+
+TYPES = {kernel_pb2.TEXT: 'TEXT', kernel_pb2.PNG: 'PNG', kernel_pb2.JPEG: 'JPEG',
+         kernel_pb2.HTML: 'HTML', kernel_pb2.SVG: 'SVG', kernel_pb2.CLEAR: 'CLEAR'}
+
+
+def write_record(out, record):
+    out.write((json.dumps(record) + '\n').encode('utf-8'))
+    out.flush()
+
+
+def write_result(control, code):
+    # the result only shows up once complete, after the last output
+    tmp = os.path.join(control, RESULT + '.tmp')
+    with open(tmp, 'w') as f:
+        f.write(str(code))
+    os.rename(tmp, os.path.join(control, RESULT))
+
+
+def watch(control, kernel, stopped):
+    heartbeat = os.path.join(control, HEARTBEAT)
+    while True:
+        with open(heartbeat, 'a'):
+            os.utime(heartbeat, None)
+        if not stopped.is_set() and os.path.exists(os.path.join(control, STOP)):
+            print("stop requested")
+            sys.stdout.flush()
+            stopped.set()
+            kernel.cancel(None, None)
+        time.sleep(HEARTBEAT_INTERVAL)
+
+
+def run(control, kernel, cells, stopped):
+    with open(os.path.join(control, OUTPUT), 'ab') as out:
+        for index, cell in enumerate(cells):
+            if stopped.is_set():
+                return STOPPED
+            failed = False
+            for response in kernel._execute(kernel_pb2.ExecuteRequest(code=cell)):
+                failed = failed or response.status == kernel_pb2.ERROR
+                write_record(out, {'cell': index, 'type': TYPES.get(response.type, 'TEXT'),
+                                   'mime': response.mime_type, 'output': response.output})
+            write_record(out, {'cell': index, 'end': 'ERROR' if failed else 'SUCCESS'})
+            if failed:
+                return STOPPED if stopped.is_set() else FAILED
+    return SUCCESS
+
+
+def main(control, kernel_name):
+    if hasattr(os, 'setsid'):
+        try:
+            # leave the session of the agent, a hang up of its connection does not reach the kernel
+            os.setsid()
+        except OSError:
+            pass
+    with io.open(os.path.join(control, CELLS), encoding='utf-8') as f:
+        cells = json.load(f)
+    kernel = kernel_server.KernelServer(None, kernel_name)
+    stopped = threading.Event()
+    code = CRASHED
+    try:
+        kernel.start()
+        watcher = threading.Thread(name="ControlWatcher", target=watch, args=(control, kernel, stopped))
+        watcher.daemon = True
+        watcher.start()
+        code = run(control, kernel, cells, stopped)
+    finally:
+        try:
+            kernel.terminate()
+        except Exception as e:
+            print("fail to shutdown the kernel: %s" % e)
+        write_result(control, code)
+        print("exit %d" % code)
+
+
+if __name__ == '__main__':
+    main(sys.argv[1], sys.argv[2])
@@ -0,0 +1,51 @@
+# The MIT License
+#
+# Copyright 2020 Loghi Perinpanayagam.
+#
+# Permission is hereby granted, free of charge, to any person obtaining a copy
+# of this software and associated documentation files (the "Software"), to deal
+# in the Software without restriction, including without limitation the rights
+# to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+# copies of the Software, and to permit persons to whom the Software is
+# furnished to do so, subject to the following conditions:
+#
+# The above copyright notice and this permission notice shall be included in
+# all copies or substantial portions of the Software.
+#
+# THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+# IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+# FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+# AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+# LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+# OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+# THE SOFTWARE.
+
+# Asks kernel_zygote.py for a kernel and relays its output, so the JVM manages the forked kernel
+# like a process it launched itself. Meant to run with python -S, it only needs the standard
+# library.
+#
+# usage: python -S zygote_client.py <socket path> <kernel name> <address>
+
+import json
+import os
+import signal
+import socket
+import sys
+
+
+def main(socket_path, kernel_name, address):
+    sock = socket.socket(socket.AF_UNIX, socket.SOCK_STREAM)
+    sock.connect(socket_path)
+    request = {'kernel': kernel_name, 'address': address, 'cwd': os.getcwd(), 'env': dict(os.environ)}
+    sock.sendall((json.dumps(request) + '\n').encode('utf-8'))
+    # exiting closes the connection, which stops the forked kernel
+    signal.signal(signal.SIGTERM, lambda signum, frame: os._exit(0))
+    while True:
+        data = sock.recv(65536)
+        if not data:
+            break
+        os.write(1, data)
+
+
+if __name__ == '__main__':
+    main(sys.argv[1], sys.argv[2], sys.argv[3])
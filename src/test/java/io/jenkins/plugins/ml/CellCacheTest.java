@@ -0,0 +1,104 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Loghi Perinpanayagam.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.jenkins.plugins.ml;
+
+import org.apache.zeppelin.interpreter.InterpreterResult;
+import org.apache.zeppelin.interpreter.InterpreterResultMessage;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class CellCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testChangedCellChangesFollowingKeys() {
+        List<String> keys = CellCache.keys("seed", Arrays.asList("a = 1", "b = 2", "print(a + b)"));
+        List<String> changed = CellCache.keys("seed", Arrays.asList("a = 1", "b = 3", "print(a + b)"));
+        assertEquals("Unchanged first cell should keep its key", keys.get(0), changed.get(0));
+        assertNotEquals(keys.get(1), changed.get(1));
+        assertNotEquals("Cells after a changed cell should miss the cache", keys.get(2), changed.get(2));
+        assertNotEquals("Another seed should change every key", keys.get(0),
+                CellCache.keys("other", Collections.singletonList("a = 1")).get(0));
+    }
+
+    @Test
+    public void testJobsDoNotShareKeys() throws Exception {
+        List<String> inputs = Collections.emptyList();
+        assertEquals(CellCache.seed("folder/job", "python3", null, inputs),
+                CellCache.seed("folder/job", "python3", null, inputs));
+        assertNotEquals("Cells of a job should never be replayed by another job",
+                CellCache.seed("folder/job", "python3", null, inputs),
+                CellCache.seed("folder/other", "python3", null, inputs));
+    }
+
+    @Test
+    public void testOutputsAreReplayed() throws Exception {
+        CellCache cache = new CellCache(folder.getRoot(), 1024 * 1024);
+        List<InterpreterResultMessage> messages = Arrays.asList(
+                new InterpreterResultMessage(InterpreterResult.Type.TEXT, "3\n"),
+                new InterpreterResultMessage(InterpreterResult.Type.IMG, "iVBORw0KGgo="),
+                new InterpreterResultMessage(InterpreterResult.Type.HTML, "<b>\u00e9t\u00e9</b>"));
+        assertNull("Nothing is cached yet", cache.get("key"));
+        cache.put("key", messages);
+        List<InterpreterResultMessage> cached = cache.get("key");
+        assertNotNull(cached);
+        assertEquals(messages.size(), cached.size());
+        for (int i = 0; i < messages.size(); i++) {
+            assertEquals(messages.get(i).getType(), cached.get(i).getType());
+            assertEquals(messages.get(i).getData(), cached.get(i).getData());
+        }
+    }
+
+    @Test
+    public void testLeastRecentlyUsedCellsAreEvicted() throws Exception {
+        CellCache cache = new CellCache(folder.getRoot(), 3000);
+        List<InterpreterResultMessage> output = Collections.singletonList(
+                new InterpreterResultMessage(InterpreterResult.Type.TEXT, new String(new char[1000]).replace('\0', 'x')));
+        cache.put("old", output);
+        cache.put("used", output);
+        cache.put("new", output);
+        new File(new File(folder.getRoot(), "old"), "outputs").setLastModified(System.currentTimeMillis() - 30000);
+        new File(new File(folder.getRoot(), "used"), "outputs").setLastModified(System.currentTimeMillis() - 20000);
+        cache.get("used");
+        cache.put("newest", output);
+        cache.trim();
+        assertNull("Least recently used cell should be evicted", cache.get("old"));
+        assertNotNull(cache.get("used"));
+        assertNotNull(cache.get("newest"));
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Loghi Perinpanayagam.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.jenkins.plugins.ml;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.zeppelin.interpreter.InterpreterResult;
+import org.apache.zeppelin.interpreter.InterpreterResultMessage;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class CellGraphTest {
+
+    // import numpy as np / X = np.ones(3) / a = X.sum() / b = X.mean() / print(a, b)
+    private static final String ANALYSIS = CellGraph.MARKER + "["
+            + "{\"forkable\": true, \"reads\": [], \"writes\": [\"np\"]},"
+            + "{\"forkable\": true, \"reads\": [\"np\"], \"writes\": [\"X\"]},"
+            + "{\"forkable\": true, \"reads\": [\"X\"], \"writes\": [\"X\", \"a\"]},"
+            + "{\"forkable\": true, \"reads\": [\"X\"], \"writes\": [\"b\"]},"
+            + "{\"forkable\": true, \"reads\": [\"a\", \"b\", \"print\"], \"writes\": []}]";
+
+    private static CellGraph graph(String analysis) {
+        List<InterpreterResultMessage> messages = Arrays.asList(
+                new InterpreterResultMessage(InterpreterResult.Type.HTML, "<p>"),
+                new InterpreterResultMessage(InterpreterResult.Type.TEXT, "warning\n" + analysis + "\n"));
+        return CellGraph.parse(CellGraph.report(messages), 5);
+    }
+
+    /**
+     * Runs the analysis of cell_graph.py with python, the kernel only transforms the IPython syntax.
+     */
+    private static CellGraph analyze(String... cells) throws Exception {
+        String script = "class _Shell(object):\n    def transform_cell(self, code):\n        return code\n"
+                + "def get_ipython():\n    return _Shell()\n"
+                + CellGraph.getHelpers() + "\n" + CellGraph.analyzeCode(Arrays.asList(cells)) + "\n";
+        Process process;
+        try {
+            process = new ProcessBuilder("python3", "-c", script).redirectErrorStream(true).start();
+        } catch (IOException e) {
+            Assume.assumeNoException("python3 is required", e);
+            return null;
+        }
+        String output = IOUtils.toString(process.getInputStream(), StandardCharsets.UTF_8);
+        process.waitFor();
+        CellGraph graph = CellGraph.parse(CellGraph.report(Collections.singletonList(
+                new InterpreterResultMessage(InterpreterResult.Type.TEXT, output))), cells.length);
+        assertNotNull(output, graph);
+        return graph;
+    }
+
+    @Test
+    public void testCallReadingGlobalRunsInOrder() throws Exception {
+        CellGraph graph = analyze("def f():\n    return X", "X = 1", "f()");
+        assertFalse("f reads X, whoever calls it depends on every earlier cell", graph.isForkable(2));
+        assertEquals(Collections.singletonList(1), graph.ready(Collections.singleton(0)));
+        assertEquals(Collections.singletonList(2), graph.ready(new HashSet<>(Arrays.asList(0, 1))));
+    }
+
+    @Test
+    public void testCallChangingGlobalIsNotForked() throws Exception {
+        CellGraph graph = analyze("data = {}", "def load():\n    data.update(x=1)", "load()", "y = len(data)");
+        assertFalse("The change of data by load would be lost in a forked copy", graph.isForkable(2));
+        assertEquals(Collections.singletonList(2), graph.ready(new HashSet<>(Arrays.asList(0, 1))));
+        graph = analyze("g = lambda: data.clear()", "data = {}", "g()", "y = 1");
+        assertFalse("Lambdas bound by the notebook are functions too", graph.isForkable(2));
+    }
+
+    @Test
+    public void testIndependentCellsAreReady() {
+        CellGraph graph = graph(ANALYSIS.replace("[\"X\", \"a\"]", "[\"a\"]"));
+        assertNotNull(graph);
+        assertEquals(Collections.singletonList(0), graph.ready(Collections.emptySet()));
+        assertEquals(Collections.singletonList(1), graph.ready(Collections.singleton(0)));
+        assertEquals("Cells only reading the same name are independent", Arrays.asList(2, 3),
+                graph.ready(new HashSet<>(Arrays.asList(0, 1))));
+        assertEquals(Collections.singletonList(4), graph.ready(new HashSet<>(Arrays.asList(0, 1, 2, 3))));
+    }
+
+    @Test
+    public void testChangedNameOrdersCells() {
+        CellGraph graph = graph(ANALYSIS);
+        assertNotNull(graph);
+        assertEquals("A cell changing a name runs before a later cell reading it", Collections.singletonList(2),
+                graph.ready(new HashSet<>(Arrays.asList(0, 1))));
+    }
+
+    @Test
+    public void testBarrierRunsInOrder() {
+        CellGraph graph = graph(ANALYSIS.replace("[\"X\", \"a\"]", "[\"a\"]")
+                .replace("{\"forkable\": true, \"reads\": [\"X\"], \"writes\": [\"b\"]}", "null"));
+        assertNotNull(graph);
+        assertEquals(Collections.singletonList(2), graph.ready(new HashSet<>(Arrays.asList(0, 1))));
+        assertEquals(Collections.singletonList(3), graph.ready(new HashSet<>(Arrays.asList(0, 1, 2))));
+        graph.setBarrier(0);
+        assertEquals(Collections.singletonList(0), graph.ready(Collections.emptySet()));
+    }
+
+    @Test
+    public void testUnknownAnalysis() {
+        assertNull("Kernels that can not fork report no analysis", graph(CellGraph.MARKER + "null"));
+        assertNull("The analysis must cover every cell", graph(CellGraph.MARKER + "[null]"));
+        assertNull(CellGraph.parse(CellGraph.report(Collections.singletonList(
+                new InterpreterResultMessage(InterpreterResult.Type.TEXT, "NameError\n"))), 5));
+    }
+}
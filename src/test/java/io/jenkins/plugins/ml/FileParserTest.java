@@ -25,6 +25,7 @@
 package io.jenkins.plugins.ml;
 
 import hudson.FilePath;
+import hudson.model.FreeStyleBuild;
 import hudson.model.FreeStyleProject;
 import io.jenkins.plugins.ml.model.ParsableFile;
 import org.junit.Before;
@@ -34,11 +35,15 @@ import org.jvnet.hudson.test.JenkinsRule;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
 import java.util.ArrayList;
 import java.util.concurrent.ExecutionException;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -75,4 +80,71 @@ public class FileParserTest {
     assertTrue(project.getWorkspace().child("demo.ipynb").exists());
   }
 
+  @Test
+  public void convertJupyterNoteBookToPythonTest() throws InterruptedException, ExecutionException, IOException {
+    String absolutePath = Paths.get("src", "test", "resources", "demo.ipynb").toFile().getAbsolutePath();
+    array = new ArrayList<>();
+    array.add(new ParsableFile(absolutePath, false, "PY", null));
+    array.add(new ParsableFile(absolutePath, false, "JSON", null));
+    fParser = new FileParser(array);
+    project.getBuildWrappersList().add(fParser);
+    jenkins.assertLogContains("demo.ipynb copied and converted to demo.py", project.scheduleBuild2(0).get());
+    assertTrue(project.getWorkspace().child("demo.py").readToString().contains("LogisticRegression"));
+    assertTrue(project.getWorkspace().child("demo.json").exists());
+  }
+
+  @Test
+  public void unchangedNotebookIsNotConvertedAgainTest() throws InterruptedException, ExecutionException, IOException {
+    String absolutePath = Paths.get("src", "test", "resources", "demo.ipynb").toFile().getAbsolutePath();
+    array = new ArrayList<>();
+    array.add(new ParsableFile(absolutePath, false, "PY", null));
+    fParser = new FileParser(array);
+    project.getBuildWrappersList().add(fParser);
+    jenkins.assertLogContains("demo.ipynb copied and converted to demo.py", project.scheduleBuild2(0).get());
+    jenkins.assertLogContains("demo.ipynb unchanged, keeping demo.py", project.scheduleBuild2(0).get());
+    project.getWorkspace().child("demo.py").write("edited", "UTF-8");
+    jenkins.assertLogContains("demo.ipynb copied and converted to demo.py", project.scheduleBuild2(0).get());
+  }
+
+  @Test
+  public void notebookStrippedInPlaceIsNotConvertedAgainTest() throws InterruptedException, ExecutionException, IOException {
+    FilePath workspace = jenkins.jenkins.getWorkspaceFor(project);
+    assertNotNull(workspace);
+    workspace.child("demo.ipynb").copyFrom(new FilePath(Paths.get("src", "test", "resources", "demo.ipynb").toFile()));
+    array = new ArrayList<>();
+    array.add(new ParsableFile("demo.ipynb", false, "STRIPPED", "demo.ipynb"));
+    fParser = new FileParser(array);
+    project.getBuildWrappersList().add(fParser);
+    jenkins.assertLogContains("demo.ipynb copied without outputs to demo.ipynb", project.scheduleBuild2(0).get());
+    jenkins.assertLogContains("demo.ipynb unchanged, keeping demo.ipynb", project.scheduleBuild2(0).get());
+  }
+
+  @Test
+  public void linkFileTest() throws InterruptedException, ExecutionException, IOException {
+    String absolutePath = Paths.get("src", "test", "resources", "demo.ipynb").toFile().getAbsolutePath();
+    array = new ArrayList<>();
+    array.add(new ParsableFile(absolutePath, false, "LINK", "data/demo.ipynb"));
+    fParser = new FileParser(array);
+    project.getBuildWrappersList().add(fParser);
+    FreeStyleBuild build = project.scheduleBuild2(0).get();
+    Path source = Paths.get(absolutePath);
+    Path target = Paths.get(project.getWorkspace().child("data/demo.ipynb").getRemote());
+    assertTrue(Files.exists(target));
+    if (Files.getFileStore(source).equals(Files.getFileStore(target))) {
+      try {
+        jenkins.assertLogContains("demo.ipynb hard linked read-only to", build);
+        assertTrue(Files.isSameFile(source, target));
+        assertFalse("The build should not change the source through the link",
+            Files.getFileStore(target).supportsFileAttributeView(PosixFileAttributeView.class)
+                ? Files.getPosixFilePermissions(target).contains(PosixFilePermission.OWNER_WRITE)
+                : target.toFile().canWrite());
+      } finally {
+        // the source shares the permissions of the link
+        source.toFile().setWritable(true);
+      }
+    } else {
+      jenkins.assertLogContains("demo.ipynb copied (", build);
+    }
+  }
+
 }
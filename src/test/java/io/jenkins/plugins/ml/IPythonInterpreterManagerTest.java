@@ -0,0 +1,130 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Loghi Perinpanayagam.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.jenkins.plugins.ml;
+
+import hudson.AbortException;
+import hudson.FilePath;
+import org.apache.zeppelin.interpreter.InterpreterResultMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IPythonInterpreterManagerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final ByteArrayOutputStream log = new ByteArrayOutputStream();
+    private IPythonInterpreterManager manager;
+
+    @Before
+    public void setUp() throws Exception {
+        // runs every code until it is interrupted
+        KernelInterpreter blocking = new KernelInterpreter() {
+            @Override
+            public List<InterpreterResultMessage> interpretCode(String code) {
+                started.countDown();
+                try {
+                    new CountDownLatch(1).await();
+                } catch (InterruptedException e) {
+                    stopped.countDown();
+                }
+                return Collections.emptyList();
+            }
+
+            @Override
+            public void start() {
+            }
+
+            @Override
+            public void shutdown() {
+            }
+        };
+        manager = new IPythonInterpreterManager(new IPythonUserConfig("python", 1000, 3, ".")) {
+            @Override
+            synchronized KernelInterpreter createInterpreter() {
+                return blocking;
+            }
+        };
+        manager.initiateInterpreter();
+    }
+
+    @After
+    public void tearDown() {
+        manager.close();
+    }
+
+    @Test
+    public void testCellTimeoutStopsTheKernel() throws Exception {
+        manager.setTimeouts(1, 0);
+        try {
+            manager.invokeInterpreter("while True: pass", "task", new FilePath(folder.getRoot()),
+                    new PrintStream(log, true, "UTF-8"));
+            fail("The cell should have timed out");
+        } catch (AbortException e) {
+            assertEquals("Cell timed out after 1 seconds", e.getMessage());
+        }
+        assertTrue("The kernel should have been interrupted", stopped.await(10, TimeUnit.SECONDS));
+        assertTrue(new String(log.toByteArray(), StandardCharsets.UTF_8)
+                .contains("Cell timed out after 1 seconds, interrupting the kernel"));
+    }
+
+    @Test
+    public void testAbortStopsTheKernel() throws Exception {
+        Thread build = Thread.currentThread();
+        new Thread(() -> {
+            try {
+                started.await();
+                build.interrupt();
+            } catch (InterruptedException e) {
+                // the test is over
+            }
+        }).start();
+        try {
+            manager.invokeInterpreter("while True: pass", "task", new FilePath(folder.getRoot()),
+                    new PrintStream(log, true, "UTF-8"));
+            fail("The build should have been aborted");
+        } catch (InterruptedException e) {
+            assertEquals("Execution was aborted", e.getMessage());
+        }
+        assertTrue("The kernel should have been interrupted", stopped.await(10, TimeUnit.SECONDS));
+    }
+}
@@ -27,6 +27,9 @@ package io.jenkins.plugins.ml;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
 public class IPythonUserConfigTest {
 
@@ -52,4 +55,46 @@ public class IPythonUserConfigTest {
         */
     }
 
+    @Test
+    public void testServerIPythonConfig() {
+        Server server = new Server("test", "python", 10, 3);
+        server.setPoolSize(2);
+        server.setWarmupCode(" import numpy ");
+        userConfig = new IPythonUserConfig(server, ".");
+        assertEquals("Timeout not matched", 10000, userConfig.getIPythonLaunchTimeout());
+        assertEquals("Pool size not matched", 2, userConfig.getPoolSize());
+        assertEquals("Idle timeout not matched", Server.DEFAULT_IDLE_TIMEOUT * 1000, userConfig.getIdleTimeout());
+        assertEquals("Warm-up code not matched", "import numpy", userConfig.getWarmupCode());
+    }
+
+    @Test
+    public void testForkServerConfig() {
+        Server server = new Server("test", "python", 10, 3);
+        assertFalse("Fork server enabled by default", new IPythonUserConfig(server, ".").isForkServer());
+        server.setForkServer(true);
+        server.setPreloadModules(" numpy pandas ");
+        userConfig = new IPythonUserConfig(server, ".");
+        assertTrue("Fork server not enabled", userConfig.isForkServer());
+        assertEquals("Preload modules not matched", "numpy pandas", userConfig.getPreloadModules());
+    }
+
+    @Test
+    public void testPoolSettingsAreCompared() {
+        Server server = new Server("test", "python", 10, 3);
+        Server pooled = new Server("test", "python", 10, 3);
+        assertEquals(server, pooled);
+        assertEquals(new IPythonUserConfig(server, "."), new IPythonUserConfig(pooled, "."));
+        pooled.setPoolSize(2);
+        assertNotEquals("Servers differing in pool size are equal", server, pooled);
+        assertNotEquals("Configurations differing in pool size are equal",
+                new IPythonUserConfig(server, "."), new IPythonUserConfig(pooled, "."));
+        server.setPoolSize(2);
+        server.setDomainSocket(true);
+        assertNotEquals(server, pooled);
+        assertNotEquals(new IPythonUserConfig(server, "."), new IPythonUserConfig(pooled, "."));
+        pooled.setDomainSocket(true);
+        assertEquals(server.hashCode(), pooled.hashCode());
+        assertEquals(new IPythonUserConfig(server, ".").hashCode(), new IPythonUserConfig(pooled, ".").hashCode());
+    }
+
 }
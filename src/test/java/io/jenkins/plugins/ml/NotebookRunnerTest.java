@@ -0,0 +1,87 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Loghi Perinpanayagam.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.jenkins.plugins.ml;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class NotebookRunnerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testOnlyCompleteOutputsAreRead() throws Exception {
+        File control = folder.newFolder("control");
+        File output = new File(control, NotebookRunner.OUTPUT);
+        String first = "{\"cell\": 0, \"type\": \"TEXT\", \"output\": \"caf\\u00e9\\n\"}\n";
+        FileUtils.writeStringToFile(output, first + "{\"cell\": 0, \"type\": \"TE", StandardCharsets.UTF_8);
+        FileUtils.touch(new File(control, NotebookRunner.HEARTBEAT));
+
+        NotebookRunner.Progress progress = poll(control, 0);
+        assertEquals("caf\u00e9\n", progress.getText());
+        assertEquals("The partial output should be read by the next poll",
+                first.getBytes(StandardCharsets.UTF_8).length, progress.getOffset());
+        assertNull("The runner is still running", progress.getResult());
+        assertTrue(progress.getIdle() < 60000);
+
+        FileUtils.writeStringToFile(output, "XT\", \"output\": \"done\"}\n{\"cell\": 0, \"end\": \"SUCCESS\"}\n",
+                StandardCharsets.UTF_8, true);
+        FileUtils.writeStringToFile(new File(control, NotebookRunner.RESULT), "0", StandardCharsets.UTF_8);
+        progress = poll(control, progress.getOffset());
+        assertEquals("done\n", progress.getText());
+        assertEquals(output.length(), progress.getOffset());
+        assertEquals(Integer.valueOf(NotebookRunner.SUCCESS), progress.getResult());
+    }
+
+    @Test
+    public void testResultWaitsForTheLastOutput() throws Exception {
+        File control = folder.newFolder("control");
+        File output = new File(control, NotebookRunner.OUTPUT);
+        FileUtils.writeStringToFile(output, "{\"cell\": 1, \"type\": \"TEXT\", \"output\": \"NameError\"}\n"
+                + "{\"cell\": 1, \"end\": \"ERROR\"}\n", StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(new File(control, NotebookRunner.RESULT), "1", StandardCharsets.UTF_8);
+
+        NotebookRunner.Progress progress = poll(control, 0);
+        assertEquals("NameError\nCell 2 failed, the remaining cells are skipped\n", progress.getText());
+        assertEquals(Integer.valueOf(NotebookRunner.FAILED), progress.getResult());
+
+        FileUtils.writeStringToFile(output, "{\"cell\": 2, \"end\"", StandardCharsets.UTF_8, true);
+        assertNull("Outputs not read yet come before the result", poll(control, 0).getResult());
+    }
+
+    private NotebookRunner.Progress poll(File control, long offset) throws Exception {
+        return new NotebookRunner.Poll(offset, "task", folder.getRoot().getAbsolutePath()).invoke(control, null);
+    }
+}
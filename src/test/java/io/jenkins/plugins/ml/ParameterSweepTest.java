@@ -0,0 +1,71 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Loghi Perinpanayagam.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.jenkins.plugins.ml;
+
+import hudson.AbortException;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class ParameterSweepTest {
+
+    @Test
+    public void testGridExpandsToEveryCombination() throws Exception {
+        List<Map<String, String>> combinations =
+                ParameterSweep.combinations("{\"learning_rate\": [0.1, 0.01], \"epochs\": [10, 20, 30]}");
+        assertEquals(6, combinations.size());
+        assertEquals("0.1", combinations.get(0).get("learning_rate"));
+        assertEquals("10", combinations.get(0).get("epochs"));
+        assertEquals("The last parameter should vary fastest", "20", combinations.get(1).get("epochs"));
+        assertEquals("0.01", combinations.get(5).get("learning_rate"));
+        assertEquals("30", combinations.get(5).get("epochs"));
+    }
+
+    @Test
+    public void testValuesArePythonLiterals() throws Exception {
+        List<Map<String, String>> combinations = ParameterSweep.combinations(
+                "{\"model\": \"svm \\\"rbf\\\"\", \"scale\": [true, null], \"layers\": [[64, 32]]}");
+        assertEquals(2, combinations.size());
+        assertEquals("u\"svm \\\"rbf\\\"\"", combinations.get(0).get("model"));
+        assertEquals("True", combinations.get(0).get("scale"));
+        assertEquals("None", combinations.get(1).get("scale"));
+        assertEquals("[64, 32]", combinations.get(0).get("layers"));
+        assertEquals("# Parameters of the sweep\nmodel = u\"svm \\\"rbf\\\"\"\nscale = True\nlayers = [64, 32]\n",
+                ParameterSweep.parametersCell(combinations.get(0)));
+    }
+
+    @Test(expected = AbortException.class)
+    public void testParameterMustBeAnIdentifier() throws Exception {
+        ParameterSweep.combinations("{\"learning rate\": [0.1]}");
+    }
+
+    @Test(expected = AbortException.class)
+    public void testGridMustBeAnObject() throws Exception {
+        ParameterSweep.combinations("[0.1, 0.01]");
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Loghi Perinpanayagam.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.jenkins.plugins.ml;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+public class ResultActionTest {
+
+    @Test
+    public void testParseRange() {
+        assertArrayEquals(new long[]{0, 99}, ResultAction.parseRange("bytes=0-99", 1000));
+        assertArrayEquals(new long[]{500, 999}, ResultAction.parseRange("bytes=500-", 1000));
+        assertArrayEquals(new long[]{900, 999}, ResultAction.parseRange("bytes=-100", 1000));
+        assertArrayEquals("The range should end with the file", new long[]{900, 999},
+                ResultAction.parseRange("bytes=900-5000", 1000));
+        assertArrayEquals("A range after the file can not be satisfied", new long[0],
+                ResultAction.parseRange("bytes=1000-", 1000));
+        assertNull(ResultAction.parseRange(null, 1000));
+        assertNull("Several ranges should get the whole file", ResultAction.parseRange("bytes=0-1,5-6", 1000));
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Loghi Perinpanayagam.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.jenkins.plugins.ml.e2e;
+
+import io.jenkins.plugins.ml.IPythonKernelInterpreter;
+import io.jenkins.plugins.ml.IPythonUserConfig;
+import io.jenkins.plugins.ml.Server;
+import io.jenkins.plugins.ml.jupyter.KernelPrerequisiteCache;
+import io.jenkins.plugins.ml.jupyter.KernelTransport;
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Per-cell round trip latency of a real kernel over loopback TCP and over a unix domain socket.
+ * Skipped unless the python of the agent can run a kernel.
+ */
+public class KernelTransportBenchmarkTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(KernelTransportBenchmarkTest.class);
+
+    private static final int WARMUP_CELLS = 50;
+    private static final int MEASURED_CELLS = 500;
+
+    @Test
+    public void benchmarkTransports() throws Exception {
+        Assume.assumeTrue(KernelPrerequisiteCache.check("python",
+                Arrays.asList("jupyter_client", "grpc", "google.protobuf", "ipykernel")).isEmpty());
+        Assume.assumeTrue(KernelTransport.isDomainSocketSupported());
+
+        long[] tcp = measure(false);
+        long[] unix = measure(true);
+        report("tcp", tcp);
+        report("unix", unix);
+        assertTrue("Domain socket round trips are much slower than TCP", median(unix) <= median(tcp) * 2);
+    }
+
+    private static long[] measure(boolean domainSocket) throws Exception {
+        Server server = new Server("benchmark", "python", 30, 3);
+        server.setDomainSocket(domainSocket);
+        IPythonKernelInterpreter interpreter = new IPythonKernelInterpreter(
+                new IPythonUserConfig(server, System.getProperty("java.io.tmpdir")));
+        try {
+            interpreter.start();
+            for (int i = 0; i < WARMUP_CELLS; i++) {
+                interpreter.interpretCode("x = " + i);
+            }
+            long[] samples = new long[MEASURED_CELLS];
+            for (int i = 0; i < MEASURED_CELLS; i++) {
+                long start = System.nanoTime();
+                interpreter.interpretCode("x = " + i);
+                samples[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(samples);
+            return samples;
+        } finally {
+            interpreter.shutdown();
+        }
+    }
+
+    private static long median(long[] sorted) {
+        return sorted[sorted.length / 2];
+    }
+
+    private static void report(String transport, long[] sorted) {
+        LOGGER.info(String.format("%-4s cell round trip: median %.2f ms, p90 %.2f ms, p99 %.2f ms", transport,
+                median(sorted) / 1e6, sorted[sorted.length * 9 / 10] / 1e6, sorted[sorted.length * 99 / 100] / 1e6));
+    }
+}
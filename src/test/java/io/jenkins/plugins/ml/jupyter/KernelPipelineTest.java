@@ -0,0 +1,215 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Loghi Perinpanayagam.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.jenkins.plugins.ml.jupyter;
+
+import com.google.protobuf.ByteString;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.Server;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ServerCalls;
+import io.jenkins.plugins.ml.jupyter.proto.ExecuteResponse;
+import io.jenkins.plugins.ml.jupyter.proto.ExecuteStatus;
+import io.jenkins.plugins.ml.jupyter.proto.OutputType;
+import io.jenkins.plugins.ml.utils.Dumper;
+import org.apache.zeppelin.interpreter.InterpreterResult;
+import org.apache.zeppelin.interpreter.InterpreterResultMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class KernelPipelineTest {
+
+    private static final byte[] IMAGE = {(byte) 0x89, 'P', 'N', 'G', 0, 1, 2};
+
+    private final List<String> headers = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> svgHeaders = Collections.synchronizedList(new ArrayList<>());
+    private Server server;
+    private ManagedChannel channel;
+
+    @Before
+    public void setUp() throws Exception {
+        String name = InProcessServerBuilder.generateName();
+        // echoes the code of each cell, "fail" fails like a python exception
+        ServerServiceDefinition kernel = ServerServiceDefinition.builder(KernelPipeline.SERVICE_NAME)
+                .addMethod(KernelPipeline.EXECUTE_METHOD, ServerCalls.asyncServerStreamingCall(
+                        (request, responseObserver) -> {
+                    boolean fail = request.getCode().equals("fail");
+                    responseObserver.onNext(ExecuteResponse.newBuilder()
+                            .setStatus(fail ? ExecuteStatus.ERROR : ExecuteStatus.SUCCESS)
+                            .setType(OutputType.TEXT)
+                            .setOutput(request.getCode())
+                            .build());
+                    responseObserver.onCompleted();
+                })).build();
+        ServerInterceptor recordHeaders = new ServerInterceptor() {
+            @Override
+            public <Q, R> ServerCall.Listener<Q> interceptCall(ServerCall<Q, R> call, Metadata metadata,
+                                                             ServerCallHandler<Q, R> next) {
+                headers.add(metadata.get(KernelPipeline.PIPELINE_KEY));
+                svgHeaders.add(metadata.get(KernelPipeline.SVG_KEY));
+                return next.startCall(call, metadata);
+            }
+        };
+        server = InProcessServerBuilder.forName(name).directExecutor()
+                .addService(ServerInterceptors.intercept(kernel, recordHeaders)).build().start();
+        channel = InProcessChannelBuilder.forName(name).directExecutor().build();
+    }
+
+    @After
+    public void tearDown() {
+        channel.shutdownNow();
+        server.shutdownNow();
+    }
+
+    @Test
+    public void testCellsAreReportedInOrder() throws Exception {
+        List<String> outputs = new ArrayList<>();
+        boolean success = new KernelPipeline(channel, 2).execute(Arrays.asList("a", "b", "c"),
+                (index, code, messages) -> {
+                    assertEquals(InterpreterResult.Code.SUCCESS, code);
+                    outputs.add(index + ":" + messages.get(0).getData().trim());
+                });
+        assertTrue("Every cell should succeed", success);
+        assertEquals(Arrays.asList("0:a", "1:b", "2:c"), outputs);
+        assertEquals("Each cell should carry its turn in the pipeline", 3, headers.size());
+        String pipeline = headers.get(0).substring(0, headers.get(0).indexOf('/'));
+        assertEquals(Arrays.asList(pipeline + "/0/3", pipeline + "/1/3", pipeline + "/2/3"), headers);
+        assertEquals("SVG outputs should be asked for", Arrays.asList("true", "true", "true"), svgHeaders);
+    }
+
+    @Test
+    public void testExecutionStopsAtFirstFailedCell() throws Exception {
+        List<InterpreterResult.Code> codes = new ArrayList<>();
+        boolean success = new KernelPipeline(channel, 1).execute(Arrays.asList("a", "fail", "b", "c"),
+                (index, code, messages) -> codes.add(code));
+        assertFalse("The pipeline should report the failed cell", success);
+        assertEquals(Arrays.asList(InterpreterResult.Code.SUCCESS, InterpreterResult.Code.ERROR), codes);
+        assertEquals("Cells after the failed one should not be sent", 2, headers.size());
+    }
+
+    @Test
+    public void testTextIsStreamedAndDropped() throws Exception {
+        List<String> streamed = Collections.synchronizedList(new ArrayList<>());
+        List<String> outputs = new ArrayList<>();
+        boolean success = new KernelPipeline(channel, 2).execute(Arrays.asList("a\n", "b\n"),
+                (index, text) -> streamed.add(index + ":" + new String(text, StandardCharsets.UTF_8)),
+                (index, code, messages) -> messages.forEach(message -> outputs.add(message.getData())));
+        assertTrue(success);
+        assertEquals(Arrays.asList("0:a\n", "1:b\n"), streamed);
+        assertTrue("Streamed text should not be kept in the outputs", outputs.stream().allMatch(String::isEmpty));
+    }
+
+    /**
+     * Starts a kernel sending an image like kernel_server.py does, as raw bytes in the data field of
+     * the response when the client asks for them.
+     */
+    private ManagedChannel imageKernel(List<String> rawHeaders) throws IOException {
+        ServerServiceDefinition service = ServerServiceDefinition.builder(KernelPipeline.SERVICE_NAME)
+                .addMethod(KernelPipeline.EXECUTE_METHOD, ServerCalls.asyncServerStreamingCall(
+                        (request, responseObserver) -> {
+                    ExecuteResponse.Builder response = ExecuteResponse.newBuilder().setType(OutputType.PNG)
+                            .setMimeType("image/png");
+                    if (rawHeaders.get(rawHeaders.size() - 1) == null) {
+                        response.setOutput(Base64.getEncoder().encodeToString(IMAGE));
+                    } else {
+                        response.setData(ByteString.copyFrom(IMAGE));
+                    }
+                    responseObserver.onNext(response.build());
+                    responseObserver.onCompleted();
+                })).build();
+        ServerInterceptor recordHeaders = new ServerInterceptor() {
+            @Override
+            public <Q, R> ServerCall.Listener<Q> interceptCall(ServerCall<Q, R> call, Metadata metadata,
+                                                             ServerCallHandler<Q, R> next) {
+                rawHeaders.add(metadata.get(KernelPipeline.RAW_DATA_KEY));
+                return next.startCall(call, metadata);
+            }
+        };
+        String name = InProcessServerBuilder.generateName();
+        server.shutdownNow();
+        server = InProcessServerBuilder.forName(name).directExecutor()
+                .addService(ServerInterceptors.intercept(service, recordHeaders)).build().start();
+        return InProcessChannelBuilder.forName(name).directExecutor().build();
+    }
+
+    @Test
+    public void testImagesAreReceivedAsRawBytes() throws Exception {
+        List<byte[]> images = Collections.synchronizedList(new ArrayList<>());
+        List<String> outputs = new ArrayList<>();
+        ManagedChannel kernel = imageKernel(new ArrayList<>());
+        try {
+            boolean success = new KernelPipeline(kernel, 1).execute(Collections.singletonList("plot()"), null,
+                    (index, mimeType, data) -> {
+                        assertEquals("image/png", mimeType);
+                        images.add(data);
+                    },
+                    (index, code, messages) -> messages.forEach(message -> outputs.add(message.getData())));
+            assertTrue(success);
+        } finally {
+            kernel.shutdownNow();
+        }
+        assertEquals(1, images.size());
+        assertArrayEquals(IMAGE, images.get(0));
+        assertTrue("The image should not be in the outputs", outputs.isEmpty());
+    }
+
+    @Test
+    public void testImagesStayInOutputsWithoutListener() throws Exception {
+        List<String> rawHeaders = new ArrayList<>();
+        List<InterpreterResultMessage> outputs = new ArrayList<>();
+        ManagedChannel kernel = imageKernel(rawHeaders);
+        try {
+            new KernelPipeline(kernel, 1).execute(Collections.singletonList("plot()"),
+                    (index, code, messages) -> outputs.addAll(messages));
+        } finally {
+            kernel.shutdownNow();
+        }
+        assertEquals("Raw bytes should only be asked for with a listener", Collections.singletonList(null), rawHeaders);
+        assertEquals(InterpreterResult.Type.IMG, outputs.get(0).getType());
+        assertEquals("The image output should keep its type",
+                Dumper.imageData(Base64.getEncoder().encodeToString(IMAGE), "image/png"),
+                outputs.get(0).getData().trim());
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Loghi Perinpanayagam.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.jenkins.plugins.ml.jupyter;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class KernelPrerequisiteCacheTest {
+
+    private static final List<String> MODULES = Collections.singletonList("ipykernel");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File sitePackages;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue("Needs a shell to fake python", new File("/bin/sh").canExecute());
+        sitePackages = folder.newFolder("site-packages");
+    }
+
+    /**
+     * Creates an executable answering the probe like a python with every module installed, counting its runs.
+     */
+    private File python(String name) throws Exception {
+        File python = new File(folder.getRoot(), name);
+        File runs = new File(folder.getRoot(), name + ".runs");
+        String script = "#!/bin/sh\n"
+                + "echo run >> '" + runs.getAbsolutePath() + "'\n"
+                + "echo missing=\n"
+                + "echo path=" + sitePackages.getAbsolutePath() + "\n";
+        Files.write(python.toPath(), script.getBytes(StandardCharsets.UTF_8));
+        assertTrue(python.setExecutable(true));
+        return python;
+    }
+
+    private int runs(File python) throws Exception {
+        File runs = new File(python.getPath() + ".runs");
+        return runs.exists() ? Files.readAllLines(runs.toPath()).size() : 0;
+    }
+
+    @Test
+    public void testUnchangedEnvironmentIsNotProbedAgain() throws Exception {
+        File python = python("python");
+        assertEquals("", KernelPrerequisiteCache.check(python.getAbsolutePath(), MODULES));
+        assertEquals("", KernelPrerequisiteCache.check(python.getAbsolutePath(), MODULES));
+        assertEquals("The second check should be cached", 1, runs(python));
+        // installing a package changes site-packages
+        assertTrue(sitePackages.setLastModified(sitePackages.lastModified() - 60000));
+        assertEquals("", KernelPrerequisiteCache.check(python.getAbsolutePath(), MODULES));
+        assertEquals("A changed environment should be probed again", 2, runs(python));
+    }
+
+    @Test
+    public void testChangedExecutableIsProbedAgain() throws Exception {
+        File python = python("python3");
+        assertEquals("", KernelPrerequisiteCache.check(python.getAbsolutePath(), MODULES));
+        File other = python("python3.8");
+        assertEquals("", KernelPrerequisiteCache.check(other.getAbsolutePath(), MODULES));
+        assertEquals("Another executable should be probed", 1, runs(other));
+        // upgrading the interpreter replaces the binary
+        assertTrue(python.setLastModified(python.lastModified() - 60000));
+        assertEquals("", KernelPrerequisiteCache.check(python.getAbsolutePath(), MODULES));
+        assertEquals("A replaced executable should be probed again", 2, runs(python));
+    }
+}
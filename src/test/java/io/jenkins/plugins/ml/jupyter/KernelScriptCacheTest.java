@@ -0,0 +1,60 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Loghi Perinpanayagam.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.jenkins.plugins.ml.jupyter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class KernelScriptCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLiveScratchDirectoryIsKept() throws Exception {
+        File directory = KernelScriptCache.createScratchDirectory("python3");
+        try {
+            assertTrue(new File(directory, KernelScriptCache.OWNER_LOCK).isFile());
+            assertFalse("The owner of the directory is still running", KernelScriptCache.isOwnerGone(directory));
+        } finally {
+            KernelScriptCache.deleteScratchDirectory(directory);
+        }
+        assertFalse(directory.exists());
+    }
+
+    @Test
+    public void testDirectoryWithFreeLockIsLeaked() throws Exception {
+        File directory = folder.newFolder("zeppelin_jupyter_kernel_python3");
+        assertFalse("Directories without an owner lock are kept", KernelScriptCache.isOwnerGone(directory));
+        assertTrue(new File(directory, KernelScriptCache.OWNER_LOCK).createNewFile());
+        assertTrue("Nobody holds the lock, so the owner is gone", KernelScriptCache.isOwnerGone(directory));
+    }
+}
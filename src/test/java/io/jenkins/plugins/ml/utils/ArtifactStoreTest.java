@@ -0,0 +1,87 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Loghi Perinpanayagam.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.jenkins.plugins.ml.utils;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ArtifactStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ArtifactStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue("Link counts are only known on unix",
+                FileSystems.getDefault().supportedFileAttributeViews().contains("unix"));
+        store = new ArtifactStore(folder.newFolder("store"), 0);
+    }
+
+    private File add(String content, File task) throws Exception {
+        Path temp = store.createTempFile(task);
+        Files.write(temp, content.getBytes(StandardCharsets.UTF_8));
+        return store.add(temp, null, task, "html");
+    }
+
+    @Test
+    public void testSameContentIsStoredOnce() throws Exception {
+        File first = add("<b>plot</b>", new File(folder.getRoot(), "build1/Training"));
+        File second = add("<b>plot</b>", new File(folder.getRoot(), "build2/Training"));
+        assertEquals(first.getName(), second.getName());
+        assertTrue("Task folders should share the stored file", Files.isSameFile(first.toPath(), second.toPath()));
+        assertEquals(3, Files.getAttribute(first.toPath(), "unix:nlink"));
+        assertFalse("A build should not change the file shared with the other builds",
+                Files.getPosixFilePermissions(first.toPath()).contains(PosixFilePermission.OWNER_WRITE));
+        assertEquals("Nothing is collected while the artifact is linked", 0, store.collect());
+    }
+
+    @Test
+    public void testUnreferencedContentIsCollected() throws Exception {
+        File first = add("<b>plot</b>", new File(folder.getRoot(), "build1/Training"));
+        File second = add("<b>plot</b>", new File(folder.getRoot(), "build2/Training"));
+        Files.delete(first.toPath());
+        assertEquals(0, store.collect());
+        Files.delete(second.toPath());
+        assertEquals("The blob should be collected once no task folder links to it", 1, store.collect());
+        File other = add("<b>plot</b>", new File(folder.getRoot(), "build3/Training"));
+        assertEquals("<b>plot</b>", new String(Files.readAllBytes(other.toPath()), StandardCharsets.UTF_8));
+    }
+}
@@ -31,7 +31,9 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -70,4 +72,15 @@ public class ConvertHelperTest {
         assertTrue(!text.startsWith("#"));
     }
 
+    @Test
+    public void testParametersCellIndex() throws IOException, InterruptedException {
+        Path resourceDirectory = Paths.get("src", "test", "resources", "parameters.ipynb");
+        FilePath file = new FilePath(resourceDirectory.toFile().getAbsoluteFile());
+        List<String> cells = ConvertHelper.jupyterToTextArray(file);
+        int index = ConvertHelper.parametersCellIndex(file);
+        assertEquals("Markdown cells should not be counted", 1, index);
+        assertTrue(cells.get(index).contains("learning_rate = 0.1"));
+        FilePath untagged = new FilePath(Paths.get("src", "test", "resources", "demo.ipynb").toFile().getAbsoluteFile());
+        assertEquals(-1, ConvertHelper.parametersCellIndex(untagged));
+    }
 }
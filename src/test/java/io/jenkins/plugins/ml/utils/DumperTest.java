@@ -0,0 +1,134 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Loghi Perinpanayagam.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.jenkins.plugins.ml.utils;
+
+import hudson.FilePath;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DumperTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws Exception {
+        System.setProperty(ArtifactStore.DIRECTORY_PROPERTY, folder.newFolder("store").getPath());
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(Dumper.MAX_IMAGE_SIZE_PROPERTY);
+        System.clearProperty(ArtifactStore.DIRECTORY_PROPERTY);
+    }
+
+    private static byte[] image(String format, int size) throws Exception {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                image.setRGB(x, y, x * 31 + y * 17 * 256 + (x ^ y) * 65536);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, format, out);
+        return out.toByteArray();
+    }
+
+    private File dump(byte[] image) throws Exception {
+        // kernels wrap long base64 lines
+        return dump(Base64.getMimeEncoder().encodeToString(image));
+    }
+
+    private File dump(String data) throws Exception {
+        Dumper.dumpImage(data, "task", new FilePath(folder.getRoot()));
+        File[] files = new File(folder.getRoot(), "task").listFiles();
+        assertEquals("Only the image should be left in the task folder", 1, files.length);
+        return files[0];
+    }
+
+    @Test
+    public void testImageIsWrittenAsIs() throws Exception {
+        byte[] png = image("png", 64);
+        File file = dump(png);
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(png);
+        assertEquals("Image should be named by its content", ArtifactStore.hex(digest) + ".png", file.getName());
+        assertArrayEquals(png, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void testExtensionFollowsFormat() throws Exception {
+        byte[] jpeg = image("jpeg", 16);
+        File file = dump(jpeg);
+        assertTrue(file.getName().endsWith(".jpeg"));
+        assertArrayEquals("JPEG should not be converted", jpeg, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void testExtensionFollowsMimeType() throws Exception {
+        byte[] jpeg = image("jpeg", 16);
+        Dumper.dumpImage(Base64.getEncoder().encodeToString(jpeg), "image/png", "typed",
+                new FilePath(folder.getRoot()));
+        Dumper.dumpImage(Base64.getEncoder().encodeToString(jpeg), "image/x-unknown", "unknown",
+                new FilePath(folder.getRoot()));
+        assertTrue("The type sent by the kernel wins over the content",
+                new File(folder.getRoot(), "typed").listFiles()[0].getName().endsWith(".png"));
+        assertTrue("An unknown type falls back to the content",
+                new File(folder.getRoot(), "unknown").listFiles()[0].getName().endsWith(".jpeg"));
+    }
+
+    @Test
+    public void testImageDataCarriesMimeType() throws Exception {
+        byte[] gif = image("gif", 16);
+        File file = dump(Dumper.imageData(Base64.getMimeEncoder().encodeToString(gif), "image/gif"));
+        assertTrue(file.getName().endsWith(".gif"));
+        assertArrayEquals(gif, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void testLargeImageIsScaledDown() throws Exception {
+        byte[] png = image("png", 256);
+        System.setProperty(Dumper.MAX_IMAGE_SIZE_PROPERTY, String.valueOf(png.length / 4));
+        File file = dump(png);
+        BufferedImage scaled = ImageIO.read(file);
+        assertTrue("Image should be scaled down", scaled.getWidth() < 256);
+        assertEquals(scaled.getWidth(), scaled.getHeight());
+    }
+}
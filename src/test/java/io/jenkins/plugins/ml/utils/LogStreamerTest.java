@@ -0,0 +1,138 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Loghi Perinpanayagam.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.jenkins.plugins.ml.utils;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LogStreamerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testOutputsAreBufferedUntilFlushed() throws Exception {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        try (LogStreamer streamer = new LogStreamer(new PrintStream(log, false, "UTF-8"))) {
+            streamer.write("epoch 1\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals("Small outputs should wait in the buffer", 0, log.size());
+            long deadline = System.currentTimeMillis() + 10 * LogStreamer.FLUSH_INTERVAL;
+            while (log.size() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals("A quiet kernel should not hold outputs back", "epoch 1\n", log.toString("UTF-8"));
+            streamer.write("epoch 2\n".getBytes(StandardCharsets.UTF_8));
+        }
+        assertEquals("Closing should write the rest", "epoch 1\nepoch 2\n", log.toString("UTF-8"));
+    }
+
+    @Test
+    public void testFullBufferIsWritten() throws Exception {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        byte[] line = new byte[LogStreamer.FLUSH_SIZE];
+        Arrays.fill(line, (byte) 'x');
+        try (LogStreamer streamer = new LogStreamer(new PrintStream(log, false, "UTF-8"))) {
+            streamer.write(line);
+            assertEquals(LogStreamer.FLUSH_SIZE, log.size());
+        }
+    }
+
+    @Test
+    public void testPrefixedStreamerWritesWholeLines() throws Exception {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        try (LogStreamer streamer = new LogStreamer(new PrintStream(log, false, "UTF-8"), 0, null, null, "[a] ")) {
+            streamer.write("epoch 1\nepoch".getBytes(StandardCharsets.UTF_8));
+            streamer.flush();
+            assertEquals("The end of a line should wait for the rest", "[a] epoch 1\n", log.toString("UTF-8"));
+            streamer.write(" 2\n".getBytes(StandardCharsets.UTF_8));
+            streamer.println("done");
+            streamer.write("no end".getBytes(StandardCharsets.UTF_8));
+        }
+        assertEquals("[a] epoch 1\n[a] epoch 2\n[a] done" + System.lineSeparator() + "[a] no end",
+                log.toString("UTF-8"));
+    }
+
+    @Test
+    public void testOutputOverLimitIsSpilled() throws Exception {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        File outputs = new File(folder.getRoot(), "outputs");
+        StringBuilder full = new StringBuilder();
+        try (LogStreamer streamer = new LogStreamer(new PrintStream(log, false, "UTF-8"), 100, outputs, null)) {
+            for (int i = 0; i < 5000; i++) {
+                String line = "loss " + i + "\n";
+                full.append(line);
+                streamer.write(line.getBytes(StandardCharsets.UTF_8));
+            }
+            streamer.endCell();
+            streamer.println("next cell");
+        }
+        String text = log.toString("UTF-8");
+        assertTrue("The log should start with the head of the output", text.startsWith(full.substring(0, 100)));
+        assertTrue("The log should end with the tail of the output", text.endsWith("loss 4999\nnext cell\n"));
+        assertFalse("The middle of the output should be left out", text.contains("loss 2500\n"));
+        assertTrue(text.length() < 100 + LogStreamer.TAIL_SIZE + 1000);
+        File[] spilled = outputs.listFiles();
+        assertEquals(1, spilled.length);
+        assertTrue(text.contains(spilled[0].getPath()));
+        try (InputStream in = new GZIPInputStream(new FileInputStream(spilled[0]))) {
+            assertEquals("The file should hold the whole output", full.toString(),
+                    IOUtils.toString(in, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testHtmlOverLimitIsSpilled() throws Exception {
+        File outputs = new File(folder.getRoot(), "outputs");
+        StringBuilder html = new StringBuilder("<table>");
+        for (int i = 0; i < 100; i++) {
+            html.append("<tr><td>").append(i).append("</td></tr>");
+        }
+        byte[] bytes = html.append("</table>").toString().getBytes(StandardCharsets.UTF_8);
+        String summary = LogStreamer.spillHtml(bytes, 100, outputs, "job/test/1/ml/output/");
+        File[] spilled = outputs.listFiles();
+        assertEquals(1, spilled.length);
+        assertTrue(spilled[0].getName().endsWith(".html.gz"));
+        assertTrue("The log should link to the file", summary.contains(spilled[0].getName()));
+        try (InputStream in = new GZIPInputStream(new FileInputStream(spilled[0]))) {
+            assertEquals("The file should hold the whole output", html.toString(),
+                    IOUtils.toString(in, StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Loghi Perinpanayagam.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.jenkins.plugins.ml.utils;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class NotebookCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File notebook(String name, String code) throws Exception {
+        File file = folder.newFile(name);
+        String json = "{\"cells\": [{\"cell_type\": \"code\", \"source\": \"" + code + "\", \"metadata\": {},"
+                + " \"outputs\": []}], \"metadata\": {}, \"nbformat\": 4, \"nbformat_minor\": 2}";
+        Files.write(file.toPath(), json.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void testSameContentIsParsedOnce() throws Exception {
+        NotebookCache cache = new NotebookCache(1024 * 1024);
+        List<NotebookReader.Cell> first = cache.getCells(notebook("build1.ipynb", "x = 1"));
+        List<NotebookReader.Cell> second = cache.getCells(notebook("build2.ipynb", "x = 1"));
+        assertSame("Copies of a notebook should share the parsed cells", first, second);
+        assertEquals(1, cache.getParses());
+        assertTrue(cache.getCells(notebook("changed.ipynb", "x = 2")).get(0).getText().endsWith("x = 2"));
+        assertEquals("A changed notebook should be parsed again", 2, cache.getParses());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws Exception {
+        File a = notebook("a.ipynb", "a = 1");
+        File b = notebook("b.ipynb", "b = 1");
+        NotebookCache cache = new NotebookCache(1);
+        List<NotebookReader.Cell> cells = cache.getCells(a);
+        assertSame("The last notebook stays cached even over the limit", cells, cache.getCells(a));
+        cache.getCells(b);
+        cache.getCells(a);
+        assertEquals("a should have been evicted by b", 3, cache.getParses());
+        assertTrue(cache.getSize() > 1);
+    }
+
+    @Test
+    public void testNoteIsConvertedOnce() throws Exception {
+        NotebookCache cache = new NotebookCache(1024 * 1024);
+        String note = cache.getNote(notebook("build1.ipynb", "x = 1"));
+        assertTrue(note.contains("x = 1"));
+        assertSame("Copies of a notebook should share the converted note", note,
+                cache.getNote(notebook("build2.ipynb", "x = 1")));
+        cache.getCells(notebook("build3.ipynb", "x = 1"));
+        assertEquals("The cells and the note are parsed separately", 2, cache.getParses());
+    }
+
+    @Test
+    public void testNotebookIsReadOnce() throws Exception {
+        byte[] json = Files.readAllBytes(notebook("a.ipynb", "a = 1").toPath());
+        File pipe = new File(folder.getRoot(), "pipe.ipynb");
+        Assume.assumeTrue("Needs mkfifo", new ProcessBuilder("mkfifo", pipe.getPath()).start().waitFor() == 0);
+        NotebookCache cache = new NotebookCache(1024 * 1024);
+        FutureTask<List<NotebookReader.Cell>> reading = new FutureTask<>(() -> cache.getCells(pipe));
+        Thread thread = new Thread(reading);
+        thread.start();
+        // the pipe holds the notebook once, a second read for the digest or the parse would never return
+        try (OutputStream out = new FileOutputStream(pipe)) {
+            out.write(json);
+        }
+        assertEquals(1, reading.get(10, TimeUnit.SECONDS).size());
+        assertEquals(1, cache.getParses());
+    }
+}
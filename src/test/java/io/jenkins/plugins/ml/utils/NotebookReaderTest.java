@@ -0,0 +1,111 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Loghi Perinpanayagam.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.jenkins.plugins.ml.utils;
+
+import org.apache.zeppelin.jupyter.JupyterUtil;
+import org.apache.zeppelin.jupyter.zformat.Paragraph;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class NotebookReaderTest {
+
+    private static List<NotebookReader.Cell> read(NotebookReader notebook) throws IOException {
+        List<NotebookReader.Cell> cells = new ArrayList<>();
+        try (NotebookReader reader = notebook) {
+            for (NotebookReader.Cell cell = reader.next(); cell != null; cell = reader.next()) {
+                cells.add(cell);
+            }
+            assertNull("The reader should stay at the end", reader.next());
+        }
+        return cells;
+    }
+
+    @Test
+    public void testCellsMatchJupyterUtil() throws IOException {
+        for (String name : new String[]{"demo.ipynb", "demo_bash.ipynb", "JS.ipynb", "parameters.ipynb"}) {
+            Path path = Paths.get("src", "test", "resources", name);
+            List<Paragraph> paragraphs;
+            try (Reader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                paragraphs = new JupyterUtil().getNote(in, "python", "\n", "#").getParagraphs();
+            }
+            List<NotebookReader.Cell> cells = read(NotebookReader.jupyter(Files.newBufferedReader(path, StandardCharsets.UTF_8)));
+            assertEquals(name, paragraphs.size(), cells.size());
+            for (int i = 0; i < cells.size(); i++) {
+                assertEquals(name + " cell " + i, paragraphs.get(i).getText(), cells.get(i).getText());
+                assertEquals(name + " cell " + i,
+                        ConvertHelper.MARKDOWN_ANNOTATION.equals(paragraphs.get(i).getConfig().get("editorMode")),
+                        cells.get(i).isMarkdown());
+            }
+        }
+    }
+
+    @Test
+    public void testOutputsAndMetadataAreSkipped() throws IOException {
+        String notebook = "{\"metadata\": {\"kernelspec\": {\"name\": \"python3\"}}, \"cells\": ["
+                + "{\"outputs\": [{\"output_type\": \"display_data\", \"data\": {\"image/png\": \"iVBORw0KGgo=\"}}],"
+                + " \"source\": [\"x = 1\\n\", \"plot(x)\"], \"metadata\": {\"tags\": [\"parameters\"]}, \"cell_type\": \"code\"},"
+                + "{\"cell_type\": \"markdown\", \"attachments\": {\"a.png\": {\"image/png\": \"iVBORw0KGgo=\"}}, \"source\": \"# Title\"}"
+                + "], \"nbformat\": 4, \"nbformat_minor\": 2}";
+        List<NotebookReader.Cell> cells = read(NotebookReader.jupyter(new StringReader(notebook)));
+        assertEquals(2, cells.size());
+        assertEquals("code", cells.get(0).getType());
+        assertTrue(cells.get(0).getText().endsWith("x = 1\nplot(x)"));
+        assertEquals(Collections.singletonList("parameters"), cells.get(0).getTags());
+        assertTrue(cells.get(1).isMarkdown());
+        assertTrue(cells.get(1).getTags().isEmpty());
+    }
+
+    @Test
+    public void testZeppelinParagraphs() throws IOException {
+        String note = "{\"name\": \"note\", \"paragraphs\": ["
+                + "{\"text\": \"%md\\n# Title\", \"config\": {\"editorMode\": \"ace/mode/markdown\", \"editorHide\": true}},"
+                + "{\"results\": {\"code\": \"SUCCESS\", \"msg\": [{\"type\": \"IMG\", \"data\": \"iVBORw0KGgo=\"}]},"
+                + " \"config\": {\"editorMode\": \"ace/mode/python\"}, \"text\": \"print(1)\"}"
+                + "]}";
+        List<NotebookReader.Cell> cells = read(NotebookReader.zeppelin(new StringReader(note)));
+        assertEquals(2, cells.size());
+        assertTrue(cells.get(0).isMarkdown());
+        assertFalse(cells.get(1).isMarkdown());
+        assertEquals("print(1)", cells.get(1).getText());
+        assertTrue(read(NotebookReader.zeppelin(new StringReader("{\"name\": \"empty\"}"))).isEmpty());
+        assertEquals(Arrays.asList(), read(NotebookReader.jupyter(new StringReader("{\"cells\": []}"))));
+    }
+}
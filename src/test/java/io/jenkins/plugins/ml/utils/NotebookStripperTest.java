@@ -0,0 +1,107 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Loghi Perinpanayagam.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.jenkins.plugins.ml.utils;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NotebookStripperTest {
+
+    private static final String NOTEBOOK = "{\"metadata\": {\"kernelspec\": {\"name\": \"python3\"}, \"widgets\": {}},"
+            + " \"nbformat\": 4, \"nbformat_minor\": 2, \"cells\": ["
+            + "{\"cell_type\": \"code\", \"execution_count\": 7, \"metadata\": {\"tags\": [\"parameters\"], \"scrolled\": true},"
+            + " \"source\": [\"x = 1\\n\", \"plot(x)\"],"
+            + " \"outputs\": [{\"output_type\": \"display_data\", \"data\": {\"image/png\": \"iVBORw0KGgo=\"}}]},"
+            + "{\"cell_type\": \"markdown\", \"metadata\": {}, \"source\": \"# Title\"}]}";
+
+    private static JsonObject strip(String notebook, boolean stripMetadata) throws IOException {
+        StringWriter out = new StringWriter();
+        NotebookStripper.strip(new StringReader(notebook), out, stripMetadata);
+        return new JsonParser().parse(out.toString()).getAsJsonObject();
+    }
+
+    @Test
+    public void testOutputsAndExecutionCountsAreRemoved() throws IOException {
+        JsonObject stripped = strip(NOTEBOOK, false);
+        JsonObject code = stripped.getAsJsonArray("cells").get(0).getAsJsonObject();
+        assertEquals(0, code.getAsJsonArray("outputs").size());
+        assertTrue(code.get("execution_count").isJsonNull());
+        assertEquals("x = 1\n", code.getAsJsonArray("source").get(0).getAsString());
+        assertTrue(code.getAsJsonObject("metadata").has("scrolled"));
+        assertTrue(stripped.getAsJsonObject("metadata").has("widgets"));
+        assertEquals("4", stripped.get("nbformat").toString());
+        assertEquals("# Title", stripped.getAsJsonArray("cells").get(1).getAsJsonObject().get("source").getAsString());
+    }
+
+    @Test
+    public void testMetadataIsStrippedButKernelAndTags() throws IOException {
+        JsonObject stripped = strip(NOTEBOOK, true);
+        JsonObject metadata = stripped.getAsJsonObject("metadata");
+        assertTrue(metadata.has("kernelspec"));
+        assertFalse(metadata.has("widgets"));
+        JsonObject cellMetadata = stripped.getAsJsonArray("cells").get(0).getAsJsonObject().getAsJsonObject("metadata");
+        assertTrue(cellMetadata.has("tags"));
+        assertFalse(cellMetadata.has("scrolled"));
+    }
+
+    @Test
+    public void testStrippedNotebookHasTheSameCells() throws IOException {
+        for (String name : new String[]{"demo.ipynb", "demo_bash.ipynb", "JS.ipynb", "parameters.ipynb"}) {
+            Path path = Paths.get("src", "test", "resources", name);
+            StringWriter out = new StringWriter();
+            try (Reader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                NotebookStripper.strip(in, out, true);
+            }
+            assertEquals(name, texts(NotebookReader.jupyter(Files.newBufferedReader(path, StandardCharsets.UTF_8))),
+                    texts(NotebookReader.jupyter(new StringReader(out.toString()))));
+        }
+    }
+
+    private static List<String> texts(NotebookReader notebook) throws IOException {
+        List<String> texts = new ArrayList<>();
+        try (NotebookReader reader = notebook) {
+            for (NotebookReader.Cell cell = reader.next(); cell != null; cell = reader.next()) {
+                texts.add(cell.getType() + cell.getTags() + cell.getText());
+            }
+        }
+        return texts;
+    }
+}
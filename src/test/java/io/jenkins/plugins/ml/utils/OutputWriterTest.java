@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Loghi Perinpanayagam.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.jenkins.plugins.ml.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OutputWriterTest {
+
+    private OutputWriter writer;
+
+    @Before
+    public void setUp() {
+        writer = new OutputWriter(1, 2);
+    }
+
+    @After
+    public void tearDown() {
+        writer.close();
+    }
+
+    @Test
+    public void testSubmitBlocksWhenQueueIsFull() throws Exception {
+        CountDownLatch disk = new CountDownLatch(1);
+        AtomicInteger written = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            writer.submit(() -> {
+                disk.await();
+                written.incrementAndGet();
+            });
+        }
+        assertEquals(3, writer.getQueueDepth());
+        Thread producer = new Thread(() -> {
+            try {
+                writer.submit(written::incrementAndGet);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        producer.join(200);
+        assertTrue("The fourth output should wait for a free slot", producer.isAlive());
+        disk.countDown();
+        producer.join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse(producer.isAlive());
+        writer.flush();
+        assertEquals(4, written.get());
+        assertEquals(0, writer.getQueueDepth());
+        assertEquals(3, writer.getMaxQueueDepth());
+        assertEquals(4, writer.getWrites());
+        assertTrue(writer.getSummary().startsWith("Wrote 4 outputs, at most 3 queued, latency "));
+        OutputWriter.Metrics metrics = writer.getMetrics();
+        assertEquals(4, metrics.getWrites());
+        assertEquals(3, metrics.getMaxQueueDepth());
+        assertTrue("The latency should include the wait for the disk", metrics.getMaxLatency() >= 200);
+        assertEquals(writer.getSummary(), metrics.getSummary());
+    }
+
+    @Test
+    public void testFlushThrowsFailedWrite() throws Exception {
+        AtomicInteger written = new AtomicInteger();
+        writer.submit(() -> {
+            throw new IOException("disk full");
+        });
+        writer.submit(written::incrementAndGet);
+        try {
+            writer.flush();
+            fail("The failed write should be reported");
+        } catch (IOException e) {
+            assertEquals("disk full", e.getMessage());
+        }
+        assertEquals("Writes after a failed one still run", 1, written.get());
+        writer.flush();
+    }
+}